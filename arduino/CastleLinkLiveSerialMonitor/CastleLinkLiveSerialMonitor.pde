@@ -67,20 +67,32 @@ uint16_t tMin = 1000;
 uint16_t tMax = 2000;
 uint8_t nESC;
 
+// pipelined mode: replies are tagged with the sequence of the command
+boolean pipelined = false;
+uint8_t cmdSeq = 0;
+
 void reply(uint8_t ack) {
-	//let USART ISR process other incoming data since we have terminated
+	//let USART ISR use the queue slot since we have terminated
 	//accessing command data
 	commandProcessed();
 
 	tx(OUT_RESPONSE_HEADER_H);
-	tx(OUT_RESPONSE_HEADER_L | (ack & 0x01) ) ;
+	if (pipelined) {
+		uint8_t l = OUT_SEQRESPONSE_HEADER_L | (cmdSeq << SEQ_SHIFT_RESPONSE) | (ack & 0x01);
+		tx(l);
+		tx(OUT_RESPONSE_HEADER_H ^ l); //checksum
+	} else
+		tx(OUT_RESPONSE_HEADER_L | (ack & 0x01) ) ;
 }
 
 void processCommand(COMMAND *c) {
   int throttlePin = THROTTLE_IN_PIN;
+  uint8_t value;
+  
+  cmdSeq = c->id >> CMD_SEQ_SHIFT;
   
   //process command
-  switch(c->id) {
+  switch(c->id & CMD_ID_MASK) {
     case CMD_NOOP:
       reply(R_ACK);
       break;
@@ -88,6 +100,7 @@ void processCommand(COMMAND *c) {
     case CMD_HELLO:
       if (state < STATUS_ARMED) {
         state = STATUS_CONF;
+        pipelined = false; //new session starts in stop-and-wait mode
         reply(R_ACK);
       } else
         reply(R_NACK);
@@ -126,6 +139,17 @@ void processCommand(COMMAND *c) {
         reply(R_NACK);
       break;
 
+    case CMD_SET_PIPELINE:
+      //window is the number of commands host will send without waiting
+      //for replies: it must fit our queue
+      value = c->l;
+      if ( (state == STATUS_CONF) && (value >= 1) && (value < QUEUE_LEN) ) {
+        reply(R_ACK); //this reply is still not tagged
+        pipelined = (value > 1);
+      } else
+        reply(R_NACK);
+      break;
+
     case CMD_START:
       if (state == STATUS_CONF) {
         if (autoGenThrottle) 
@@ -223,9 +247,9 @@ void sendData(uint8_t escID, CASTLE_RAW_DATA *data) {
 
 void loop() {
   CASTLE_RAW_DATA escData;
-  COMMAND *command = getNextCommand();
+  COMMAND *command;
 
-  if ( command ) processCommand(command);
+  while ( (command = getNextCommand()) ) processCommand(command);
   
   switch(state) {
     case STATUS_HELLO:
@@ -28,14 +28,13 @@
 #include "USART.h"
 #include "protocol.h"
 
-COMMAND cmdToProcess; //store for the to-be-processed command
-volatile uint8_t cmdProcessed = 1; //flag to indicate processed/still-to-process
+COMMAND cmdQueue[QUEUE_LEN]; //store for the to-be-processed commands
+volatile uint8_t cmdHead = 0; //next free slot (written by USART ISR)
+volatile uint8_t cmdTail = 0; //oldest command to process (written by main context)
 
 COMMAND * getNextCommand() {
-  //COMMAND *ret = NULL;
-
-  if (! cmdProcessed) { //there's a command to process
-	  return &cmdToProcess;
+  if (cmdHead != cmdTail) { //there's a command to process
+	  return &cmdQueue[cmdTail];
   } else
 	  return NULL; //nothing to process
 }
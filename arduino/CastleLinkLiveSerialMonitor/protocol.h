@@ -31,6 +31,9 @@
 #define OUT_RESPONSE_HEADER_H              	0x55
 #define OUT_RESPONSE_HEADER_L              	0xAA
 
+#define OUT_SEQRESPONSE_HEADER_L           	0xC0 // pipelined mode: 110s sssa, then checksum
+#define SEQ_SHIFT_RESPONSE                 	1
+
 #define R_ACK                       	0x01
 #define R_NACK                       0x00
 
@@ -45,6 +48,11 @@
 #define CMD_ARM				   				0x07
 #define CMD_SET_THROTTLE                   	0x08
 #define CMD_DISARM			   				0x09
+#define CMD_SET_PIPELINE	   				0x0A
+
+// command id byte: bits 0-3 command id, bits 4-7 sequence (pipelined mode only)
+#define CMD_ID_MASK                        	0x0F
+#define CMD_SEQ_SHIFT                      	4
 
 
 #define STATUS_HELLO                          0
@@ -65,28 +73,30 @@ typedef struct cmd_struct {
 
 const size_t commandSize = sizeof(COMMAND);
 
-extern COMMAND cmdToProcess;
-extern volatile uint8_t cmdProcessed;
+extern COMMAND cmdQueue[QUEUE_LEN];
+extern volatile uint8_t cmdHead;
+extern volatile uint8_t cmdTail;
 
 /*
  * queueCommand is designed to be used in an ISR, so it's inlined and
- * checks for no other command waiting to be processed so to not interfere
- * with command processing code in main context.
- * Every command received while main context is busy processing a previous
- * command will be therefore discarded
+ * only touches queue head, while main context only touches queue tail.
+ * Queue holds up to QUEUE_LEN - 1 commands: every command received while 
+ * the queue is full will be discarded (and never replied)
  */
 static inline void queueCommand(char *buffer) {
-	if (cmdProcessed) {
-		memcpy((&cmdToProcess), buffer, commandSize); //copy command to command-to-process place
-		cmdProcessed = 0;
+	uint8_t next = (cmdHead + 1) % QUEUE_LEN;
+	
+	if (next != cmdTail) {
+		memcpy((&cmdQueue[cmdHead]), buffer, commandSize); //copy command to queue
+		cmdHead = next;
 	}
 }
 
 /*
- * signal main context is done with previous command and ready to process another one
+ * signal main context is done with oldest command, freeing its queue slot
  */
 static inline void commandProcessed() {
-	cmdProcessed = 1;
+	cmdTail = (cmdTail + 1) % QUEUE_LEN;
 }
 
 COMMAND * getNextCommand();
@@ -0,0 +1,63 @@
+/*****************************************************************************
+ *  CastleLinkLive benchmarks - BenchmarkMain.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs decode hot path benchmarks with fixed settings, so that results of
+ * different runs can be compared. Throughput is reported in frames per second; 
+ * GC profiler adds allocation rate (gc.alloc.rate.norm is bytes per frame).
+ * <br />
+ * Usage: BenchmarkMain [regexp [json result file]]
+ */
+public class BenchmarkMain {
+	/**
+	 * Seed for all generated frame streams
+	 */
+	public static final long SEED = 0x5EEDCA57L;
+	
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder opt = new OptionsBuilder()
+			.include(args.length > 0 ? args[0] : "it\\.picciux\\.castle\\.linklive\\.bench\\..*Benchmark")
+			.forks(2)
+			.warmupIterations(5)
+			.warmupTime(TimeValue.seconds(1))
+			.measurementIterations(5)
+			.measurementTime(TimeValue.seconds(1))
+			.addProfiler(GCProfiler.class);
+		
+		if (args.length > 1)
+			opt = opt.resultFormat(ResultFormatType.JSON).result(args[1]);
+		
+		new Runner(opt.build()).run();
+	}
+}
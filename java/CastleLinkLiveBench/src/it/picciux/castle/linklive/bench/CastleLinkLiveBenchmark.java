@@ -0,0 +1,105 @@
+/*****************************************************************************
+ *  CastleLinkLive benchmarks - CastleLinkLiveBenchmark.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive.bench;
+
+import it.picciux.castle.linklive.CastleLinkLive;
+import it.picciux.castle.linklive.InvalidArgumentException;
+import it.picciux.castle.linklive.InvalidDataException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of {@link CastleLinkLive#putData(int)} and 
+ * {@link CastleLinkLive#putData(byte[], int, int)}, per frame: parsing, 
+ * decoding and dispatching included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CastleLinkLiveBenchmark {
+	static final int FRAMES = 1000;
+	
+	@Param({"1", "2", "7"})
+	int nESC;
+	
+	@Param({"0.0", "0.05"})
+	double corruptionRate;
+	
+	@Param({"0", "1"}) // FrameStreamGenerator.SENSOR_LINEAR, SENSOR_THERMISTOR
+	int sensor;
+	
+	byte[] stream;
+	CastleLinkLive cll;
+	
+	@Setup
+	public void setup() throws InvalidArgumentException {
+		stream = new FrameStreamGenerator(BenchmarkMain.SEED).generate(FRAMES, nESC, sensor, corruptionRate);
+		
+		//decode-only session: no command loop (and no handshake timing out
+		//and logging) running along with measurements
+		cll = new CastleLinkLive();
+		cll.startReplay(nESC);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		cll.stopReplay();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int putData() {
+		int errors = 0;
+		for (int i = 0; i < stream.length; i++) {
+			try {
+				cll.putData(stream[i] & 0xFF);
+			} catch (InvalidDataException e) {
+				errors++;
+			}
+		}
+		return errors;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int putDataBulk() {
+		try {
+			return cll.putData(stream, 0, stream.length);
+		} catch (InvalidDataException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*****************************************************************************
+ *  CastleLinkLive benchmarks - DecodeBenchmark.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive.bench;
+
+import it.picciux.castle.linklive.CLLCommProtocol;
+import it.picciux.castle.linklive.CastleESC;
+import it.picciux.castle.linklive.InvalidArgumentException;
+import it.picciux.castle.linklive.InvalidDataException;
+import it.picciux.castle.linklive.TelemetryFrame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of {@link CastleESC#parseData(TelemetryFrame)}, for ESCs reporting
+ * temperature through the linear sensor or the thermistor (FRAME_TEMP2),
+ * in exact and table decode modes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DecodeBenchmark {
+	static final int FRAMES = 1024;
+	
+	@Param({"0", "1"}) // FrameStreamGenerator.SENSOR_LINEAR, SENSOR_THERMISTOR
+	int sensor;
+	
+	@Param({"0", "1"}) // CastleESC.DECODE_EXACT, DECODE_TABLE
+	int decodeMode;
+	
+	TelemetryFrame[] frames;
+	CastleESC esc;
+	
+	@Setup
+	public void setup() throws InvalidArgumentException {
+		byte[] stream = new FrameStreamGenerator(BenchmarkMain.SEED).generate(FRAMES, 1, sensor, 0.0d);
+		
+		//decode frames with a parser whose pool is big enough to keep all of them
+		CLLCommProtocol parser = new CLLCommProtocol(FRAMES);
+		frames = new TelemetryFrame[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			parser.putBytes(stream, i * CLLCommProtocol.DATA_FRAME_LEN, CLLCommProtocol.DATA_FRAME_LEN, null);
+			frames[i] = parser.getFrame();
+		}
+		
+		esc = new CastleESC();
+		esc.setDecodeMode(decodeMode);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int parseData() throws InvalidDataException {
+		int updated = 0;
+		for (int i = 0; i < frames.length; i++)
+			if (esc.parseData(frames[i])) updated++;
+		return updated;
+	}
+}
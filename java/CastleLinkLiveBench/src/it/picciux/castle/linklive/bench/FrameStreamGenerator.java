@@ -0,0 +1,139 @@
+/*****************************************************************************
+ *  CastleLinkLive benchmarks - FrameStreamGenerator.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive.bench;
+
+import it.picciux.castle.linklive.CLLCommProtocol;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Generates byte streams as sent by CastleLinkLiveSerialMonitor: ESC data
+ * frames for a given number of ESC ids, optionally corrupted by dropped or
+ * flipped bytes. Streams are fully determined by the seed, so benchmark runs
+ * are reproducible.
+ */
+public class FrameStreamGenerator {
+	/**
+	 * Temperature reported on FRAME_TEMP1 (linear sensor)
+	 */
+	public static final int SENSOR_LINEAR = 0;
+	
+	/**
+	 * Temperature reported on FRAME_TEMP2 (thermistor)
+	 */
+	public static final int SENSOR_THERMISTOR = 1;
+	
+	private static final int REFERENCE = 1000;
+	private static final int OFFSET = 500;
+	
+	private final Random random;
+	
+	/**
+	 * Class constructor
+	 * @param seed seed for the random generator
+	 */
+	public FrameStreamGenerator(long seed) {
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Generates a stream of ESC data frames, cycling ESC ids from 0 to nESC - 1
+	 * @param frames number of frames to generate
+	 * @param nESC number of ESC ids
+	 * @param sensor {@link FrameStreamGenerator#SENSOR_LINEAR} or {@link FrameStreamGenerator#SENSOR_THERMISTOR}
+	 * @param corruptionRate fraction of frames (0.0 - 1.0) to corrupt by 
+	 * dropping or flipping one of their bytes
+	 * @return the generated stream
+	 */
+	public byte[] generate(int frames, int nESC, int sensor, double corruptionRate) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(frames * CLLCommProtocol.DATA_FRAME_LEN);
+		int[] ticks = new int[CLLCommProtocol.DATA_FRAME_CNT];
+		byte[] frame = new byte[CLLCommProtocol.DATA_FRAME_LEN];
+		
+		for (int i = 0; i < frames; i++) {
+			randomTicks(ticks, sensor);
+			encode(frame, i % nESC, true, ticks);
+			
+			if (random.nextDouble() < corruptionRate) {
+				int pos = random.nextInt(frame.length);
+				
+				if (random.nextBoolean()) { //drop a byte
+					out.write(frame, 0, pos);
+					out.write(frame, pos + 1, frame.length - pos - 1);
+				} else { //flip some bits
+					frame[pos] ^= (byte) (1 + random.nextInt(255));
+					out.write(frame, 0, frame.length);
+				}
+			} else
+				out.write(frame, 0, frame.length);
+		}
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Fills <b>ticks</b> with plausible random values
+	 * @param ticks array to fill
+	 * @param sensor which temperature sensor reports data
+	 */
+	public void randomTicks(int[] ticks, int sensor) {
+		ticks[CLLCommProtocol.FRAME_REFERENCE] = REFERENCE;
+		
+		for (int f = 1; f < CLLCommProtocol.DATA_FRAME_CNT; f++)
+			ticks[f] = OFFSET + 50 + random.nextInt(REFERENCE);
+		
+		//the missing sensor reports the offset
+		if (sensor == SENSOR_THERMISTOR) {
+			ticks[CLLCommProtocol.FRAME_TEMP1] = OFFSET;
+			ticks[CLLCommProtocol.FRAME_TEMP2] = OFFSET + 500 + random.nextInt(2000);
+		} else
+			ticks[CLLCommProtocol.FRAME_TEMP2] = OFFSET;
+	}
+	
+	/**
+	 * Encodes an ESC data frame the way CastleLinkLiveSerialMonitor does
+	 * @param frame destination array, at least {@link CLLCommProtocol#DATA_FRAME_LEN} long
+	 * @param escId ESC id (0-7)
+	 * @param throttlePresent throttle presence flag
+	 * @param ticks raw ticks for each data frame id
+	 */
+	public static void encode(byte[] frame, int escId, boolean throttlePresent, int[] ticks) {
+		frame[0] = (byte) CLLCommProtocol.HEADER_DATAIN_H;
+		frame[1] = (byte) (CLLCommProtocol.HEADER_DATAIN_L | 
+				(throttlePresent ? CLLCommProtocol.THROTTLE_PRESENT_MASK : 0) | 
+				(escId & CLLCommProtocol.ESC_ID_MASK));
+		
+		int checksum = frame[0] ^ frame[1];
+		
+		for (int i = 0; i < CLLCommProtocol.DATA_FRAME_CNT; i++) {
+			frame[i * 2 + 2] = (byte) (ticks[i] >> 8);
+			frame[i * 2 + 3] = (byte) ticks[i];
+			checksum ^= frame[i * 2 + 2] ^ frame[i * 2 + 3];
+		}
+		
+		frame[CLLCommProtocol.DATA_FRAME_LEN - 1] = (byte) checksum;
+	}
+}
@@ -0,0 +1,81 @@
+/*****************************************************************************
+ *  CastleLinkLive benchmarks - ProtocolBenchmark.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive.bench;
+
+import it.picciux.castle.linklive.CLLCommProtocol;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of {@link CLLCommProtocol} parsing, per frame, through the 
+ * per-byte and the bulk paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProtocolBenchmark {
+	static final int FRAMES = 1000;
+	
+	@Param({"1", "2", "7"})
+	int nESC;
+	
+	@Param({"0.0", "0.05"})
+	double corruptionRate;
+	
+	byte[] stream;
+	CLLCommProtocol parser;
+	
+	@Setup
+	public void setup() {
+		stream = new FrameStreamGenerator(BenchmarkMain.SEED)
+			.generate(FRAMES, nESC, FrameStreamGenerator.SENSOR_LINEAR, corruptionRate);
+		parser = new CLLCommProtocol();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int putByte() {
+		int frames = 0;
+		for (int i = 0; i < stream.length; i++)
+			if (parser.putByte(stream[i] & 0xFF)) frames++;
+		return frames;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int putBytes() {
+		return parser.putBytes(stream, 0, stream.length, null);
+	}
+}
@@ -0,0 +1,112 @@
+/*****************************************************************************
+ *  CastleLinkLive benchmarks - ReplayBenchmark.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive.bench;
+
+import it.picciux.castle.linklive.CaptureReplay;
+import it.picciux.castle.linklive.CastleLinkLive;
+import it.picciux.castle.linklive.InvalidArgumentException;
+import it.picciux.castle.linklive.RawCapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of {@link CaptureReplay} as fast as possible: capture reading, 
+ * parsing, decoding and dispatching included. Frames per second are reported
+ * by the <i>frames</i> counter.
+ * <br />
+ * By default a capture of generated frames is used; real captures can be
+ * replayed with <code>-p capture=basePath</code> (channel 0, all ESC ids accepted).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReplayBenchmark {
+	static final int FRAMES = 100000;
+	static final int CHUNK = 64;
+	
+	@Param({""})
+	String capture;
+	
+	String basePath;
+	File generated;
+	
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long frames;
+	}
+	
+	@Setup
+	public void setup() throws IOException {
+		if (capture.length() > 0) {
+			basePath = capture;
+			return;
+		}
+		
+		//serial-like chunks, 2 ms apart
+		byte[] stream = new FrameStreamGenerator(BenchmarkMain.SEED).generate(FRAMES, 2, FrameStreamGenerator.SENSOR_LINEAR, 0.0d);
+		
+		generated = File.createTempFile("replay", "");
+		basePath = generated.getPath();
+		
+		RawCapture c = new RawCapture(basePath);
+		for (int i = 0; i < stream.length; i += CHUNK)
+			c.write(RawCapture.DIR_IN, 0, i * 2000000L / CHUNK, stream, i, Math.min(CHUNK, stream.length - i));
+		c.close();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		if (generated == null) return;
+		
+		generated.delete();
+		for (int i = 0; new File(RawCapture.segmentPath(basePath, i)).delete(); i++)
+			;
+	}
+	
+	@Benchmark
+	public long replay(Counters counters) throws IOException, InvalidArgumentException {
+		CaptureReplay r = new CaptureReplay(basePath);
+		r.addSession(0, new CastleLinkLive(), CastleLinkLive.MAX_ESC);
+		r.setSpeed(CaptureReplay.AS_FAST_AS_POSSIBLE);
+		r.run();
+		
+		counters.frames += r.getFrameCount();
+		return r.getChunkCount();
+	}
+}
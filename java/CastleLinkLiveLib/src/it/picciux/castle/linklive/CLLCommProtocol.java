@@ -24,6 +24,8 @@
 
 package it.picciux.castle.linklive;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class implementing communication protocol with CastleLinkLiveSerialMonitor.
  * This class is not meant to be instantiated by library users: it's used internally
@@ -72,7 +74,40 @@ public class CLLCommProtocol {
 	public static final int HEADER_RESPONSE_MASK	= 0xFE; // 1111 1110
 	public static final int RESPONSE_MASK			= 0x01; // 0000 0001
 	
+	/* In pipelined mode LS byte in response header carries command sequence too:
+	 *  bit 0  : ACK/NACK
+	 *  bit 1-4: sequence of the command being replied
+	 * and it's followed by a checksum byte (XOR of the two header bytes), so
+	 * that payload bytes looking like a response aren't taken as one
+	 */
+	public static final int HEADER_SEQRESPONSE_L	= 0xC0; // 1100 0000
+	public static final int HEADER_SEQRESPONSE_MASK	= 0xE0; // 1110 0000
+	public static final int SEQUENCE_MASK			= 0x1E; // 0001 1110
+	public static final int SEQUENCE_SHIFT			= 1;
+	
 	public static final int OUT_HEADER			= 0x00;
+	
+	/**
+	 * Command length: header, id byte, value (low, high), checksum
+	 */
+	public static final int COMMAND_LEN			= 5;
+	
+	/* Command id byte:
+	 *  bit 0-3: command id
+	 *  bit 4-7: command sequence (pipelined mode only, 0 otherwise)
+	 */
+	public static final int CMD_ID_MASK			= 0x0F;
+	public static final int CMD_SEQ_SHIFT		= 4;
+	
+	/**
+	 * Number of distinct command sequences
+	 */
+	public static final int SEQUENCE_CNT		= 16;
+	
+	/**
+	 * Response sequence value for responses to non-pipelined commands
+	 */
+	public static final int NO_SEQUENCE			= -1;
 
 	/* COMMAND IDENTIFIERS */
 	public static final int CMD_NOOP			= 0x00;
@@ -85,72 +120,381 @@ public class CLLCommProtocol {
 	public static final int CMD_ARM				= 0x07;
 	public static final int CMD_SET_THROTTLE	= 0x08;
 	public static final int CMD_DISARM			= 0x09;
+	public static final int CMD_SET_PIPELINE	= 0x0A;
 	
 	/* RESPONSE ACK/NACK VALUES */
 	public static final int RESPONSE_ACK		= 0x01;
 	public static final int RESPONSE_NACK		= 0x00;
 	
+	private static final int SCRATCH_SIZE = 256;
+	
+	
+	/* FRAME LENGTHS (in bytes, headers and checksum included) */
+	public static final int DATA_FRAME_LEN = DATA_FRAME_CNT * 2 + 3;
+	public static final int RESPONSE_FRAME_LEN = 2;
+	public static final int SEQRESPONSE_FRAME_LEN = 3;
+	
+	/**
+	 * Interface to be implemented by objects that want to be notified
+	 * of every frame completed by {@link CLLCommProtocol#putBytes(byte[], int, int, FrameHandler)}.
+	 * When called, the parser holds the data of the completed frame, which
+	 * can be read through its getters. 
+	 */
+	public interface FrameHandler {
+		/**
+		 * Called each time a frame (ESC data or response) is successfully parsed
+		 * @param parser the parser holding completed frame data
+		 */
+		public void frameReceived(CLLCommProtocol parser);
+	}
+	
+	/**
+	 * pool of frames ESC data is decoded into
+	 */
+	private final TelemetryFramePool framePool;
+	
+	/**
+	 * last completed ESC data frame
+	 */
+	private TelemetryFrame frame;
+	private long frameSequence = 0;
+	
+	/**
+	 * arrival timestamp for frames completed by current put call, taken when 
+	 * the first of them is completed (unless given by the caller)
+	 */
+	private long arrivalNanos;
+	private boolean arrivalStamped = false;
 	
-	private int[] ticks = new int[DATA_FRAME_CNT];
 	private int type = TYPE_ESCDATA;
 	private int id = NO_ESC;
 	private int response;
+	private int responseSequence = NO_SEQUENCE;
 	private boolean throttlePresent = false;
 	
-	private int h_buffer;
-	private int cnt = 0;
-	private int checksum = 0;
+	/**
+	 * sliding window holding the bytes of the frame being received.
+	 * window[0] is always a candidate header byte, unless window is empty
+	 */
+	private final byte[] window = new byte[DATA_FRAME_LEN];
+	private int fill = 0;
+	
+	/* RESYNC STATISTICS */
+	private int discardRun = 0;
+	private long resyncCount = 0;
+	private long discardedBytes = 0;
+	private int lastResyncDiscarded = 0;
+	private int maxResyncDiscarded = 0;
+	private final long[] resyncHistogram = new long[DATA_FRAME_LEN + 1];
+	
+	/**
+	 * single byte buffer used by {@link CLLCommProtocol#putByte(int)}
+	 */
+	private final byte[] single = new byte[1];
+	
+	/**
+	 * scratch buffer used to drain ByteBuffers without a backing array
+	 */
+	private byte[] scratch = null;
+	
+	/**
+	 * Class constructor. ESC data will be decoded in a pool of 
+	 * {@link TelemetryFramePool#DEFAULT_SIZE} frames
+	 */
+	public CLLCommProtocol() {
+		this(TelemetryFramePool.DEFAULT_SIZE);
+	}
+	
+	/**
+	 * Class constructor.
+	 * @param framePoolSize the number of frames in the pool ESC data is 
+	 * decoded into: every frame returned by {@link CLLCommProtocol#getFrame()}
+	 * stays valid until <b>framePoolSize</b> more ESC data frames are parsed
+	 */
+	public CLLCommProtocol(int framePoolSize) {
+		framePool = new TelemetryFramePool(framePoolSize);
+		frame = framePool.next();
+	}
 	
 	public int getTicks(int index) {
-		if (index >= 0 && index < DATA_FRAME_CNT)
-			return ticks[index];
-		else
-			return -1;
+		return frame.getTicks(index);
 	}
 	
+	/**
+	 * @return the last ESC data frame completed by the parser. The frame is 
+	 * taken from a pool and will be reused after a number of frames equal to
+	 * the pool size.
+	 * @see TelemetryFramePool
+	 */
+	public TelemetryFrame getFrame() {
+		return frame;
+	}
+	
+	/**
+	 * Puts a single byte in the parser.
+	 * @param b the byte to parse (only least significant byte is considered)
+	 * @return true if this byte completed a valid frame, false otherwise
+	 */
 	public boolean putByte(int b) {
-		b = b & 0xFF;
-
-		cnt++;
+		single[0] = (byte) b;
+		return putBytes(single, 0, 1, null) > 0;
+	}
+	
+	/**
+	 * Parses <b>length</b> bytes of <b>buf</b>, starting at <b>offset</b>, looking
+	 * for ESC data and response frames. Parser state is kept between calls, so
+	 * a frame can span several slices.<br />
+	 * Headers are searched at any byte offset: when a candidate frame turns out
+	 * to be invalid (bad header or checksum) the window slides by one byte and
+	 * the already received bytes are searched again, so a dropped or spurious
+	 * byte costs at most one frame. Untagged responses, having no checksum, are
+	 * only accepted right after a valid frame (or at start), not while
+	 * resyncing.
+	 * @param buf the array holding received data
+	 * @param offset the first byte to parse
+	 * @param length the number of bytes to parse
+	 * @param handler notified of each completed frame. Can be null
+	 * @return the number of complete and valid frames found in the slice
+	 */
+	public int putBytes(byte[] buf, int offset, int length, FrameHandler handler) {
+		arrivalStamped = false;
+		return scan(buf, offset, length, handler);
+	}
+	
+	/**
+	 * Parses <b>length</b> bytes of <b>buf</b>, starting at <b>offset</b>, looking
+	 * for ESC data and response frames. All ESC data frames completed are
+	 * marked with the given arrival timestamp (i.e. when replaying
+	 * recorded data).
+	 * @param buf the array holding received data
+	 * @param offset the first byte to parse
+	 * @param length the number of bytes to parse
+	 * @param handler notified of each completed frame. Can be null
+	 * @param arrivalNanos the {@link System#nanoTime()}-based arrival time of data
+	 * @return the number of complete and valid frames found in the slice
+	 * @see CLLCommProtocol#putBytes(byte[], int, int, FrameHandler)
+	 */
+	public int putBytes(byte[] buf, int offset, int length, FrameHandler handler, long arrivalNanos) {
+		this.arrivalNanos = arrivalNanos;
+		arrivalStamped = true;
+		return scan(buf, offset, length, handler);
+	}
+	
+	private int scan(byte[] buf, int offset, int length, FrameHandler handler) {
+		int frames = 0;
+		int end = offset + length;
 		
-		if (cnt % 2 != 0) { //odd byte => MSB byte: save it for later
-			h_buffer = b;
-
-			if (cnt == DATA_FRAME_CNT * 2 + 3) { //DATA block completed
-				cnt = 0;
-				boolean checksum_ok = (checksum == h_buffer);
-				checksum = 0;
-				return checksum_ok;
-			}			
+		for (int i = offset; i < end; i++) {
+			int b = buf[i] & 0xFF;
+			int f = fill;
+			
+			if (f == 0) { //looking for the first header byte
+				if (b == HEADER_DATAIN_H || b == HEADER_RESPONSE_H) {
+					window[0] = (byte) b;
+					fill = 1;
+				} else
+					discardRun++;
+				continue;
+			}
+			
+			window[f++] = (byte) b;
+			fill = f;
+			
+			//header already validated, frame still incomplete
+			if (f > SEQRESPONSE_FRAME_LEN && f < DATA_FRAME_LEN) continue;
+			
+			frames += evaluateWindow(handler);
+		}
 		
-		} else {			// even byte => LSB byte: combine with buffer to get value
-			if (cnt == 2) {
-				if ( (h_buffer == HEADER_DATAIN_H) && (( b & HEADER_DATAIN_MASK ) == HEADER_DATAIN_L)) {
-					type = TYPE_ESCDATA;
-					id = (b & ESC_ID_MASK); //store the ESC id
-					throttlePresent = ( (b & THROTTLE_PRESENT_MASK) > 0 ); //store throttle presence
-					checksum = h_buffer;
-					checksum ^= b;
-				} else if ( (h_buffer == HEADER_RESPONSE_H) && ((b & HEADER_RESPONSE_MASK) == HEADER_RESPONSE_L) )  {
-					type = TYPE_RESPONSE;
-					response = b & RESPONSE_MASK;
-					cnt = 0;
-					checksum = 0;
-					return true;
-				} else { 
-					//reset sequence!
-					cnt = 0; 
-					checksum = 0;
-					return false;
+		return frames;
+	}
+	
+	/**
+	 * Checks the window for complete frames, sliding it over invalid data
+	 * until a (possibly incomplete) valid header is at its start.
+	 * @param handler notified of each completed frame. Can be null
+	 * @return the number of frames completed
+	 */
+	private int evaluateWindow(FrameHandler handler) {
+		int frames = 0;
+		
+		while (fill > 0) {
+			int h = window[0] & 0xFF;
+			
+			if (fill == 1) {
+				if (h == HEADER_DATAIN_H || h == HEADER_RESPONSE_H) break;
+				slide(1, false);
+				continue;
+			}
+			
+			int l = window[1] & 0xFF;
+			
+			if ( (h == HEADER_DATAIN_H) && (( l & HEADER_DATAIN_MASK ) == HEADER_DATAIN_L) ) {
+				if (fill < DATA_FRAME_LEN) break; //wait for the rest of the frame
+				
+				int checksum = 0;
+				for (int j = 0; j < DATA_FRAME_LEN - 1; j++)
+					checksum ^= window[j];
+				
+				if ( (checksum & 0xFF) != (window[DATA_FRAME_LEN - 1] & 0xFF) ) {
+					slide(1, false);
+					continue;
+				}
+				
+				if (! arrivalStamped) {
+					arrivalNanos = System.nanoTime();
+					arrivalStamped = true;
+				}
+				
+				type = TYPE_ESCDATA;
+				id = (l & ESC_ID_MASK); //store the ESC id
+				throttlePresent = ( (l & THROTTLE_PRESENT_MASK) > 0 ); //store throttle presence
+				
+				frame = framePool.next();
+				frame.set(id, throttlePresent, arrivalNanos, ++frameSequence);
+				for (int t = 0; t < DATA_FRAME_CNT; t++)
+					frame.setTicks(t, ((window[t * 2 + 2] & 0xFF) << 8) | (window[t * 2 + 3] & 0xFF));
+				
+				slide(DATA_FRAME_LEN, true);
+			} else if ( (h == HEADER_RESPONSE_H) && ((l & HEADER_RESPONSE_MASK) == HEADER_RESPONSE_L) )  {
+				/* untagged responses have no checksum: accept them only at clean
+				 * sync (nothing discarded since last valid frame), so that bytes
+				 * of a corrupted frame aren't taken as a reply */
+				if (discardRun > 0) {
+					slide(1, false);
+					continue;
 				}
+				
+				type = TYPE_RESPONSE;
+				response = l & RESPONSE_MASK;
+				responseSequence = NO_SEQUENCE;
+				slide(RESPONSE_FRAME_LEN, true);
+			} else if ( (h == HEADER_RESPONSE_H) && ((l & HEADER_SEQRESPONSE_MASK) == HEADER_SEQRESPONSE_L) )  {
+				if (fill < SEQRESPONSE_FRAME_LEN) break; //wait for the checksum
+				
+				if ( (h ^ l) != (window[SEQRESPONSE_FRAME_LEN - 1] & 0xFF) ) {
+					slide(1, false);
+					continue;
+				}
+				
+				type = TYPE_RESPONSE;
+				response = l & RESPONSE_MASK;
+				responseSequence = (l & SEQUENCE_MASK) >> SEQUENCE_SHIFT;
+				slide(SEQRESPONSE_FRAME_LEN, true);
 			} else {
-				checksum ^= h_buffer;
-				checksum ^= b;
-				ticks[cnt / 2 - 2] = (h_buffer << 8) + b;
+				slide(1, false);
+				continue;
+			}
+			
+			frames++;
+			if (handler != null) handler.frameReceived(this);
+		}
+		
+		return frames;
+	}
+	
+	/**
+	 * Removes bytes from the start of the window
+	 * @param n number of bytes to remove
+	 * @param consumed true if bytes were part of a valid frame, false if they're discarded
+	 */
+	private void slide(int n, boolean consumed) {
+		fill -= n;
+		if (fill > 0) System.arraycopy(window, n, window, 0, fill);
+		
+		if (! consumed) {
+			discardRun += n;
+		} else if (discardRun > 0) { //valid frame after discarded data: resync completed
+			resyncCount++;
+			discardedBytes += discardRun;
+			lastResyncDiscarded = discardRun;
+			if (discardRun > maxResyncDiscarded) maxResyncDiscarded = discardRun;
+			resyncHistogram[Math.min(discardRun, DATA_FRAME_LEN)]++;
+			discardRun = 0;
+		}
+	}
+	
+	/**
+	 * Parses all remaining bytes of <b>buffer</b>, advancing its position.
+	 * @param buffer the buffer holding received data
+	 * @param handler notified of each completed frame. Can be null
+	 * @return the number of complete and valid frames found in the buffer
+	 * @see CLLCommProtocol#putBytes(byte[], int, int, FrameHandler)
+	 */
+	public int putBytes(ByteBuffer buffer, FrameHandler handler) {
+		int frames = 0;
+		arrivalStamped = false;
+		
+		if (buffer.hasArray()) {
+			int length = buffer.remaining();
+			frames = scan(buffer.array(), buffer.arrayOffset() + buffer.position(), length, handler);
+			buffer.position(buffer.position() + length);
+		} else {
+			if (scratch == null) scratch = new byte[SCRATCH_SIZE];
+			
+			while (buffer.hasRemaining()) {
+				int length = Math.min(buffer.remaining(), scratch.length);
+				buffer.get(scratch, 0, length);
+				frames += scan(scratch, 0, length, handler);
 			}
 		}
 		
-		return false;
+		return frames;
+	}
+
+	/**
+	 * @return the number of times the parser lost and then recovered frame
+	 * synchronization
+	 */
+	public long getResyncCount() {
+		return resyncCount;
+	}
+	
+	/**
+	 * @return the total number of bytes discarded by completed resyncs
+	 */
+	public long getDiscardedBytes() {
+		return discardedBytes;
+	}
+	
+	/**
+	 * @return the number of bytes discarded by last completed resync
+	 */
+	public int getLastResyncDiscarded() {
+		return lastResyncDiscarded;
+	}
+	
+	/**
+	 * @return the maximum number of bytes discarded by a single resync
+	 */
+	public int getMaxResyncDiscarded() {
+		return maxResyncDiscarded;
+	}
+	
+	/**
+	 * Copies the histogram of bytes discarded per resync into <b>dest</b>:
+	 * element n counts resyncs that discarded n bytes, last element counts
+	 * resyncs that discarded {@link CLLCommProtocol#DATA_FRAME_LEN} bytes or more.
+	 * @param dest array to copy histogram into. Only the first 
+	 * DATA_FRAME_LEN + 1 elements are written
+	 * @return the number of elements written
+	 */
+	public int getResyncHistogram(long[] dest) {
+		int n = Math.min(dest.length, resyncHistogram.length);
+		System.arraycopy(resyncHistogram, 0, dest, 0, n);
+		return n;
+	}
+	
+	/**
+	 * Clears all resync statistics
+	 */
+	public void resetStatistics() {
+		resyncCount = 0;
+		discardedBytes = 0;
+		lastResyncDiscarded = 0;
+		maxResyncDiscarded = 0;
+		for (int i = 0; i < resyncHistogram.length; i++)
+			resyncHistogram[i] = 0;
 	}
 
 	/**
@@ -174,6 +518,14 @@ public class CLLCommProtocol {
 	public int getResponse() {
 		return response;
 	}
+	
+	/**
+	 * @return sequence of the command last response refers to, or 
+	 * {@link CLLCommProtocol#NO_SEQUENCE} if the ESC interface is not in pipelined mode
+	 */
+	public int getResponseSequence() {
+		return responseSequence;
+	}
 
 	/**
 	 * @return the type of data the parser finished parsing last: 
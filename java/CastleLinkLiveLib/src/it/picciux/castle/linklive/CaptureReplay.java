@@ -0,0 +1,347 @@
+/*****************************************************************************
+ *  CastleLinkLive library - CaptureReplay.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture written by {@link RawCapture} through one or more 
+ * {@link CastleLinkLive} objects, one for each recorded channel. 
+ * <br />
+ * Sessions are started with {@link CastleLinkLive#startReplay(int)}, then
+ * received data is put with {@link CastleLinkLive#putData(byte[], int, int, long)}
+ * (so frames keep their recorded arrival time) and recorded commands are
+ * notified, so that armed state follows recorded ARM/DISARM responses.
+ * Event handlers are called as in a live session, connection loss included
+ * when replay ends.
+ * <br />
+ * Chunks are replayed with their recorded timing, scaled by the replay
+ * speed, or as fast as possible (speed {@link CaptureReplay#AS_FAST_AS_POSSIBLE}). 
+ * Replay can run on its own thread ({@link CaptureReplay#start()}) or on 
+ * the calling one ({@link CaptureReplay#run()}).
+ */
+public class CaptureReplay implements Runnable {
+	/**
+	 * Replay speed to ignore recorded timing
+	 */
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+	
+	private final RawCaptureReader reader;
+	
+	private CastleLinkLive[] sessions = new CastleLinkLive[0];
+	private int[] sessionESCs = new int[0];
+	
+	private volatile double speed = 1;
+	private volatile boolean keepRunning = true;
+	private volatile boolean running = false;
+	private volatile Exception error;
+	
+	private ThreadFactory threadFactory = null;
+	private Thread thread;
+	
+	private volatile long chunks = 0;
+	private volatile long bytes = 0;
+	private volatile long frames = 0;
+	private volatile long dataErrors = 0;
+	private volatile long firstNanos = 0;
+	private volatile long lastNanos = 0;
+	private volatile long elapsedNanos = 0;
+	
+	/**
+	 * Class constructor
+	 * @param basePath path of capture files, without segment number
+	 * @throws IOException if capture cannot be opened
+	 */
+	public CaptureReplay(String basePath) throws IOException {
+		reader = new RawCaptureReader(basePath);
+	}
+	
+	/**
+	 * Sets the session data recorded on channel <b>channel</b> is replayed through.
+	 * Chunks of channels without a session are skipped. Must be called before replay starts.
+	 * @param channel the recorded channel
+	 * @param cll the session to replay data through
+	 * @param nESC number of ESCs in the recorded session
+	 * @throws InvalidArgumentException if channel is negative or nESC out of bounds
+	 */
+	public synchronized void addSession(int channel, CastleLinkLive cll, int nESC) throws InvalidArgumentException {
+		if (channel < 0)
+			throw new InvalidArgumentException(channel + " is not a valid channel");
+		
+		if (nESC < 1 || nESC > CastleLinkLive.MAX_ESC) 
+			throw new InvalidArgumentException("We support 1 to " + CastleLinkLive.MAX_ESC + " ESC");
+		
+		if (channel >= sessions.length) {
+			CastleLinkLive[] s = new CastleLinkLive[channel + 1];
+			int[] n = new int[channel + 1];
+			System.arraycopy(sessions, 0, s, 0, sessions.length);
+			System.arraycopy(sessionESCs, 0, n, 0, sessionESCs.length);
+			sessions = s;
+			sessionESCs = n;
+		}
+		
+		sessions[channel] = cll;
+		sessionESCs[channel] = nESC;
+	}
+	
+	/**
+	 * Sets replay speed. Can be changed while replaying.
+	 * @param speed multiplier of recorded timing (e.g. 2 to replay twice as fast),
+	 * or {@link CaptureReplay#AS_FAST_AS_POSSIBLE}
+	 */
+	public void setSpeed(double speed) {
+		this.speed = (speed > 0 ? speed : AS_FAST_AS_POSSIBLE);
+	}
+	
+	/**
+	 * @return replay speed
+	 */
+	public double getSpeed() {
+		return speed;
+	}
+	
+	/**
+	 * Sets the factory of replay thread. Takes effect on next {@link CaptureReplay#start()}
+	 * @param threadFactory the factory, or null for a platform daemon thread
+	 */
+	public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+	
+	/**
+	 * Starts replaying on a new thread
+	 */
+	public synchronized void start() {
+		if (thread != null) return;
+		
+		if (threadFactory != null) {
+			thread = threadFactory.newThread(this);
+		} else {
+			thread = new Thread(this);
+			thread.setName("Capture replay");
+			thread.setDaemon(true);
+		}
+		
+		running = true;
+		thread.start();
+	}
+	
+	/**
+	 * Stops replaying. Sessions are stopped as if capture ended.
+	 */
+	public void stop() {
+		keepRunning = false;
+		
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t != null) LockSupport.unpark(t);
+	}
+	
+	/**
+	 * Waits for replay thread to terminate
+	 * @param millis maximum time to wait, in milliseconds (0 waits forever)
+	 * @return true if replay is over
+	 * @throws InterruptedException
+	 */
+	public boolean join(long millis) throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t != null) t.join(millis);
+		return ! running;
+	}
+	
+	/**
+	 * Replays the whole capture on the calling thread, or until {@link CaptureReplay#stop()}
+	 * is called. Errors reading capture end the replay and are available 
+	 * through {@link CaptureReplay#getError()}. If a session can't be started
+	 * (i.e. it's already running) nothing is replayed.
+	 */
+	@Override
+	public void run() {
+		CastleLinkLive[] s;
+		int[] n;
+		synchronized (this) {
+			s = sessions;
+			n = sessionESCs;
+		}
+		
+		running = true;
+		
+		//sessions started here, the only ones to stop at the end
+		boolean[] started = new boolean[s.length];
+		
+		try {
+			for (int i = 0; i < s.length; i++) {
+				if (s[i] == null) continue;
+				
+				if (! s[i].startReplay(n[i])) 
+					throw new CastleLinkLiveException("Session on channel " + i + " is already running");
+				
+				started[i] = true;
+			}
+			
+			replay(s);
+		} catch (InvalidArgumentException e) {
+			//already validated by addSession
+		} catch (CastleLinkLiveException e) {
+			error = e;
+		} catch (IOException e) {
+			error = e;
+		} finally {
+			for (int i = 0; i < s.length; i++)
+				if (started[i]) s[i].stopReplay();
+			
+			running = false;
+		}
+	}
+	
+	private void replay(CastleLinkLive[] s) throws IOException {
+		byte[] data = new byte[1024];
+		
+		long start = System.nanoTime();
+		long baseReal = start;
+		long baseRecorded = 0;
+		double baseSpeed = -1;
+		boolean first = true;
+		
+		while (keepRunning && reader.next()) {
+			long t = reader.getNanos();
+			
+			if (first) {
+				firstNanos = t;
+				first = false;
+			}
+			lastNanos = t;
+			
+			int channel = reader.getChannel();
+			CastleLinkLive cll = (channel >= 0 && channel < s.length ? s[channel] : null);
+			if (cll == null) continue;
+			
+			//pace chunks with recorded timing; speed changes restart from current chunk
+			double sp = speed;
+			if (sp != baseSpeed) {
+				baseSpeed = sp;
+				baseReal = System.nanoTime();
+				baseRecorded = t;
+			}
+			
+			if (sp > 0) {
+				long due = baseReal + (long) ((t - baseRecorded) / sp);
+				long wait;
+				while (keepRunning && (wait = due - System.nanoTime()) > 0)
+					LockSupport.parkNanos(wait);
+				if (! keepRunning) break;
+			}
+			
+			int len = reader.getLength();
+			if (len > data.length) data = new byte[Math.max(len, data.length * 2)];
+			reader.getData(data, 0);
+			
+			if (reader.getDirection() == RawCapture.DIR_IN) {
+				try {
+					frames += cll.putData(data, 0, len, t);
+				} catch (InvalidDataException e) {
+					dataErrors += cll.getLastDataErrors();
+				}
+			} else {
+				for (int i = 0; i + CLLCommProtocol.COMMAND_LEN <= len; i += CLLCommProtocol.COMMAND_LEN) {
+					if ((data[i] & 0xFF) != CLLCommProtocol.OUT_HEADER) continue;
+					int id = data[i + 1] & 0xFF;
+					cll.replayCommand(id >> CLLCommProtocol.CMD_SEQ_SHIFT, id & CLLCommProtocol.CMD_ID_MASK);
+				}
+			}
+			
+			chunks++;
+			bytes += len;
+			elapsedNanos = System.nanoTime() - start;
+		}
+		
+		elapsedNanos = System.nanoTime() - start;
+	}
+	
+	/**
+	 * @return true if replay is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * @return the error that ended the replay (reading capture or starting
+	 * a session), or null if none occurred
+	 */
+	public Exception getError() {
+		return error;
+	}
+	
+	/**
+	 * @return the number of chunks replayed
+	 */
+	public long getChunkCount() {
+		return chunks;
+	}
+	
+	/**
+	 * @return the number of bytes replayed
+	 */
+	public long getByteCount() {
+		return bytes;
+	}
+	
+	/**
+	 * @return the number of complete frames decoded from replayed data
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+	
+	/**
+	 * @return the number of replayed frames containing invalid data
+	 */
+	public long getDataErrors() {
+		return dataErrors;
+	}
+	
+	/**
+	 * @return the recorded time span replayed so far, in nanoseconds
+	 */
+	public long getRecordedNanos() {
+		return lastNanos - firstNanos;
+	}
+	
+	/**
+	 * @return the time spent replaying, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+}
@@ -24,6 +24,9 @@
 
 package it.picciux.castle.linklive;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 //import java.util.logging.Logger;
 
 /**
@@ -33,7 +36,10 @@ package it.picciux.castle.linklive;
  * of this class are instantiated by {@link CastleLinkLive} class and 
  * can be obtained by calling {@link CastleLinkLive#getESC(int)}
  * or are returned by {@link ICastleLinkLiveEvent#dataUpdated(int, CastleESC)}
- * callback when ESC-related data is updated
+ * callback when ESC-related data is updated.
+ * <p>Getters read fields the parser thread may be writing: a reader on another
+ * thread can get values from different frames. Use 
+ * {@link CastleESC#readSnapshot(EscSnapshot)} to get all values from the same frame.
  * 
  * @author Matteo Piscitelli
  * @see CastleLinkLive
@@ -41,6 +47,106 @@ package it.picciux.castle.linklive;
  * @see ICastleLinkLiveEvent
  */
 public class CastleESC {
+	/**
+	 * Decode mode calculating all values with exact formulas (default)
+	 * @see CastleESC#setDecodeMode(int)
+	 */
+	public static final int DECODE_EXACT = 0;
+	
+	/**
+	 * Decode mode using a precomputed table for thermistor temperature and 
+	 * a single multiplication per value
+	 * @see CastleESC#setDecodeMode(int, double)
+	 */
+	public static final int DECODE_TABLE = 1;
+	
+	/**
+	 * Default maximum error of {@link CastleESC#DECODE_TABLE} temperature (in degree Celsius)
+	 */
+	public static final double DEFAULT_TABLE_ERROR = 0.01d;
+	
+	/* FIELD BITS */
+	/**
+	 * Battery voltage field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_VOLTAGE = 0x001;
+	
+	/**
+	 * Ripple voltage field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_RIPPLE_VOLTAGE = 0x002;
+	
+	/**
+	 * Current field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_CURRENT = 0x004;
+	
+	/**
+	 * Throttle field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_THROTTLE = 0x008;
+	
+	/**
+	 * Output power field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_OUTPUT_POWER = 0x010;
+	
+	/**
+	 * RPM field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_RPM = 0x020;
+	
+	/**
+	 * BEC voltage field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_BEC_VOLTAGE = 0x040;
+	
+	/**
+	 * BEC current field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_BEC_CURRENT = 0x080;
+	
+	/**
+	 * Temperature field bit
+	 * @see CastleESC#getChangedFields()
+	 */
+	public static final int FIELD_TEMPERATURE = 0x100;
+	
+	/**
+	 * All field bits
+	 */
+	public static final int FIELD_ALL = 0x1FF;
+	
+	/**
+	 * Number of field bits
+	 */
+	public static final int FIELD_CNT = 9;
+	
+	/**
+	 * Multiplier for each data frame, to get values from ticks / reference ratio
+	 */
+	private static final double[] SCALE = new double[] {
+		0.0d,				//FRAME_REFERENCE
+		20.0d,				//FRAME_VOLTAGE
+		4.0d,				//FRAME_RIPPLE_VOLTAGE
+		50.0d,				//FRAME_CURRENT
+		1.0d,				//FRAME_THROTTLE
+		0.2502d * 100.0d,	//FRAME_OUTPUT_POWER
+		20416.7d,			//FRAME_RPM
+		4.0d,				//FRAME_BEC_VOLTAGE
+		4.0d,				//FRAME_BEC_CURRENT
+		30.0d,				//FRAME_TEMP1
+		1.0d				//FRAME_TEMP2
+	};
+	
 	private double voltage;
 	private double rippleVoltage;
 	private double current;
@@ -52,6 +158,79 @@ public class CastleESC {
 	private double temperature;
 	private int rpmDivider = 1;
 	private boolean updated = false;
+	private int changedFields = 0;
+	
+	/* deadbands, indexed by field bit position */
+	private final double[] deadbandAbs = new double[FIELD_CNT];
+	private final double[] deadbandRel = new double[FIELD_CNT];
+	
+	/**
+	 * last value reported as changed for each field: deadbands are checked
+	 * against it, so that slow drifts are reported too
+	 */
+	private final double[] reported = new double[FIELD_CNT];
+	
+	/**
+	 * copy of the last raw data frame parsed
+	 */
+	private final TelemetryFrame frame = new TelemetryFrame();
+	
+	/**
+	 * Decode settings, never changed once built: the reader thread takes 
+	 * them once per frame, so a concurrent 
+	 * {@link CastleESC#setDecodeMode(int, double)} can't be seen half done
+	 */
+	private static final class Decoder {
+		final int mode;
+		final ThermistorTable table;
+		
+		/**
+		 * {@link CastleESC#SCALE} multipliers divided by reference ticks
+		 * (valid for ref reference, none if ref is 0)
+		 */
+		final int ref;
+		final double[] factors;
+		
+		Decoder(int mode, ThermistorTable table, int ref) {
+			this.mode = mode;
+			this.table = table;
+			this.ref = ref;
+			factors = new double[CLLCommProtocol.DATA_FRAME_CNT];
+			
+			if (ref == 0) return;
+			
+			double inv = 1.0d / ref;
+			for (int f = 1; f < CLLCommProtocol.DATA_FRAME_CNT; f++)
+				factors[f] = SCALE[f] * inv;
+		}
+	}
+	
+	private static final Decoder EXACT_DECODER = new Decoder(DECODE_EXACT, null, 0);
+	
+	private static final AtomicReferenceFieldUpdater<CastleESC, Decoder> DECODER = 
+			AtomicReferenceFieldUpdater.newUpdater(CastleESC.class, Decoder.class, "decoder");
+	
+	private volatile Decoder decoder = EXACT_DECODER;
+	
+	/* PUBLISHED VALUES (seqlock) */
+	private static final int PUB_VERSION = 0;
+	private static final int PUB_VOLTAGE = 1;
+	private static final int PUB_RIPPLE_VOLTAGE = 2;
+	private static final int PUB_CURRENT = 3;
+	private static final int PUB_THROTTLE = 4;
+	private static final int PUB_OUTPUT_POWER = 5;
+	private static final int PUB_RPM = 6;
+	private static final int PUB_BEC_VOLTAGE = 7;
+	private static final int PUB_BEC_CURRENT = 8;
+	private static final int PUB_TEMPERATURE = 9;
+	private static final int PUB_RPM_DIVIDER = 10;
+	private static final int PUB_CNT = 11;
+	
+	/**
+	 * copy of decoded values for readers on other threads. PUB_VERSION is odd
+	 * while the (single) writer is updating it
+	 */
+	private final AtomicLongArray published = new AtomicLongArray(PUB_CNT);
 	
 	//private static Logger log = Logger.getLogger("it.picciux.castle.linklive.castleesc");
 	
@@ -162,41 +341,303 @@ public class CastleESC {
 	public double getTemperature() {
 		return temperature;
 	}
+	
+	/**
+	 * @param field a FIELD_* bit
+	 * @return the value of <b>field</b>, as returned by its getter. 
+	 * RPM is the electrical one ({@link CastleESC#getElectricalRPM()}).
+	 */
+	public double getValue(int field) {
+		switch (field) {
+			case FIELD_VOLTAGE: return voltage;
+			case FIELD_RIPPLE_VOLTAGE: return rippleVoltage;
+			case FIELD_CURRENT: return current;
+			case FIELD_THROTTLE: return throttle;
+			case FIELD_OUTPUT_POWER: return outputPower;
+			case FIELD_RPM: return electricalRPM;
+			case FIELD_BEC_VOLTAGE: return BECvoltage;
+			case FIELD_BEC_CURRENT: return BECcurrent;
+			case FIELD_TEMPERATURE: return temperature;
+			default: return 0;
+		}
+	}
 
-	private double checkValue(double oldVal, double newVal) {
-		if (oldVal != newVal) {
-			updated = true;
-			return newVal;
-		} else
-			return oldVal;
+	/**
+	 * Sets how raw data is turned into readable values. 
+	 * {@link CastleESC#DECODE_TABLE} uses a table whose temperature error is
+	 * within {@link CastleESC#DEFAULT_TABLE_ERROR}.
+	 * @param mode {@link CastleESC#DECODE_EXACT} or {@link CastleESC#DECODE_TABLE}
+	 * @throws InvalidArgumentException if mode is not a DECODE_* constant
+	 * @see CastleESC#setDecodeMode(int, double)
+	 */
+	public void setDecodeMode(int mode) throws InvalidArgumentException {
+		setDecodeMode(mode, DEFAULT_TABLE_ERROR);
+	}
+	
+	/**
+	 * Sets how raw data is turned into readable values. 
+	 * In {@link CastleESC#DECODE_TABLE} mode thermistor temperature is
+	 * interpolated from a precomputed table, and every other value is calculated
+	 * with a single multiplication by a factor precomputed for the reference
+	 * ticks. Values other than temperature may differ from exact mode
+	 * in the last digits because of floating point rounding.
+	 * @param mode {@link CastleESC#DECODE_EXACT} or {@link CastleESC#DECODE_TABLE}
+	 * @param maxError maximum error of table-interpolated temperature, compared
+	 * with the exact formula (in degree Celsius). The table can't grow 
+	 * indefinitely: check {@link CastleESC#getTableError()} for the error reached.
+	 * @throws InvalidArgumentException if mode is not a DECODE_* constant, 
+	 * or maxError is not positive
+	 */
+	public void setDecodeMode(int mode, double maxError) throws InvalidArgumentException {
+		if (mode != DECODE_EXACT && mode != DECODE_TABLE)
+			throw new InvalidArgumentException("Unknown decode mode: " + mode);
+		
+		if (! (maxError > 0))
+			throw new InvalidArgumentException("Table error must be positive");
+		
+		if (mode == DECODE_EXACT) {
+			decoder = EXACT_DECODER;
+			return;
+		}
+		
+		decoder = new Decoder(mode, ThermistorTable.forErrorBound(maxError), 0);
+	}
+	
+	/**
+	 * @return the decode mode
+	 * @see CastleESC#setDecodeMode(int, double)
+	 */
+	public int getDecodeMode() {
+		return decoder.mode;
+	}
+	
+	/**
+	 * @return the maximum temperature error of the table in use, as measured
+	 * when it was built (0 in {@link CastleESC#DECODE_EXACT} mode)
+	 */
+	public double getTableError() {
+		ThermistorTable t = decoder.table;
+		if (t == null) return 0.0d;
+		return t.getMeasuredError();
+	}
+	
+	/**
+	 * Returns the raw data frame this ESC data was last calculated from.
+	 * The returned object is owned by this ESC and is overwritten by every
+	 * {@link CastleESC#parseData(TelemetryFrame)} call: copy it with 
+	 * {@link TelemetryFrame#copyTo(TelemetryFrame)} to keep it.
+	 * @return last parsed raw data frame
+	 */
+	public TelemetryFrame getFrame() {
+		return frame;
+	}
+	
+	/**
+	 * @return the FIELD_* bits of the values that changed with the last 
+	 * parsed frame, beyond their deadband (0 if none did)
+	 * @see CastleESC#setDeadband(int, double, double)
+	 * @see CastleESC#FIELD_ALL
+	 */
+	public int getChangedFields() {
+		return changedFields;
+	}
+	
+	/**
+	 * Sets the fields reported as changed, e.g. when this ESC is a copy 
+	 * delivered for several frames (see {@link TelemetryBus})
+	 * @param fields FIELD_* bits
+	 */
+	void setChangedFields(int fields) {
+		changedFields = fields;
 	}
 	
-	private int checkValue(int oldVal, int newVal) {
-		if (oldVal != newVal) {
+	/**
+	 * Copies data and settings (motor poles, decode mode) of this ESC into <b>dest</b>, 
+	 * without allocating
+	 * @param dest the ESC object to copy into
+	 */
+	public void copyTo(CastleESC dest) {
+		dest.voltage = voltage;
+		dest.rippleVoltage = rippleVoltage;
+		dest.current = current;
+		dest.throttle = throttle;
+		dest.outputPower = outputPower;
+		dest.electricalRPM = electricalRPM;
+		dest.BECvoltage = BECvoltage;
+		dest.BECcurrent = BECcurrent;
+		dest.temperature = temperature;
+		dest.rpmDivider = rpmDivider;
+		dest.updated = updated;
+		dest.changedFields = changedFields;
+		frame.copyTo(dest.frame);
+		dest.publish();
+		dest.decoder = decoder;
+	}
+	
+	/**
+	 * Publishes current values for {@link CastleESC#readSnapshot(EscSnapshot)}.
+	 * Only the thread updating this ESC may call it. Ordered stores (lazySet) 
+	 * are enough here, since each one can't be reordered with the previous
+	 * ones, and they don't cost the writer a full memory fence
+	 */
+	private void publish() {
+		long v = published.get(PUB_VERSION) + 1;
+		
+		published.lazySet(PUB_VERSION, v);
+		published.lazySet(PUB_VOLTAGE, Double.doubleToRawLongBits(voltage));
+		published.lazySet(PUB_RIPPLE_VOLTAGE, Double.doubleToRawLongBits(rippleVoltage));
+		published.lazySet(PUB_CURRENT, Double.doubleToRawLongBits(current));
+		published.lazySet(PUB_THROTTLE, Double.doubleToRawLongBits(throttle));
+		published.lazySet(PUB_OUTPUT_POWER, outputPower);
+		published.lazySet(PUB_RPM, electricalRPM);
+		published.lazySet(PUB_BEC_VOLTAGE, Double.doubleToRawLongBits(BECvoltage));
+		published.lazySet(PUB_BEC_CURRENT, Double.doubleToRawLongBits(BECcurrent));
+		published.lazySet(PUB_TEMPERATURE, Double.doubleToRawLongBits(temperature));
+		published.lazySet(PUB_RPM_DIVIDER, rpmDivider);
+		published.lazySet(PUB_VERSION, v + 1);
+	}
+	
+	/**
+	 * Copies into <b>dest</b> the values of the last published frame, all from 
+	 * the same frame, without locking and without allocating: if the
+	 * parser publishes a new frame while copying, the copy is retried.
+	 * Safe to call from any thread, at any time.
+	 * @param dest caller-owned snapshot to fill
+	 * @return the version of the copied values (see {@link CastleESC#getVersion()})
+	 */
+	public long readSnapshot(EscSnapshot dest) {
+		long v;
+		
+		while (true) {
+			v = published.get(PUB_VERSION);
+			
+			if ((v & 1) != 0) { //writer is publishing
+				Thread.yield();
+				continue;
+			}
+			
+			dest.voltage = Double.longBitsToDouble(published.get(PUB_VOLTAGE));
+			dest.rippleVoltage = Double.longBitsToDouble(published.get(PUB_RIPPLE_VOLTAGE));
+			dest.current = Double.longBitsToDouble(published.get(PUB_CURRENT));
+			dest.throttle = Double.longBitsToDouble(published.get(PUB_THROTTLE));
+			dest.outputPower = (int) published.get(PUB_OUTPUT_POWER);
+			dest.electricalRPM = published.get(PUB_RPM);
+			dest.BECvoltage = Double.longBitsToDouble(published.get(PUB_BEC_VOLTAGE));
+			dest.BECcurrent = Double.longBitsToDouble(published.get(PUB_BEC_CURRENT));
+			dest.temperature = Double.longBitsToDouble(published.get(PUB_TEMPERATURE));
+			dest.rpmDivider = (int) published.get(PUB_RPM_DIVIDER);
+			
+			if (published.get(PUB_VERSION) == v) break;
+		}
+		
+		if (dest.rpmDivider == 0) dest.rpmDivider = 1; //nothing published yet
+		dest.version = v;
+		return v;
+	}
+	
+	/**
+	 * Published version of ESC values: it grows by 2 every time a frame changes
+	 * some value (beyond its deadband, see {@link CastleESC#setDeadband(int, double, double)}). Readers can poll it to check whether there's something new
+	 * before calling {@link CastleESC#readSnapshot(EscSnapshot)}.
+	 * @return the current version (0 if nothing was published yet)
+	 */
+	public long getVersion() {
+		return published.get(PUB_VERSION) & ~1L;
+	}
+	
+	/**
+	 * Sets a deadband for one or more fields: a new value is reported as
+	 * changed (in {@link CastleESC#getChangedFields()} and by 
+	 * {@link CastleESC#parseData(TelemetryFrame)} return value) only if it
+	 * differs from the last reported one by more than the greater of 
+	 * <b>absolute</b> and <b>relative</b> * |last reported value|.
+	 * Getters always return the latest values. Deadbands are 0 by default, so 
+	 * that any change is reported.
+	 * @param fields FIELD_* bits of the fields to set
+	 * @param absolute absolute deadband, in the field unit
+	 * @param relative relative deadband (e.g. 0.01 for 1%)
+	 * @throws InvalidArgumentException if absolute or relative are negative
+	 */
+	public void setDeadband(int fields, double absolute, double relative) throws InvalidArgumentException {
+		if (absolute < 0 || relative < 0) 
+			throw new InvalidArgumentException("Deadbands can't be negative");
+		
+		for (int f = 0; f < FIELD_CNT; f++) {
+			if ((fields & (1 << f)) == 0) continue;
+			deadbandAbs[f] = absolute;
+			deadbandRel[f] = relative;
+		}
+	}
+	
+	/**
+	 * @param field a FIELD_* bit
+	 * @return the absolute deadband of <b>field</b>
+	 * @see CastleESC#setDeadband(int, double, double)
+	 */
+	public double getDeadbandAbsolute(int field) {
+		return deadbandAbs[Integer.numberOfTrailingZeros(field) % FIELD_CNT];
+	}
+	
+	/**
+	 * @param field a FIELD_* bit
+	 * @return the relative deadband of <b>field</b>
+	 * @see CastleESC#setDeadband(int, double, double)
+	 */
+	public double getDeadbandRelative(int field) {
+		return deadbandRel[Integer.numberOfTrailingZeros(field) % FIELD_CNT];
+	}
+	
+	private double checkValue(double oldVal, double newVal, int field) {
+		if (oldVal == newVal) return oldVal;
+		
+		int f = Integer.numberOfTrailingZeros(field);
+		double last = reported[f];
+		double band = deadbandRel[f] * Math.abs(last);
+		if (band < deadbandAbs[f]) band = deadbandAbs[f];
+		
+		if (Math.abs(newVal - last) > band) {
 			updated = true;
-			return newVal;
-		} else
-			return oldVal;		
+			changedFields |= field;
+			reported[f] = newVal;
+		}
+		
+		return newVal;
+	}
+	
+	private int checkValue(int oldVal, int newVal, int field) {
+		return (int) checkValue((double) oldVal, (double) newVal, field);
 	}
 
-	private long checkValue(long oldVal, long newVal) {
-		if (oldVal != newVal) {
-			updated = true;
-			return newVal;
-		} else
-			return oldVal;		
+	private long checkValue(long oldVal, long newVal, int field) {
+		return (long) checkValue((double) oldVal, (double) newVal, field);
 	}
 	
 	/**
 	 * Accepts a {@link CLLCommProtocol} object as a parameter and will calculate
 	 * readable ESC data based on its data.
 	 * @param data a CLLCommProtocol object
-	 * @return true if some data in the ESC is updated, false otherwise.
+	 * @return true if some data in the ESC is updated (beyond its deadband), false otherwise.
+	 * {@link CastleESC#getChangedFields()} tells which fields changed.
 	 * @throws InvalidDataException if data contained in DataParser is 
 	 * not valid.
 	 * @see CLLCommProtocol
 	 */
 	public boolean parseData(CLLCommProtocol data) throws InvalidDataException {
+		return parseData(data.getFrame());
+	}
+	
+	/**
+	 * Accepts a {@link TelemetryFrame} object as a parameter and will calculate
+	 * readable ESC data based on its data. Frame data is copied, so the 
+	 * frame can be reused by the caller as soon as this method returns.
+	 * @param data a raw data frame
+	 * @return true if some data in the ESC is updated (beyond its deadband), false otherwise.
+	 * {@link CastleESC#getChangedFields()} tells which fields changed.
+	 * @throws InvalidDataException if data contained in frame is 
+	 * not valid.
+	 * @see CastleESC#getFrame()
+	 */
+	public boolean parseData(TelemetryFrame data) throws InvalidDataException {
 		int ref = data.getTicks(CLLCommProtocol.FRAME_REFERENCE);
 		int offset = Math.min(
 				data.getTicks(CLLCommProtocol.FRAME_TEMP1), 
@@ -205,7 +646,23 @@ public class CastleESC {
 		
 		if (ref == 0) throw new InvalidDataException("Invalid data: no reference!");
 		
+		data.copyTo(frame);
 		updated = false;
+		changedFields = 0;
+		
+		Decoder dec = decoder;
+		
+		if (dec.mode == DECODE_TABLE) {
+			if (dec.ref != ref) {
+				//keep factors for this reference, unless settings changed meanwhile
+				Decoder n = new Decoder(dec.mode, dec.table, ref);
+				DECODER.compareAndSet(this, dec, n);
+				dec = n;
+			}
+			
+			if (parseTable(data, dec, offset)) publish();
+			return updated;
+		}
 
 		for (int f = 1; f < CLLCommProtocol.DATA_FRAME_CNT; f++) {
 			int ticks = data.getTicks(f);
@@ -220,48 +677,103 @@ public class CastleESC {
 			
 			switch(f) {
 				case CLLCommProtocol.FRAME_VOLTAGE:
-					voltage = checkValue(voltage, value * 20.0d);
+					voltage = checkValue(voltage, value * 20.0d, FIELD_VOLTAGE);
 					break;
 				case CLLCommProtocol.FRAME_RIPPLE_VOLTAGE:
-					rippleVoltage = checkValue(rippleVoltage, value * 4.0d);
+					rippleVoltage = checkValue(rippleVoltage, value * 4.0d, FIELD_RIPPLE_VOLTAGE);
 					break;
 				case CLLCommProtocol.FRAME_CURRENT:
-					current = checkValue(current, value * 50.0d);
+					current = checkValue(current, value * 50.0d, FIELD_CURRENT);
 					break;
 				case CLLCommProtocol.FRAME_THROTTLE:
-					throttle = checkValue(current, value);
+					throttle = checkValue(throttle, value, FIELD_THROTTLE);
 					break;
 				case CLLCommProtocol.FRAME_OUTPUT_POWER:
-					outputPower = checkValue(outputPower, (int) Math.round(value * 0.2502d * 100.0d));
+					outputPower = checkValue(outputPower, (int) Math.round(value * 0.2502d * 100.0d), FIELD_OUTPUT_POWER);
 					break;
 				case CLLCommProtocol.FRAME_RPM:
-					electricalRPM = checkValue(electricalRPM, Math.round(value * 20416.7d));
+					electricalRPM = checkValue(electricalRPM, Math.round(value * 20416.7d), FIELD_RPM);
 					break;
 				case CLLCommProtocol.FRAME_BEC_VOLTAGE:
-					BECvoltage = checkValue(BECvoltage, value * 4.0d);
+					BECvoltage = checkValue(BECvoltage, value * 4.0d, FIELD_BEC_VOLTAGE);
 					break;
 				case CLLCommProtocol.FRAME_BEC_CURRENT:
-					BECcurrent = checkValue(BECcurrent, value * 4.0d);
+					BECcurrent = checkValue(BECcurrent, value * 4.0d, FIELD_BEC_CURRENT);
 					break;
 				case CLLCommProtocol.FRAME_TEMP1:
 					temp1Ticks = ticks;
-					temperature = checkValue(temperature, value * 30.0d);
+					temperature = checkValue(temperature, value * 30.0d, FIELD_TEMPERATURE);
 					break;
 				case CLLCommProtocol.FRAME_TEMP2:
 					if (ticks > temp1Ticks) {
 						if (value > 3.9d) 
-							temperature = checkValue(temperature, -40);
+							temperature = checkValue(temperature, -40, FIELD_TEMPERATURE);
 						else {
 							double d = value * 63.8125d;
-							temperature = checkValue(temperature, 1.0d / (Math.log(d * 10200d / (255 - d) / 10000.0d) / 3455.0d + 1.0d / 298.0d) - 273);
+							temperature = checkValue(temperature, 1.0d / (Math.log(d * 10200d / (255 - d) / 10000.0d) / 3455.0d + 1.0d / 298.0d) - 273, FIELD_TEMPERATURE);
 						}
 					}
 					break;
 			}
 		}
 		
+		if (updated) publish();
 		return updated;
 	}
 
 	
+	/**
+	 * {@link CastleESC#DECODE_TABLE} mode implementation of {@link CastleESC#parseData(TelemetryFrame)}
+	 */
+	private boolean parseTable(TelemetryFrame data, Decoder d, int offset) {
+		final double[] factors = d.factors;
+		
+		for (int f = 1; f < CLLCommProtocol.DATA_FRAME_CNT; f++) {
+			int ticks = data.getTicks(f);
+			
+			if (ticks == 0) continue; //no data?
+			
+			double value = (ticks - offset) * factors[f];
+			
+			switch(f) {
+				case CLLCommProtocol.FRAME_VOLTAGE:
+					voltage = checkValue(voltage, value, FIELD_VOLTAGE);
+					break;
+				case CLLCommProtocol.FRAME_RIPPLE_VOLTAGE:
+					rippleVoltage = checkValue(rippleVoltage, value, FIELD_RIPPLE_VOLTAGE);
+					break;
+				case CLLCommProtocol.FRAME_CURRENT:
+					current = checkValue(current, value, FIELD_CURRENT);
+					break;
+				case CLLCommProtocol.FRAME_THROTTLE:
+					throttle = checkValue(throttle, value, FIELD_THROTTLE);
+					break;
+				case CLLCommProtocol.FRAME_OUTPUT_POWER:
+					outputPower = checkValue(outputPower, (int) Math.round(value), FIELD_OUTPUT_POWER);
+					break;
+				case CLLCommProtocol.FRAME_RPM:
+					electricalRPM = checkValue(electricalRPM, Math.round(value), FIELD_RPM);
+					break;
+				case CLLCommProtocol.FRAME_BEC_VOLTAGE:
+					BECvoltage = checkValue(BECvoltage, value, FIELD_BEC_VOLTAGE);
+					break;
+				case CLLCommProtocol.FRAME_BEC_CURRENT:
+					BECcurrent = checkValue(BECcurrent, value, FIELD_BEC_CURRENT);
+					break;
+				case CLLCommProtocol.FRAME_TEMP1:
+					temperature = checkValue(temperature, value, FIELD_TEMPERATURE);
+					break;
+				case CLLCommProtocol.FRAME_TEMP2:
+					if (ticks > offset) {
+						if (value > ThermistorTable.MAX_RATIO) 
+							temperature = checkValue(temperature, -40, FIELD_TEMPERATURE);
+						else
+							temperature = checkValue(temperature, d.table.temperature(value), FIELD_TEMPERATURE);
+					}
+					break;
+			}
+		}
+		
+		return updated;
+	}
 }
@@ -42,7 +42,22 @@ package it.picciux.castle.linklive;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
 import java.util.logging.Handler;
@@ -60,7 +75,8 @@ import it.picciux.commlayer.log.LoggerException;
  */
 public class CastleLinkLive {
 	/**
-	 * Internal class to hold commands to ESC interface
+	 * Internal class to hold commands to ESC interface. Once sent, a command
+	 * is completed exactly once, by its reply or by its reply timeout
 	 * @author Matteo Piscitelli
 	 *
 	 */
@@ -81,175 +97,841 @@ public class CastleLinkLive {
 		 * Command value (if any)
 		 */
 		public int value;
+		
+		/**
+		 * Command sequence (pipelined mode only)
+		 */
+		public int seq = 0;
+		
+		/**
+		 * Reply timeout task, while command is waiting for a reply
+		 */
+		public ScheduledFuture<?> timeout;
+		
+		/**
+		 * Command result: {@link CastleLinkLive#RESULT_PENDING} or one of
+		 * {@link CommandResult} status constants
+		 */
+		public volatile int result = RESULT_PENDING;
+		
+		/**
+		 * Future to complete with command result (asynchronous calls only)
+		 */
+		public CommandFuture future = null;
+		
+		/**
+		 * Futures of commands merged into this one while queued
+		 */
+		public ArrayList<CommandFuture> mergedFutures = null;
+		
+		/**
+		 * {@link System#nanoTime()} when command was queued, sent and completed
+		 */
+		public long queuedNanos;
+		public long sentNanos;
+		public volatile long completedNanos;
+		
+		/**
+		 * Completes the command. Must be called only by the thread that
+		 * removed the command from in-flight commands
+		 */
+		public void complete(int result) {
+			completedNanos = System.nanoTime();
+			this.result = result;
+		}
+		
+		/**
+		 * Completes the futures of this command, if any
+		 */
+		public void completeFutures(int status, long roundTripNanos) {
+			if (future != null) future.complete(status, roundTripNanos);
+			if (mergedFutures != null)
+				for (int i = 0; i < mergedFutures.size(); i++)
+					mergedFutures.get(i).complete(status, roundTripNanos);
+		}
+	}
+	
+	/**
+	 * Session ESCs with their counters, all indexed by ESC id. Replaced as a
+	 * whole when a session starts, so that the data thread always sees the 
+	 * three arrays with the same length.
+	 */
+	private static class EscSet {
+		/**
+		 * {@link CastleESC} objects to store and return data
+		 */
+		final CastleESC[] escs;
+		
+		/**
+		 * Number of valid data frames received for each ESC
+		 */
+		final long[] frames;
+		
+		/**
+		 * Number of data frames that updated ESC data
+		 */
+		final long[] updates;
+		
+		EscSet(CastleESC[] escs) {
+			this.escs = escs;
+			frames = new long[escs.length];
+			updates = new long[escs.length];
+		}
+	}
+	
+	/**
+	 * Commands waiting to be sent by the command loop, by priority: DISARM 
+	 * goes before any other command, and withdraws queued ARM and SET_THROTTLE 
+	 * commands, which would otherwise run after it. A SET_THROTTLE or NOOP 
+	 * posted while another one is still queued is merged into it (latest value
+	 * wins, all futures get the same result). The lock is only held for queue 
+	 * operations, never while waiting.
+	 */
+	private static class CommandQueue {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final ArrayDeque<Command> urgent = new ArrayDeque<Command>();
+		private final ArrayDeque<Command> normal = new ArrayDeque<Command>();
+		
+		/* queued SET_THROTTLE and NOOP, to merge into */
+		private Command queuedThrottle = null;
+		private Command queuedNoop = null;
+		
+		/* statistics */
+		private volatile int maxDepth = 0;
+		private volatile long merged = 0;
+		private volatile long polled = 0;
+		private volatile long totalWaitNanos = 0;
+		private volatile long maxWaitNanos = 0;
+		
+		/**
+		 * Queues a command
+		 * @return withdrawn commands, whose futures have to be cancelled, or null
+		 */
+		public ArrayList<Command> post(Command c) {
+			ArrayList<Command> withdrawn = null;
+			
+			c.queuedNanos = System.nanoTime();
+			
+			lock.lock();
+			try {
+				switch (c.id) {
+					case CLLCommProtocol.CMD_DISARM:
+						Iterator<Command> i = normal.iterator();
+						while (i.hasNext()) {
+							Command q = i.next();
+							if (q.id != CLLCommProtocol.CMD_ARM && q.id != CLLCommProtocol.CMD_SET_THROTTLE) continue;
+							
+							i.remove();
+							if (withdrawn == null) withdrawn = new ArrayList<Command>();
+							withdrawn.add(q);
+						}
+						queuedThrottle = null;
+						urgent.add(c);
+						break;
+						
+					case CLLCommProtocol.CMD_SET_THROTTLE:
+						if (queuedThrottle != null) {
+							merge(queuedThrottle, c);
+						} else {
+							queuedThrottle = c;
+							normal.add(c);
+						}
+						break;
+						
+					case CLLCommProtocol.CMD_NOOP:
+						if (queuedNoop != null) {
+							merge(queuedNoop, c);
+						} else {
+							queuedNoop = c;
+							normal.add(c);
+						}
+						break;
+						
+					default:
+						normal.add(c);
+						break;
+				}
+				
+				int depth = urgent.size() + normal.size();
+				if (depth > maxDepth) maxDepth = depth;
+			} finally {
+				lock.unlock();
+			}
+			
+			return withdrawn;
+		}
+		
+		private void merge(Command into, Command c) {
+			into.value = c.value;
+			if (c.future != null) {
+				if (into.mergedFutures == null) into.mergedFutures = new ArrayList<CommandFuture>(2);
+				into.mergedFutures.add(c.future);
+			}
+			merged++;
+		}
+		
+		/**
+		 * @return next command to send, or null if queue is empty
+		 */
+		public Command poll() {
+			Command c;
+			
+			lock.lock();
+			try {
+				c = urgent.poll();
+				if (c == null) c = normal.poll();
+				if (c == null) return null;
+				
+				if (c == queuedThrottle) queuedThrottle = null;
+				if (c == queuedNoop) queuedNoop = null;
+			} finally {
+				lock.unlock();
+			}
+			
+			long wait = System.nanoTime() - c.queuedNanos;
+			polled++;
+			totalWaitNanos += wait;
+			if (wait > maxWaitNanos) maxWaitNanos = wait;
+			return c;
+		}
+		
+		/**
+		 * @return true if a DISARM is waiting
+		 */
+		public boolean hasUrgent() {
+			lock.lock();
+			try {
+				return ! urgent.isEmpty();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		public boolean isEmpty() {
+			return size() == 0;
+		}
+		
+		public int size() {
+			lock.lock();
+			try {
+				return urgent.size() + normal.size();
+			} finally {
+				lock.unlock();
+			}
+		}
 	}
 	
+	private static final int RESULT_PENDING = 0;
+	
 	/**
-	 * Thread to command the ESC interface
+	 * Command loop for the ESC interface. It never blocks: every step sends
+	 * a command and returns. Next step is run on the session scheduler when
+	 * the ESC interface replies, when a reply times out or when a delay elapses.
+	 * <p>
+	 * Loop state is only touched by loop steps, and steps never run 
+	 * concurrently: each wake up is counted and the step that finds pending 
+	 * wake ups runs again (see {@link CommandLoop#wakeUp()}). Other threads only 
+	 * hand over data through atomic and concurrent structures, so that the 
+	 * parser thread never waits for the command loop.
+	 * <p>
+	 * Commands are sent while less than <i>window</i> of them are waiting for 
+	 * a reply. During handshake, and if the ESC interface doesn't support 
+	 * pipelined mode, window is 1 (stop-and-wait). In pipelined mode commands
+	 * are tagged with a sequence, so that replies can be matched to them.
 	 * @author Matteo Piscitelli
 	 *
 	 */
-	private class ESCInterfaceThread extends Thread {
-		private boolean keepRunning = true;
-		private boolean keepWaiting = false;
-		private boolean replied = false;
-		private boolean ack = false;		
-		private Vector<Command> cmdQueue = new Vector<Command>();
-		private int waitingCommandID = CMD_NONE;
+	private class CommandLoop implements Runnable {
+		/**
+		 * Fired when a command reply times out
+		 */
+		private class Timeout implements Runnable {
+			private final Command command;
+			
+			public Timeout(Command command) {
+				this.command = command;
+			}
+			
+			@Override
+			public void run() {
+				if (! inFlight.compareAndSet(command.seq, command, null)) return; //already replied
+				command.complete(CommandResult.TIMEOUT);
+				completed.add(command);
+				wakeUp();
+			}
+		}
 		
+		private volatile boolean keepRunning = true;
+		private volatile boolean cancelled = false;
+		private final CommandQueue cmdQueue = new CommandQueue();
+		
+		/**
+		 * commands waiting for a reply, indexed by sequence
+		 */
+		private final AtomicReferenceArray<Command> inFlight = 
+			new AtomicReferenceArray<Command>(CLLCommProtocol.SEQUENCE_CNT);
+		
+		/**
+		 * replied or timed out commands, waiting to be processed by the loop
+		 */
+		private final ConcurrentLinkedQueue<Command> completed = new ConcurrentLinkedQueue<Command>();
+		
+		/**
+		 * pending wake ups: loop steps run while this is not 0 
+		 */
+		private final AtomicInteger wakeUps = new AtomicInteger(0);
+		
+		private volatile boolean pipelined = false;
+		
+		/**
+		 * future to complete at handshake end (asynchronous start only)
+		 */
+		private volatile CommandFuture startFuture = null;
+		private Command startCommand = null;
+		
+		/* loop state: only touched by loop steps */
+		private int inFlightCount = 0;
+		private int window = 1;
+		private int nextSeq = 0;
+		private Command failed = null;
+		private int phase = PHASE_HANDSHAKE;
+		private int step = 0;
+		private boolean delaying = false;
+		private long delayDue = 0;
+		private ScheduledFuture<?> delayTask = null;
+		
+		/* last SET_THROTTLE sent */
+		private long throttleSentNanos = 0;
+		private int throttleSent = -1;
+		
+		/* reply to loop handoff statistics */
+		private final AtomicLong handoffs = new AtomicLong(0);
+		private final AtomicLong handoffNanos = new AtomicLong(0);
+		private volatile long maxHandoffNanos = 0;
+		
+		private final ScheduledExecutorService scheduler;
+		private final boolean ownScheduler;
+		private final int pipelineWindow;
+		
+		/**
+		 * number of tasks scheduled so far, see {@link CommandLoop#schedule(Runnable, long, TimeUnit)}
+		 */
+		private final AtomicInteger scheduled = new AtomicInteger(0);
+		private static final int PURGE_INTERVAL = 256;
+		
+		/**
+		 * number of ARM commands posted and not completed yet
+		 */
+		private final AtomicInteger armsPending = new AtomicInteger(0);
+		
+		/**
+		 * true if an asynchronous SET_THROTTLE or NOOP was queued: it ends 
+		 * current delay, as its caller is waiting for the reply
+		 */
+		private volatile boolean promptPosted = false;
+		
+		private static final int START_DELAY = 1000;
+		private static final int RUN_DELAY = 100;
 		private static final int START_TIMEOUT = 3000;
 		private static final int RUN_TIMEOUT = 2000;
 		
-		private static final int CMD_NONE = -1;
+		private static final int HANDSHAKE_STEPS = 7;
 		
-		public ESCInterfaceThread() {
-			super();
-			setName("Throttle Thread");
+		private static final int PHASE_HANDSHAKE = 0;
+		private static final int PHASE_RUNNING = 1;
+		private static final int PHASE_DONE = 2;
+		
+		/* steps of each PHASE_RUNNING iteration */
+		private static final int STEP_QUEUED = 0;
+		private static final int STEP_KEEPALIVE = 1;
+		private static final int STEP_DELAY = 2;
+		
+		private final Runnable delayElapsed = new Runnable() {
+			@Override
+			public void run() {
+				wakeUp();
+			}
+		};
+		
+		/**
+		 * @param scheduler the scheduler to run on. If null, a single-thread 
+		 * scheduler is created for this loop and shut down at loop termination
+		 * @param threadFactory factory of the scheduler thread, if this loop creates
+		 * its own (null for a platform thread)
+		 * @param pipelineWindow maximum number of commands waiting for a reply.
+		 * 1 for stop-and-wait
+		 */
+		public CommandLoop(ScheduledExecutorService scheduler, ThreadFactory threadFactory, int pipelineWindow) {
+			this.pipelineWindow = pipelineWindow;
+			
+			if (scheduler == null) {
+				if (threadFactory == null) {
+					threadFactory = new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r);
+							t.setName("Throttle Thread");
+							return t;
+						}
+					};
+				}
+				this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+				ownScheduler = true;
+			} else {
+				this.scheduler = scheduler;
+				ownScheduler = false;
+			}
+		}
+		
+		public void start() {
+			delaying = true;
+			delayDue = System.nanoTime() + START_DELAY * 1000000L;
+			delayTask = schedule(delayElapsed, START_DELAY, TimeUnit.MILLISECONDS);
 		}
 		
-		public synchronized boolean isRunning() {
+		public boolean isRunning() {
 			return keepRunning;
 		}
 		
-		public synchronized void terminate() {
+		public boolean isPipelined() {
+			return pipelined;
+		}
+		
+		public void terminate() {
 			keepRunning = false;
 		}
 
-		/* NOT NEEDED ATM
-		public synchronized void forceTermination() {
+		public void cancel() {
 			keepRunning = false;
+			cancelled = true;
+			wakeUp();
+		}
+		
+		/**
+		 * Called by the parser for every response from ESC interface. Completes
+		 * the replied command and hands it over to the loop
+		 * @param seq sequence of the replied command, or {@link CLLCommProtocol#NO_SEQUENCE}
+		 * @param ack true for ACK, false for NACK
+		 */
+		public void reply(int seq, boolean ack) {
+			if (seq == CLLCommProtocol.NO_SEQUENCE) {
+				if (pipelined) return; //not for us: stale reply
+				seq = 0;
+			}
+			
+			Command c = inFlight.getAndSet(seq, null);
+			if (c == null) return;
 			
-			//force replied to avoid to notify failure when thread is terminated 
-			//while it's waiting for a reply
-			replied = true; 
-			interrupt();			
+			c.complete(ack ? CommandResult.ACK : CommandResult.NACK);
+			
+			//session state follows the ESC interface right away
+			if (ack && c.id == CLLCommProtocol.CMD_ARM && transition(STATE_STARTED, STATE_ARMED)) 
+				armedChanged(true);
+			//a NACKed DISARM means the interface is not armed either
+			if (c.id == CLLCommProtocol.CMD_DISARM && transition(STATE_ARMED, STATE_STARTED)) 
+				armedChanged(false);
+			
+			completed.add(c);
+			wakeUp();
 		}
-		*/
 		
-		public synchronized void cancel() {
-            keepRunning = false;
-            interrupt();
+		/**
+		 * Called when the throttle is set: in throttle push mode, wakes the loop 
+		 * to end current delay as soon as minimum send interval allows
+		 */
+		public void throttleChanged() {
+			if (isPushingThrottle()) wakeUp();
 		}
 		
-		public synchronized void ack() {
-			log.finer("ACK " + waitingCommandID);
-			if (waitingCommandID == CLLCommProtocol.CMD_ARM) setArmed(true);
-			if (waitingCommandID == CLLCommProtocol.CMD_DISARM) setArmed(false);
-			replied = true;
-			keepWaiting = false;
-			ack = true;
-			notify();
+		/**
+		 * Queues a command. DISARM wakes the loop, that sends it as soon as
+		 * no reply is pending, without waiting for current delay. So do 
+		 * asynchronous SET_THROTTLE and NOOP, sent at next iteration start
+		 */
+		public void postCommand(Command command) {
+			if (command.id == CLLCommProtocol.CMD_ARM) armsPending.incrementAndGet();
+			
+			ArrayList<Command> withdrawn = cmdQueue.post(command);
+			
+			if (withdrawn != null)
+				for (int i = 0; i < withdrawn.size(); i++)
+					finish(withdrawn.get(i), CommandResult.CANCELLED, -1);
+			
+			if (command.id == CLLCommProtocol.CMD_DISARM) wakeUp();
+			
+			if (command.future != null && (command.id == CLLCommProtocol.CMD_SET_THROTTLE || 
+					command.id == CLLCommProtocol.CMD_NOOP)) {
+				promptPosted = true;
+				wakeUp();
+			}
 		}
 		
-		public synchronized void nack() {
-			log.finer("NACK " + waitingCommandID);
-			replied = true;
-			keepRunning = false;
-			ack = false;
-			notify();
+		/**
+		 * @return true if an ARM command is queued or waiting for its reply
+		 * (armed state changes before the command is completed, so there's
+		 * no gap between the two)
+		 */
+		public boolean isArmPending() {
+			return armsPending.get() > 0;
+		}
+		
+		/**
+		 * Completes the futures of a command the loop is done with
+		 */
+		private void finish(Command c, int status, long roundTripNanos) {
+			if (c.id == CLLCommProtocol.CMD_ARM) armsPending.decrementAndGet();
+			c.completeFutures(status, roundTripNanos);
+		}
+		
+		public int getCommandsInQueueCount() {
+			return cmdQueue.size();
 		}
 		
+		public CommandQueue getCommandQueue() {
+			return cmdQueue;
+		}
 		
-		public synchronized void postCommand(Command command) {
-			cmdQueue.add(command);
+		/**
+		 * Completes <b>future</b> as timed out if it's still pending after <b>timeout</b>
+		 */
+		public void scheduleTimeout(final CommandFuture future, long timeout) {
+			try {
+				//cancelled by the future as soon as it completes
+				future.setTimeoutTask(schedule(new Runnable() {
+					@Override
+					public void run() {
+						future.complete(CommandResult.TIMEOUT, -1);
+					}
+				}, timeout, TimeUnit.MILLISECONDS));
+			} catch (RejectedExecutionException e) {
+				future.complete(CommandResult.CANCELLED, -1);
+			}
 		}
 		
-		public synchronized Command commandInQueue() {
-			if (cmdQueue.size() == 0) return null;
+		public void setStartFuture(CommandFuture future) {
+			startFuture = future;
+		}
+		
+		/**
+		 * @return the number of replies handed over to the loop
+		 */
+		public long getHandoffs() {
+			return handoffs.get();
+		}
+		
+		/**
+		 * @return the sum of handoff latencies, in nanoseconds
+		 */
+		public long getHandoffNanos() {
+			return handoffNanos.get();
+		}
+		
+		/**
+		 * @return the maximum handoff latency, in nanoseconds
+		 */
+		public long getMaxHandoffNanos() {
+			return maxHandoffNanos;
+		}
+		
+		/**
+		 * Schedules a task on the loop scheduler. Every {@link CommandLoop#PURGE_INTERVAL}
+		 * tasks, cancelled ones are removed from the scheduler queue, where they
+		 * would otherwise stay until their delay elapses
+		 */
+		private ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+			if (scheduled.incrementAndGet() % PURGE_INTERVAL == 0 && scheduler instanceof ThreadPoolExecutor)
+				((ThreadPoolExecutor) scheduler).purge();
 			
-			Command c = cmdQueue.remove(0);
-			return c;
+			return scheduler.schedule(task, delay, unit);
 		}
 		
-		public synchronized int getCommandsInQueueCount() {
-			return cmdQueue.size();
+		/**
+		 * Runs loop steps on the scheduler as soon as possible. If steps are
+		 * already running, they will run once more
+		 */
+		private void wakeUp() {
+			if (wakeUps.getAndIncrement() != 0) return;
+			
+			try {
+				scheduler.execute(this);
+			} catch (RejectedExecutionException e) {
+				//loop already terminated
+			}
 		}
 		
-		private synchronized boolean sendAndWait(Command c, int timeout) {
-			if (c == null) return true;
+		@Override
+		public void run() {
+			int missed = 1;
 			
-			waitingCommandID = c.id;
+			do {
+				step();
+				missed = wakeUps.addAndGet(-missed);
+			} while (missed != 0);
+		}
+		
+		/**
+		 * @return true if throttle changes have to be pushed to the ESC interface
+		 */
+		private boolean isPushingThrottle() {
+			return throttlePush && throttleMode == SOFTWARE_THROTTLE && isArmed();
+		}
+		
+		/**
+		 * @return loop delay after a keepalive, in nanoseconds
+		 */
+		private long runDelay() {
+			if (! isPushingThrottle()) return RUN_DELAY * 1000000L;
 			
-			keepWaiting = true;
-			replied = false;
+			long elapsed = System.nanoTime() - throttleSentNanos;
 			
-			/*if (! keepRunning) return false;*/ 
-				
-			sendCommand(c);
+			if (getThrottle() != throttleSent) //throttle changed meanwhile: send it as soon as allowed
+				return Math.max(0, throttlePushMinInterval * 1000000L - elapsed);
+			else
+				return throttlePushMaxInterval * 1000000L;
+		}
+		
+		private void startDelay(long nanos) {
+			delaying = true;
+			delayDue = System.nanoTime() + nanos;
+			delayTask = schedule(delayElapsed, nanos, TimeUnit.NANOSECONDS);
+		}
+		
+		/**
+		 * Checks whether current delay is over
+		 * @return true if loop is still delaying
+		 */
+		private boolean checkDelay() {
+			if (! delaying) return false;
 			
-			int toWait = timeout;
-			long waitStart = System.currentTimeMillis();
-
-			while (/*keepRunning &&*/ keepWaiting) {
-				try {
-					wait(toWait);
-					keepWaiting = false; 
-				} catch (InterruptedException e) {
-					toWait -= waitStart - System.currentTimeMillis();
-					waitStart = System.currentTimeMillis();
-					if (toWait <= 0) keepWaiting = false;
-				}				
-			}
+			long now = System.nanoTime();
+			long due = delayDue;
+			
+			//in push mode a throttle change cuts the delay short
+			if (phase == PHASE_RUNNING && isPushingThrottle() && getThrottle() != throttleSent)
+				due = Math.min(due, throttleSentNanos + throttlePushMinInterval * 1000000L);
 			
-			if (! replied) {
-				keepRunning = false;
-				log.warning("Hardware didn't reply. Failed!");
-				escFailed(c, true);
-			} else if (! ack) {
-				log.warning("Hardware didn't ACK. Failed");
-				escFailed(c, false);
+			//so does a DISARM, or a command whose caller waits for the reply
+			if (phase == PHASE_RUNNING && (cmdQueue.hasUrgent() || promptPosted)) due = now;
+			
+			if (now < due) {
+				if (due < delayDue) {
+					//too early for throttle: move delay end to minimum interval
+					delayTask.cancel(false);
+					startDelay(due - now);
+				}
+				return true;
 			}
 			
-			waitingCommandID = CMD_NONE;
-			return replied;
+			delayTask.cancel(false);
+			delaying = false;
+			return false;
+		}
+		
+		/**
+		 * @return true if another command can be sent now
+		 */
+		private boolean canSend() {
+			return inFlightCount < window && inFlight.get(nextSeq) == null;
 		}
 		
+		/**
+		 * Sends a command and arms its reply timeout
+		 */
+		private void send(Command c, int timeout) {
+			c.seq = nextSeq;
+			if (pipelined) nextSeq = (nextSeq + 1) % CLLCommProtocol.SEQUENCE_CNT;
+			
+			c.timeout = schedule(new Timeout(c), timeout, TimeUnit.MILLISECONDS);
+			inFlightCount++;
+			c.sentNanos = System.nanoTime();
+			inFlight.set(c.seq, c);
+			sendCommand(c);
+		}
 		
-		@Override
-		public void run() {
+		/**
+		 * Processes replied and timed out commands
+		 */
+		private void processCompleted() {
+			Command c;
 			
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
+			while ( (c = completed.poll()) != null ) {
+				inFlightCount--;
+				c.timeout.cancel(false);
+				
+				long handoff = System.nanoTime() - c.completedNanos;
+				handoffs.incrementAndGet();
+				handoffNanos.addAndGet(handoff);
+				if (handoff > maxHandoffNanos) maxHandoffNanos = handoff;
+				
+				//start future completes when session is started (see step())
+				if (c != startCommand)
+					finish(c, c.result, 
+							c.result == CommandResult.TIMEOUT ? -1 : c.completedNanos - c.sentNanos);
+				
+				switch (c.result) {
+					case CommandResult.ACK:
+						log.finer("ACK " + c.id);
+						if (c.id == CLLCommProtocol.CMD_SET_PIPELINE) {
+							window = c.value;
+							pipelined = true;
+						}
+						break;
+						
+					case CommandResult.NACK:
+						log.finer("NACK " + c.id);
+						if (c.id == CLLCommProtocol.CMD_SET_PIPELINE) {
+							//ESC interface doesn't support pipelining: stay in stop-and-wait mode
+							log.info("ESC interface doesn't support pipelined mode");
+						} else if (c.id == CLLCommProtocol.CMD_DISARM) {
+							//not armed (e.g. ARM withdrawn before being sent): that's what was asked
+							log.fine("ESC interface already disarmed");
+						} else {
+							log.warning("Hardware didn't ACK. Failed");
+							commandFailed(c);
+						}
+						break;
+						
+					case CommandResult.TIMEOUT:
+						log.warning("Hardware didn't reply. Failed!");
+						commandFailed(c);
+						break;
+				}
 			}
+		}
+		
+		private void commandFailed(Command c) {
+			keepRunning = false;
+			if (failed == null) failed = c; //first failure only is reported
+		}
+		
+		private Command handshakeCommand(int step) {
+			switch (step) {
+				case 0: return new Command(CLLCommProtocol.CMD_HELLO, 0);
+				case 1: return new Command(CLLCommProtocol.CMD_SET_NESC, escSet.escs.length);
+				case 2: return new Command(CLLCommProtocol.CMD_SET_TMIN, throttleMin);
+				case 3: return new Command(CLLCommProtocol.CMD_SET_TMAX, throttleMax);
+				case 4: return new Command(CLLCommProtocol.CMD_SET_TMODE, throttleMode);
+				case 5: 
+					if (pipelineWindow > 1) 
+						return new Command(CLLCommProtocol.CMD_SET_PIPELINE, pipelineWindow);
+					else
+						return null;
+				case 6: 
+					startCommand = new Command(CLLCommProtocol.CMD_START, 0);
+					startCommand.future = startFuture;
+					return startCommand;
+				default: return null;
+			}
+		}
+		
+		/**
+		 * Runs the loop as far as it can go without waiting
+		 */
+		private void step() {
+			boolean started = false;
+			boolean stopped = false;
 			
-			log.finer("Sending HELLO (" + CLLCommProtocol.CMD_HELLO + ")");
-			if (!sendAndWait(new Command(CLLCommProtocol.CMD_HELLO, 0), START_TIMEOUT)) return;
-
-			log.finer("Sending SET_NESC (" + CLLCommProtocol.CMD_SET_NESC + ") " + escs.size());
-			if (!sendAndWait(new Command(CLLCommProtocol.CMD_SET_NESC, escs.size()), START_TIMEOUT)) return;
-
-			log.finer("Sending SET_TMIN (" + CLLCommProtocol.CMD_SET_TMIN + ") " + throttleMin);
-			if (! sendAndWait(new Command(CLLCommProtocol.CMD_SET_TMIN, throttleMin), START_TIMEOUT)) return;
-
-			log.finer("Sending SET_TMAX (" + CLLCommProtocol.CMD_SET_TMAX + ") " + throttleMax);
-			if (! sendAndWait(new Command(CLLCommProtocol.CMD_SET_TMAX, throttleMax), START_TIMEOUT)) return;
-
-			log.finer("Sending SET_TMODE (" + CLLCommProtocol.CMD_SET_TMODE + ") " + throttleMode);
-			if (! sendAndWait(new Command(CLLCommProtocol.CMD_SET_TMODE, throttleMode), START_TIMEOUT)) return;
-
-			log.finer("Sending START (" + CLLCommProtocol.CMD_START + ") " );
-			if (! sendAndWait(new Command(CLLCommProtocol.CMD_START, 0), START_TIMEOUT)) return;
+			if (phase == PHASE_DONE) return;
 			
-			startCompleted();
+			processCompleted();
 			
-			while (isRunning() || (getCommandsInQueueCount() > 0) ) {
-				if (!sendAndWait(commandInQueue(), RUN_TIMEOUT)) break;
-				
-				if (isArmed() && throttleMode == SOFTWARE_THROTTLE) {
-					if (!sendAndWait(new Command(CLLCommProtocol.CMD_SET_THROTTLE, throttle), RUN_TIMEOUT)) break;
+			if (phase == PHASE_HANDSHAKE) {
+				if (failed != null || cancelled) {
+					//session not established: failure is notified by escFailed only
+					phase = PHASE_DONE;
+					stopped = (failed == null);
+				} else if (inFlightCount > 0 || checkDelay()) {
+					//waiting for a reply or for start delay
+				} else if (step < HANDSHAKE_STEPS) {
+					Command c = handshakeCommand(step++);
+					if (c == null) c = handshakeCommand(step++); //skipped step
+					log.finer("Sending " + c.id + " (" + c.value + ")");
+					send(c, START_TIMEOUT);
+				} else if (transition(STATE_HANDSHAKING, STATE_STARTED)) {
+					phase = PHASE_RUNNING;
+					step = STEP_QUEUED;
+					started = true;
+				} else {
+					//session stopped meanwhile
+					phase = PHASE_DONE;
+					stopped = true;
+				}
+			}
+			
+			while (phase == PHASE_RUNNING && ! checkDelay()) {
+				if (failed != null) {
+					phase = PHASE_DONE;
+					stopped = true;
+				} else if (cmdQueue.hasUrgent()) {
+					//DISARM preempts the iteration
+					if (! canSend()) break;
+					send(cmdQueue.poll(), RUN_TIMEOUT);
+				} else if (step == STEP_QUEUED) {
+					if (! cmdQueue.isEmpty()) {
+						if (! canSend()) break; //wait for a reply
+						send(cmdQueue.poll(), RUN_TIMEOUT);
+						if (cmdQueue.isEmpty()) promptPosted = false;
+						//stop-and-wait sends one queued command per iteration
+						if (! pipelined) step = STEP_KEEPALIVE;
+					} else if (! keepRunning) {
+						if (inFlightCount > 0) break; //wait for pending replies
+						phase = PHASE_DONE;
+						stopped = true;
+					} else {
+						promptPosted = false; //all queued commands sent
+						step = STEP_KEEPALIVE;
+					}
+				} else if (step == STEP_KEEPALIVE) {
+					if (! canSend()) break;
+					step = STEP_DELAY;
+					if (isArmed() && throttleMode == SOFTWARE_THROTTLE) {
+						throttleSent = getThrottle();
+						throttleSentNanos = System.nanoTime();
+						send(new Command(CLLCommProtocol.CMD_SET_THROTTLE, throttleSent), RUN_TIMEOUT);
+					} else
+						send(new Command(CLLCommProtocol.CMD_NOOP, 0), RUN_TIMEOUT);
 				} else {
-					if (!sendAndWait(new Command(CLLCommProtocol.CMD_NOOP, 0), RUN_TIMEOUT)) break;
+					//stop-and-wait waits for keepalive reply before delaying
+					if (! pipelined && inFlightCount > 0) break;
+					step = STEP_QUEUED;
+					long d = runDelay();
+					if (d > 0) startDelay(d);
+				}
+			}
+			
+			if (phase == PHASE_DONE) {
+				for (int i = 0; i < inFlight.length(); i++) {
+					Command c = inFlight.getAndSet(i, null);
+					if (c != null) {
+						c.timeout.cancel(false);
+						finish(c, CommandResult.CANCELLED, -1);
+					}
 				}
+				Command c;
+				while ( (c = cmdQueue.poll()) != null )
+					finish(c, CommandResult.CANCELLED, -1);
 				
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					log.finest("ESCInterface thread interrupted!");
+				//handshake failed at any step, or cancelled
+				CommandFuture f = startFuture;
+				if (f != null) {
+					if (failed != null)
+						f.complete(failed.result, failed.result == CommandResult.TIMEOUT ? -1 : failed.completedNanos - failed.sentNanos);
+					else
+						f.complete(CommandResult.CANCELLED, -1);
 				}
-
+				
+				if (delaying) delayTask.cancel(false);
+				if (ownScheduler) scheduler.shutdown();
 			}
-
-			stopCompleted();
+			
+			if (failed != null && phase == PHASE_DONE) 
+				escFailed(failed, failed.result == CommandResult.TIMEOUT);
+			if (started) {
+				startCompleted();
+				if (startFuture != null) 
+					startFuture.complete(CommandResult.ACK, startCommand.completedNanos - startCommand.sentNanos);
+			}
+			if (stopped) stopCompleted();
 		}	
 	}
 
@@ -305,16 +987,87 @@ public class CastleLinkLive {
 	 */
 	public static final int ABSOLUTE_THROTTLE_MAX = 2250; //micro seconds
 	
+	/* SESSION STATES */
+	/**
+	 * No session with the ESC interface
+	 */
+	public static final int STATE_DISCONNECTED = 0;
+	
+	/**
+	 * Session started, handshake with the ESC interface in progress
+	 */
+	public static final int STATE_HANDSHAKING = 1;
+	
+	/**
+	 * Session established (connected), ESC interface not armed
+	 */
+	public static final int STATE_STARTED = 2;
+	
+	/**
+	 * Session established (connected), ESC interface armed
+	 */
+	public static final int STATE_ARMED = 3;
+	
+	/**
+	 * Maximum number of ESCs an ESC interface can report data for 
+	 * (ESC ids 0 to 7, as allowed by {@link CLLCommProtocol#ESC_ID_MASK})
+	 */
+	public static final int MAX_ESC = CLLCommProtocol.ESC_ID_MASK + 1;
+	
+	/**
+	 * Default minimum time between two throttle sends in push mode (milliseconds)
+	 * @see CastleLinkLive#setThrottlePush(boolean)
+	 */
+	public static final int DEFAULT_PUSH_MIN_INTERVAL = 10;
+	
+	/**
+	 * Default maximum time between two throttle sends in push mode (milliseconds)
+	 * @see CastleLinkLive#setThrottlePush(boolean)
+	 */
+	public static final int DEFAULT_PUSH_MAX_INTERVAL = 100;
+	
+	/**
+	 * Maximum pipeline window (CastleLinkLiveSerialMonitor command queue 
+	 * holds QUEUE_LEN - 1 commands)
+	 */
+	public static final int MAX_PIPELINE_WINDOW = 8;
+	
 	/**
-	 * Vector holding {@link CastleESC} objects to store and return data
+	 * Session ESCs and their counters.
+	 * Replaced as a whole by {@link CastleLinkLive#start(int, int)}
 	 */
-	private Vector<CastleESC> escs = new Vector<CastleESC>();
+	private volatile EscSet escSet = new EscSet(new CastleESC[0]);
 	
 	/**
 	 * Protocol data parser
 	 */
 	private CLLCommProtocol parser = new CLLCommProtocol();
 	
+	/**
+	 * First data error found while parsing a bulk slice
+	 */
+	private InvalidDataException dataError = null;
+	
+	/**
+	 * Number of frames containing invalid data found by last put
+	 */
+	private int lastDataErrors = 0;
+	
+	/**
+	 * Handler receiving frames completed during bulk parsing
+	 */
+	private final CLLCommProtocol.FrameHandler frameHandler = new CLLCommProtocol.FrameHandler() {
+		@Override
+		public void frameReceived(CLLCommProtocol p) {
+			try {
+				CastleLinkLive.this.frameReceived();
+			} catch (InvalidDataException e) {
+				lastDataErrors++;
+				if (dataError == null) dataError = e;
+			}
+		}
+	};
+	
 	/**
 	 * Event-handler to be set by user
 	 */
@@ -328,7 +1081,7 @@ public class CastleLinkLive {
 	/**
 	 * Throttle value to be sent to ESC interface
 	 */
-	private int throttle = 50;
+	private volatile int throttle = 50;
 	
 	/**
 	 * throttle pulse length for idle/brake
@@ -341,14 +1094,24 @@ public class CastleLinkLive {
 	private int throttleMax = DEFAULT_THROTTLE_MAX;
 	
 	/**
-	 * Connection status to ESC interface
+	 * Decode mode for ESCs
+	 * @see CastleESC#setDecodeMode(int, double)
+	 */
+	private int decodeMode = CastleESC.DECODE_EXACT;
+	private double decodeMaxError = CastleESC.DEFAULT_TABLE_ERROR;
+	
+	/**
+	 * Deadbands for ESCs, indexed by field bit position
+	 * @see CastleESC#setDeadband(int, double, double)
 	 */
-	private boolean connected = false;
+	private final double[] deadbandAbs = new double[CastleESC.FIELD_CNT];
+	private final double[] deadbandRel = new double[CastleESC.FIELD_CNT];
 	
 	/**
-	 * Whether the ESC interface is armed or not
+	 * Session state: one of STATE_* constants. Changed only through
+	 * atomic transitions, so that it can be read without locking
 	 */
-	private boolean armed = false;
+	private final AtomicInteger state = new AtomicInteger(STATE_DISCONNECTED);
 	
 	/**
 	 * Throttle state (present/valid vs not-present/invalid) as
@@ -357,17 +1120,62 @@ public class CastleLinkLive {
 	private boolean throttlePresent = false;
 	
 	/**
-	 * reference to the running ESCInterfaceThread
+	 * reference to the running CommandLoop
+	 */
+	private volatile CommandLoop commandLoop;
+	
+	/**
+	 * Scheduler to run the command loop on (null to use a dedicated thread)
+	 */
+	private ScheduledExecutorService scheduler = null;
+	
+	/**
+	 * Factory of the command loop thread, when no scheduler is set (null for a platform thread)
 	 */
-	private ESCInterfaceThread escInterfaceThread;
+	private ThreadFactory threadFactory = null;
 	
 	/**
-	 * The output stream to use when sending data to the ESC interface
+	 * Maximum number of commands waiting for a reply (1 for stop-and-wait)
 	 */
-	private OutputStream outStream;
+	private int pipelineWindow = 1;
 	
 	/**
-	 * Sends a {@link Command} to the ESC interface
+	 * Throttle push mode and its send intervals (in milliseconds)
+	 */
+	private volatile boolean throttlePush = false;
+	private volatile int throttlePushMinInterval = DEFAULT_PUSH_MIN_INTERVAL;
+	private volatile int throttlePushMaxInterval = DEFAULT_PUSH_MAX_INTERVAL;
+	
+	/**
+	 * The transport to use when sending data to the ESC interface
+	 */
+	private volatile ITransport transport;
+	
+	/**
+	 * The output stream set by {@link CastleLinkLive#setOutStream(OutputStream)}, if any
+	 */
+	private volatile OutputStream outStream;
+	
+	/**
+	 * Command being sent. Only the command loop sends commands
+	 */
+	private final ByteBuffer cmdBuffer = ByteBuffer.allocate(CLLCommProtocol.COMMAND_LEN);
+	
+	/**
+	 * Binary capture of exchanged data, if any, and the channel to record it with
+	 */
+	private volatile RawCapture rawCapture;
+	private volatile int rawChannel;
+	
+	/**
+	 * During a replay ({@link CastleLinkLive#startReplay(int)}), ids of recorded 
+	 * commands by sequence, and id of last recorded command. Null otherwise
+	 */
+	private volatile int[] replayCommands;
+	private volatile int replayLastCommand = -1;
+	
+	/**
+	 * Sends a {@link Command} to the ESC interface, with a single transport write
 	 * @param command
 	 */
 	private void sendCommand(Command command) {
@@ -375,35 +1183,43 @@ public class CastleLinkLive {
 
 		log.finest("sendingCommand " + command.id + ": " + command.value);
 		
-		int [] buf = new int[] {
-				0x00, 0x00, 0x00
-		};
+		ITransport t = transport;
+		if (t == null) {
+			log.warning("No transport to send command " + command.id);
+			return;
+		}
+		
+		int id = (command.seq << CLLCommProtocol.CMD_SEQ_SHIFT) | command.id;
+		int l = command.value & 0xFF;
+		int h = (command.value >> 8) & 0xFF;
 		
-		int checksum = CLLCommProtocol.OUT_HEADER;
-		buf[0] = command.id;
-		buf[1] = command.value & 0xFF;
-		buf[2] = (command.value >> 8) & 0xFF;
+		cmdBuffer.clear();
+		cmdBuffer.put((byte) CLLCommProtocol.OUT_HEADER);
+		cmdBuffer.put((byte) id);
+		cmdBuffer.put((byte) l);
+		cmdBuffer.put((byte) h);
+		cmdBuffer.put((byte) (CLLCommProtocol.OUT_HEADER ^ id ^ l ^ h));
+		cmdBuffer.flip();
+		
+		RawCapture c = rawCapture;
+		if (c != null) c.write(RawCapture.DIR_OUT, rawChannel, System.nanoTime(), cmdBuffer);
 		
 		try {
-			outStream.write(checksum);
-			for (int i = 0; i < buf.length; i++) {
-				outStream.write(buf[i]);
-				checksum ^= buf[i];
-			}
-			outStream.write(checksum);
+			t.write(cmdBuffer);
 		} catch (IOException e) {
 			log.warning("Write exception: " + e.getMessage());
 		}			
 	}
 	
 	/**
-	 * Called by {@link ESCInterfaceThread} when ESC interface
+	 * Called by {@link CommandLoop} when ESC interface
 	 * didn't reply or NACKed our command
 	 * @param command the failed command
 	 * @param timeout whether was a timeout or NACKed condition
 	 */
 	private void escFailed(Command command, boolean timeout) {
-		escInterfaceThread = null;
+		commandLoop = null;
+		if (state.getAndSet(STATE_DISCONNECTED) == STATE_ARMED) armedChanged(false);
 		String reason = "";
 		
 		if (! timeout) {
@@ -467,21 +1283,29 @@ public class CastleLinkLive {
 	}
 	
 	/**
-	 * Called by {@link ESCInterfaceThread} when it completed
+	 * Called when armed state changes
+	 * @param armed new armed state
+	 */
+	private void armedChanged(boolean armed) {
+		if (eventHandler != null) eventHandler.armedEvent(armed);
+	}
+	
+	/**
+	 * Called by {@link CommandLoop} when it completed
 	 * connection procedure to ESC interface
 	 */
 	private void startCompleted() {
-		setConnected(true);
 		if (eventHandler != null) eventHandler.connectionEvent(true);
 	}
 
 	/**
-	 * Called by {@link ESCInterfaceThread} at thread code termination
+	 * Called by {@link CommandLoop} at loop termination
 	 */
 	private void stopCompleted() {
-		setConnected(false);
+		//before notifying: event handler may start a new session
+		commandLoop = null;
+		if (state.getAndSet(STATE_DISCONNECTED) == STATE_ARMED) armedChanged(false);
 		if (eventHandler != null) eventHandler.connectionEvent(false);
-		escInterfaceThread = null;
 	}
 	
 	/**
@@ -494,27 +1318,155 @@ public class CastleLinkLive {
 			log = Logger.getNullLogger(LOGNAME);
 		}
 		
-		log.setLevel(LOGLEVEL);
+		log.setLevel(LOGLEVEL);
+	}
+	
+	/**
+	 * Sets desired throttle value. Only useful in {@link CastleLinkLive#SOFTWARE_THROTTLE} mode.
+	 * @param throttle from 0 (idle/brake) to 100 (full throttle)
+	 */
+	public void setThrottle(int throttle) {
+		if (throttle < 0) 
+			this.throttle = 0;
+		else if (throttle > 100) 
+			this.throttle = 100;
+		else
+			this.throttle = throttle;
+		
+		CommandLoop l = commandLoop;
+		if (l != null) l.throttleChanged();
+	}
+	
+	/**
+	 * Enables or disables throttle push mode. Only useful in {@link CastleLinkLive#SOFTWARE_THROTTLE} mode.
+	 * By default throttle is sent to the ESC interface every 100 ms. In push mode
+	 * every {@link CastleLinkLive#setThrottle(int)} call wakes the command loop, 
+	 * so that new throttle is sent right away, but no sooner than minimum
+	 * send interval after the previous one. Values set meanwhile are merged: 
+	 * only the latest one is sent. If throttle doesn't change, it's sent again
+	 * every maximum send interval.
+	 * @param push true to enable push mode
+	 * @see CastleLinkLive#setThrottlePushIntervals(int, int)
+	 */
+	public void setThrottlePush(boolean push) {
+		throttlePush = push;
+	}
+	
+	/**
+	 * @return true if throttle push mode is enabled
+	 */
+	public boolean isThrottlePush() {
+		return throttlePush;
+	}
+	
+	/**
+	 * Sets send intervals for throttle push mode
+	 * @param minInterval minimum time between two throttle sends, in milliseconds (i.e. maximum send rate)
+	 * @param maxInterval maximum time between two throttle sends, in milliseconds (i.e. minimum send rate)
+	 * @throws InvalidArgumentException if minInterval is less than 1 or greater than maxInterval
+	 * @see CastleLinkLive#setThrottlePush(boolean)
+	 */
+	public void setThrottlePushIntervals(int minInterval, int maxInterval) throws InvalidArgumentException {
+		if (minInterval < 1 || minInterval > maxInterval)
+			throw new InvalidArgumentException("Throttle push intervals must be 1 <= min <= max");
+		
+		throttlePushMinInterval = minInterval;
+		throttlePushMaxInterval = maxInterval;
+	}
+	
+	/**
+	 * @return minimum time between two throttle sends in push mode, in milliseconds
+	 */
+	public int getThrottlePushMinInterval() {
+		return throttlePushMinInterval;
+	}
+	
+	/**
+	 * @return maximum time between two throttle sends in push mode, in milliseconds
+	 */
+	public int getThrottlePushMaxInterval() {
+		return throttlePushMaxInterval;
+	}
+	
+	/**
+	 * @return current throttle value. Only useful in {@link CastleLinkLive#SOFTWARE_THROTTLE} mode.
+	 */
+	public int getThrottle() {
+		return this.throttle;
+	}
+	
+	/**
+	 * Processes the frame the parser has just completed
+	 * @throws InvalidDataException if ESC data in the frame is not valid
+	 */
+	private void frameReceived() throws InvalidDataException {
+		switch (parser.getType()) {
+		
+			case CLLCommProtocol.TYPE_ESCDATA:
+				int escId = parser.getId();
+				EscSet set = escSet; //read once: a new session may replace it
+				CastleESC[] e = set.escs;
+
+				if (escId > CLLCommProtocol.NO_ESC && escId < e.length) {
+					set.frames[escId]++;
+					
+					if (e[escId].parseData(parser)) {
+						set.updates[escId]++;
+						if (eventHandler != null) eventHandler.dataUpdated(escId, e[escId]);
+					}
+				}
+				
+				// check changes in throttle presence
+				if (throttlePresent != parser.isThrottlePresent()) {
+					throttlePresent = parser.isThrottlePresent();
+					if (eventHandler != null) eventHandler.throttlePresent(throttlePresent);
+				}					
+				break;
+				
+			case CLLCommProtocol.TYPE_RESPONSE:
+				CommandLoop l = commandLoop;
+				if (l != null)
+					l.reply(parser.getResponseSequence(), 
+							parser.getResponse() == CLLCommProtocol.RESPONSE_ACK);
+				else if (replayCommands != null)
+					replayResponse(parser.getResponseSequence(), 
+							parser.getResponse() == CLLCommProtocol.RESPONSE_ACK);
+					
+				break;
+		}
 	}
 	
 	/**
-	 * Sets desired throttle value. Only useful in {@link CastleLinkLive#SOFTWARE_THROTTLE} mode.
-	 * @param throttle from 0 (idle/brake) to 100 (full throttle)
+	 * Applies a recorded response to the recorded command it refers to: 
+	 * ACKed ARM and DISARM change armed state as in a live session
+	 * @param seq response sequence, or {@link CLLCommProtocol#NO_SEQUENCE}
+	 * @param ack whether command was ACKed
 	 */
-	public synchronized void setThrottle(int throttle) {
-		if (throttle < 0) 
-			this.throttle = 0;
-		else if (throttle > 100) 
-			this.throttle = 100;
-		else
-			this.throttle = throttle;
+	private void replayResponse(int seq, boolean ack) {
+		int[] cmds = replayCommands;
+		if (cmds == null || ! ack) return;
+		
+		int id = (seq == CLLCommProtocol.NO_SEQUENCE ? replayLastCommand : cmds[seq & CLLCommProtocol.CMD_ID_MASK]);
+		
+		if (id == CLLCommProtocol.CMD_ARM && transition(STATE_STARTED, STATE_ARMED)) 
+			armedChanged(true);
+		else if (id == CLLCommProtocol.CMD_DISARM && transition(STATE_ARMED, STATE_STARTED)) 
+			armedChanged(false);
 	}
 	
 	/**
-	 * @return current throttle value. Only useful in {@link CastleLinkLive#SOFTWARE_THROTTLE} mode.
+	 * Notifies a command found in a capture being replayed, so that
+	 * the recorded response to it can be applied
+	 * @param seq command sequence
+	 * @param id command id
+	 * @see CaptureReplay
 	 */
-	public synchronized int getThrottle() {
-		return this.throttle;
+	void replayCommand(int seq, int id) {
+		int[] cmds = replayCommands;
+		if (cmds == null) return;
+		
+		cmds[seq & CLLCommProtocol.CMD_ID_MASK] = id;
+		replayLastCommand = id;
 	}
 	
 	/**
@@ -524,38 +1476,17 @@ public class CastleLinkLive {
 	 * @throws InvalidDataException if data is not valid
 	 */
 	public void putData(int b) throws InvalidDataException {
+		RawCapture c = rawCapture;
+		if (c != null) c.write(RawCapture.DIR_IN, rawChannel, System.nanoTime(), b);
+		
+		lastDataErrors = 0;
 		if (parser.putByte(b)) { //if parser completed parsing data... 
-			
-			switch (parser.getType()) {
-			
-				case CLLCommProtocol.TYPE_ESCDATA:
-					int escId = parser.getId();
-
-					if ( 
-								escId > CLLCommProtocol.NO_ESC &&
-								escs.get(escId).parseData(parser) && 
-								eventHandler != null
-					)
-						eventHandler.dataUpdated(escId, escs.get(escId));
-					
-					// check changes in throttle presence
-					if (throttlePresent != parser.isThrottlePresent()) {
-						throttlePresent = parser.isThrottlePresent();
-						if (eventHandler != null) eventHandler.throttlePresent(throttlePresent);
-					}					
-					break;
-					
-				case CLLCommProtocol.TYPE_RESPONSE:
-					if ( (escInterfaceThread != null) ) {
-						if (parser.getResponse() == CLLCommProtocol.RESPONSE_ACK)
-							escInterfaceThread.ack();
-						else
-							escInterfaceThread.nack();
-					}
-						
-					break;
+			try {
+				frameReceived();
+			} catch (InvalidDataException e) {
+				lastDataErrors = 1;
+				throw e;
 			}
-			
 		}
 	}
 	
@@ -571,7 +1502,7 @@ public class CastleLinkLive {
 	 * @throws InvalidDataException if data is not valid
 	 */
 	public void putData(int[] bytes, int offset, int count) throws InvalidDataException {
-		for (int i = offset; i < count; i++)
+		for (int i = offset; i < offset + count; i++)
 			putData(bytes[i]);
 	}
 	
@@ -586,12 +1517,149 @@ public class CastleLinkLive {
 		putData(bytes, 0, bytes.length);
 	}
 
+	/**
+	 * Puts a slice of a byte array containing data received by hardware interface
+	 * in the receive buffer to be parsed by CastleLinkLive. The whole slice is
+	 * scanned in a single pass, and all the frames found in it are processed even
+	 * if some of them contain invalid data.
+	 * @param bytes array containing data to put
+	 * @param offset the array element to start data from
+	 * @param length the number of bytes to put in receive buffer
+	 * @return the number of complete frames decoded from the slice
+	 * @throws InvalidDataException if data in any of the frames is not valid
+	 * (thrown after the whole slice has been parsed)
+	 */
+	public int putData(byte[] bytes, int offset, int length) throws InvalidDataException {
+		RawCapture c = rawCapture;
+		if (c != null) c.write(RawCapture.DIR_IN, rawChannel, System.nanoTime(), bytes, offset, length);
+		
+		lastDataErrors = 0;
+		int frames = parser.putBytes(bytes, offset, length, frameHandler);
+		checkDataError();
+		return frames;
+	}
+	
+	/**
+	 * Same as {@link CastleLinkLive#putData(byte[], int, int)}, but frames found
+	 * in the slice are given the specified arrival time instead of current one
+	 * (i.e. when replaying recorded data, see {@link CaptureReplay})
+	 * @param bytes array containing data to put
+	 * @param offset the array element to start data from
+	 * @param length the number of bytes to put in receive buffer
+	 * @param arrivalNanos the {@link System#nanoTime()}-based arrival time of data
+	 * @return the number of complete frames decoded from the slice
+	 * @throws InvalidDataException if data in any of the frames is not valid
+	 * (thrown after the whole slice has been parsed)
+	 * @see TelemetryFrame#getArrivalNanos()
+	 */
+	public int putData(byte[] bytes, int offset, int length, long arrivalNanos) throws InvalidDataException {
+		RawCapture c = rawCapture;
+		if (c != null) c.write(RawCapture.DIR_IN, rawChannel, arrivalNanos, bytes, offset, length);
+		
+		lastDataErrors = 0;
+		int frames = parser.putBytes(bytes, offset, length, frameHandler, arrivalNanos);
+		checkDataError();
+		return frames;
+	}
+	
+	/**
+	 * Puts all remaining bytes of a {@link ByteBuffer} containing data received by 
+	 * hardware interface in the receive buffer to be parsed by CastleLinkLive. 
+	 * Buffer position is advanced to its limit.
+	 * @param buffer the buffer containing data to put
+	 * @return the number of complete frames decoded from the buffer
+	 * @throws InvalidDataException if data in any of the frames is not valid
+	 * (thrown after the whole buffer has been parsed)
+	 * @see CastleLinkLive#putData(byte[], int, int)
+	 */
+	public int putData(ByteBuffer buffer) throws InvalidDataException {
+		RawCapture c = rawCapture;
+		if (c != null) c.write(RawCapture.DIR_IN, rawChannel, System.nanoTime(), buffer);
+		
+		lastDataErrors = 0;
+		int frames = parser.putBytes(buffer, frameHandler);
+		checkDataError();
+		return frames;
+	}
+	
+	/**
+	 * @return the number of frames containing invalid data found by last 
+	 * <code>putData()</code> call. Bulk methods throw only the first error 
+	 * found in the whole slice, so this is the count to use when collecting
+	 * data error statistics.
+	 */
+	public int getLastDataErrors() {
+		return lastDataErrors;
+	}
+	
+	/**
+	 * Throws (and clears) the first data error found by last bulk put, if any
+	 * @throws InvalidDataException
+	 */
+	private void checkDataError() throws InvalidDataException {
+		if (dataError == null) return;
+		
+		InvalidDataException e = dataError;
+		dataError = null;
+		throw e;
+	}
+	
+	/**
+	 * @return the number of times the receive parser lost and then recovered 
+	 * frame synchronization (i.e. after dropped or corrupted bytes)
+	 * @see CLLCommProtocol#getResyncCount()
+	 */
+	public long getResyncCount() {
+		return parser.getResyncCount();
+	}
+	
+	/**
+	 * @return the total number of received bytes discarded while resynchronizing
+	 * @see CLLCommProtocol#getDiscardedBytes()
+	 */
+	public long getDiscardedBytes() {
+		return parser.getDiscardedBytes();
+	}
+	
+	/**
+	 * Copies the histogram of bytes discarded per resync into <b>dest</b>
+	 * @param dest array to copy histogram into
+	 * @return the number of elements written
+	 * @see CLLCommProtocol#getResyncHistogram(long[])
+	 */
+	public int getResyncHistogram(long[] dest) {
+		return parser.getResyncHistogram(dest);
+	}
+	
 	/**
 	 * @return the number of Castle Creation ESCs connected to the hardware interface
 	 * (as set by {@link CastleLinkLive#start(int, int)} method)
 	 */
 	public int getnESC() {
-		return escs.size();
+		return escSet.escs.length;
+	}
+	
+	/**
+	 * @param whichESC zero-based integer specifying which ESC
+	 * @return the number of valid data frames received for the ESC
+	 * since session start, or -1 if whichESC is out of bounds
+	 */
+	public long getFrameCount(int whichESC) {
+		long[] f = escSet.frames;
+		if ( (whichESC < 0) || (whichESC >= f.length) ) return -1;
+		return f[whichESC];
+	}
+	
+	/**
+	 * @param whichESC zero-based integer specifying which ESC
+	 * @return the number of data frames that updated ESC data since session start
+	 * (i.e. the number of {@link ICastleLinkLiveEvent#dataUpdated(int, CastleESC)} 
+	 * events), or -1 if whichESC is out of bounds
+	 */
+	public long getUpdateCount(int whichESC) {
+		long[] u = escSet.updates;
+		if ( (whichESC < 0) || (whichESC >= u.length) ) return -1;
+		return u[whichESC];
 	}
 	
 	/**
@@ -656,16 +1724,8 @@ public class CastleLinkLive {
 	 * @return whether ESC interface is armed
 	 * @see CastleLinkLive#arm()
 	 */
-	public synchronized boolean isArmed() {
-		return armed;
-	}
-
-	/**
-	 * internal function to thread-safely set armed state
-	 * @param armed
-	 */
-	private synchronized void setArmed(boolean armed) {
-		this.armed = armed;
+	public boolean isArmed() {
+		return state.get() == STATE_ARMED;
 	}
 	
 	/**
@@ -673,65 +1733,214 @@ public class CastleLinkLive {
 	 * whether it is software generated or external
 	 */
 	public void arm() {
-		if (isArmed()) return;
+		CommandLoop l = commandLoop;
+		if (l == null || isArmed()) return;
 		
 		throttle = 50;
-		//armed = true;
+		//state goes ARMED when ARM is ACKed
 		
-		escInterfaceThread.postCommand(new Command(CLLCommProtocol.CMD_ARM, 0));
+		l.postCommand(new Command(CLLCommProtocol.CMD_ARM, 0));
 	}
 
 	/**
 	 * Asks the ESC interface to stop generating/managing throttle signal,
-	 * whether it is software generated or external
+	 * whether it is software generated or external. DISARM is sent if the
+	 * interface is armed or an ARM is still queued or waiting for its reply:
+	 * it withdraws queued ARM and throttle commands, and disarms the interface
+	 * after an ARM already sent.
 	 */
 	public void disarm() {
-		if (! isArmed()) return;
+		CommandLoop l = commandLoop;
+		if (l == null || ! (isArmed() || l.isArmPending())) return;
+		
+		//state goes STARTED when DISARM is ACKed
+		
+		l.postCommand(new Command(CLLCommProtocol.CMD_DISARM, 0));
+	}
+	
+	/**
+	 * Queues a command whose result is reported through a {@link CommandFuture}
+	 * @param id command id
+	 * @param value command value
+	 * @param timeout call timeout, in milliseconds
+	 * @return the command future
+	 */
+	private CommandFuture postAsync(int id, int value, long timeout) {
+		CommandFuture f = new CommandFuture(id, value);
+		CommandLoop l = commandLoop;
+		
+		if (l == null || ! l.isRunning() || ! isConnected()) {
+			f.complete(CommandResult.CANCELLED, -1);
+			return f;
+		}
+		
+		Command c = new Command(id, value);
+		c.future = f;
+		l.scheduleTimeout(f, timeout);
+		l.postCommand(c);
+		return f;
+	}
+	
+	/**
+	 * Asynchronous version of {@link CastleLinkLive#arm()}. If ESC interface
+	 * is already armed, returned future is already completed as ACKed
+	 * (with no round trip time).
+	 * @param timeout call timeout, in milliseconds. When it expires, the future
+	 * completes as {@link CommandResult#TIMEOUT}, but the command is not withdrawn
+	 * @return the future to be completed with command result. If the command
+	 * is NACKed, session fails as with {@link CastleLinkLive#arm()}
+	 */
+	public CommandFuture armAsync(long timeout) {
+		if (isArmed()) {
+			CommandFuture f = new CommandFuture(CLLCommProtocol.CMD_ARM, 0);
+			f.complete(CommandResult.ACK, -1);
+			return f;
+		}
 		
-		//armed = false;
+		throttle = 50;
+		return postAsync(CLLCommProtocol.CMD_ARM, 0, timeout);
+	}
+	
+	/**
+	 * Asynchronous version of {@link CastleLinkLive#disarm()}. If ESC interface
+	 * is not armed and no ARM is pending, returned future is already completed 
+	 * as ACKed (with no round trip time). If the ARM was withdrawn before being
+	 * sent, the interface NACKs DISARM since it's not armed: the future 
+	 * completes as NACKed, but the session doesn't fail.
+	 * @param timeout call timeout, in milliseconds
+	 * @return the future to be completed with command result
+	 * @see CastleLinkLive#armAsync(long)
+	 */
+	public CommandFuture disarmAsync(long timeout) {
+		CommandLoop l = commandLoop;
+		if (isConnected() && ! isArmed() && (l == null || ! l.isArmPending())) {
+			CommandFuture f = new CommandFuture(CLLCommProtocol.CMD_DISARM, 0);
+			f.complete(CommandResult.ACK, -1);
+			return f;
+		}
 		
-		if (escInterfaceThread != null)
-			escInterfaceThread.postCommand(new Command(CLLCommProtocol.CMD_DISARM, 0));
+		return postAsync(CLLCommProtocol.CMD_DISARM, 0, timeout);
+	}
+	
+	/**
+	 * Sets throttle (as {@link CastleLinkLive#setThrottle(int)}) and sends it to the 
+	 * ESC interface right away: current command loop delay is cut short, and
+	 * the command is sent as soon as no reply is pending.
+	 * Only useful in {@link CastleLinkLive#SOFTWARE_THROTTLE} mode.
+	 * @param throttle from 0 (idle/brake) to 100 (full throttle)
+	 * @param timeout call timeout, in milliseconds
+	 * @return the future to be completed with command result
+	 * @see CastleLinkLive#armAsync(long)
+	 */
+	public CommandFuture setThrottleAsync(int throttle, long timeout) {
+		setThrottle(throttle);
+		return postAsync(CLLCommProtocol.CMD_SET_THROTTLE, this.throttle, timeout);
+	}
+	
+	/**
+	 * Sends a NOOP command right away (as {@link CastleLinkLive#setThrottleAsync(int, long)}),
+	 * e.g. to measure link round trip time
+	 * @param timeout call timeout, in milliseconds
+	 * @return the future to be completed with command result
+	 * @see CastleLinkLive#armAsync(long)
+	 */
+	public CommandFuture pingAsync(long timeout) {
+		return postAsync(CLLCommProtocol.CMD_NOOP, 0, timeout);
 	}
 	
 	/**
 	 * Starts a new session: tries to handshake with ESC interface. It's program
-	 * responsibility to give CastleLinkLive an {@link OutputStream} to talk to
-	 * ESC interface ({@link CastleLinkLive#setOutStream(OutputStream)}), and to 
+	 * responsibility to give CastleLinkLive an {@link OutputStream} or an {@link ITransport}
+	 * to talk to ESC interface ({@link CastleLinkLive#setOutStream(OutputStream)},
+	 * {@link CastleLinkLive#setTransport(ITransport)}), and to 
 	 * feed back data from the interface itself through any of {@link CastleLinkLive#putData(int)}, 
-	 * {@link CastleLinkLive#putData(int[])} or {@link CastleLinkLive#putData(int[], int, int)}.
+	 * {@link CastleLinkLive#putData(int[])}, {@link CastleLinkLive#putData(int[], int, int)},
+	 * {@link CastleLinkLive#putData(byte[], int, int)} or {@link CastleLinkLive#putData(ByteBuffer)}.
 	 * Function parameters set the interface to generate throttle
 	 * or to take an external throttle, for the specified number of ESC(s).
 	 * @param throttleMode can be {@link CastleLinkLive#SOFTWARE_THROTTLE} or {@link CastleLinkLive#EXTERNAL_THROTTLE}
-	 * @param nESC number of ESCs the interface is connected to
-	 * @return true
+	 * <br />
+	 * Per-ESC data is kept in arrays indexed by ESC id, so the cost of processing
+	 * a frame doesn't depend on the number of ESCs (see CastleLinkLiveBenchmark).
+	 * Frames of all ESCs share the same serial link, so the update rate of each
+	 * ESC is the link frame rate divided by <b>nESC</b>: at 38400 baud a
+	 * 25 bytes frame takes about 6.5 ms, i.e. about 150 frames per second in total.
+	 * @param nESC number of ESCs the interface is connected to (1 to {@link CastleLinkLive#MAX_ESC})
+	 * @return true if session start was initiated, false if a session is already running
 	 * @throws InvalidArgumentException if any of the arguments is not valid or out of bounds
 	 */
 	public boolean start(int throttleMode, int nESC) throws InvalidArgumentException {
+		return start(throttleMode, nESC, null);
+	}
+	
+	private boolean start(int throttleMode, int nESC, CommandFuture startFuture) throws InvalidArgumentException {
 		if ( (throttleMode != SOFTWARE_THROTTLE) && (throttleMode != EXTERNAL_THROTTLE) )
 			throw new InvalidArgumentException(throttleMode + " is not a valid throttleMode");
 
-		this.throttleMode = throttleMode;
+		if (nESC < 1 || nESC > MAX_ESC) 
+			throw new InvalidArgumentException("We support 1 to " + MAX_ESC + " ESC");
 		
-		if (nESC < 1 || nESC > 2) 
-			throw new InvalidArgumentException("We support 1 or 2 ESC");
+		if (! transition(STATE_DISCONNECTED, STATE_HANDSHAKING)) return false;
 		
-		escs.clear();
-		for (int i = 0; i < nESC; i++)
-			escs.add(new CastleESC());
+		this.throttleMode = throttleMode;
+		initESCs(nESC);
 		
-		escInterfaceThread = new ESCInterfaceThread();
-		escInterfaceThread.start();		
+		CommandLoop l = new CommandLoop(scheduler, threadFactory, pipelineWindow);
+		l.setStartFuture(startFuture);
+		commandLoop = l;
+		l.start();
 		
 		return true;
 	}
 	
+	/**
+	 * Creates session ESCs and their counters
+	 * @param nESC number of ESCs
+	 */
+	private void initESCs(int nESC) {
+		CastleESC[] e = new CastleESC[nESC];
+		for (int i = 0; i < nESC; i++) {
+			e[i] = new CastleESC();
+			applyDecodeMode(e[i]);
+			applyDeadbands(e[i]);
+		}
+		
+		escSet = new EscSet(e);
+	}
+	
+	/**
+	 * Asynchronous version of {@link CastleLinkLive#start(int, int)}: sends
+	 * configuration commands (n. ESC, throttle limits and mode) and START. 
+	 * Returned future completes with the result of START command, or with 
+	 * the result of the configuration command that failed. Events are notified
+	 * as with {@link CastleLinkLive#start(int, int)}.
+	 * @param throttleMode can be {@link CastleLinkLive#SOFTWARE_THROTTLE} or {@link CastleLinkLive#EXTERNAL_THROTTLE}
+	 * @param nESC number of ESCs the interface is connected to (1 to {@link CastleLinkLive#MAX_ESC})
+	 * @param timeout call timeout, in milliseconds. It includes the handshake start delay (1 s)
+	 * @return the future to be completed with handshake result. It's completed as
+	 * {@link CommandResult#CANCELLED} if a session is already running
+	 * @throws InvalidArgumentException if any of the arguments is not valid or out of bounds
+	 */
+	public CommandFuture startAsync(int throttleMode, int nESC, long timeout) throws InvalidArgumentException {
+		CommandFuture f = new CommandFuture(CLLCommProtocol.CMD_START, 0);
+		
+		if (! start(throttleMode, nESC, f)) {
+			f.complete(CommandResult.CANCELLED, -1);
+			return f;
+		}
+		
+		CommandLoop l = commandLoop;
+		if (l != null) l.scheduleTimeout(f, timeout);
+		return f;
+	}
+	
 	/**
 	 * Cancels a session start attempt.
 	 */
 	public void cancelStart() {
-		if (escInterfaceThread != null && escInterfaceThread.isRunning() && (! isConnected())) 
-			escInterfaceThread.cancel();
+		CommandLoop l = commandLoop;
+		if (l != null && l.isRunning() && state.get() == STATE_HANDSHAKING) 
+			l.cancel();
 	}
 		
 	/**
@@ -740,32 +1949,182 @@ public class CastleLinkLive {
 	 * with ESC interface)
 	 */
 	public void stop() {
-		if (escInterfaceThread != null && escInterfaceThread.isRunning()) {
-			if (isArmed()) 
-				escInterfaceThread.postCommand(new Command(CLLCommProtocol.CMD_DISARM, 0));
+		CommandLoop l = commandLoop;
+		if (l != null && l.isRunning()) {
+			if (isArmed() || l.isArmPending()) 
+				l.postCommand(new Command(CLLCommProtocol.CMD_DISARM, 0));
 
-			//ESCInterfaceThread will set armed status when DISARM ACKed
-			//setArmed(false);
+			//state goes STARTED when DISARM is ACKed
 			
-			escInterfaceThread.terminate();
+			l.terminate();
 			throttlePresent = false;
 		}
 		
-		//throttle thread signals disconnection at thread termination calling stopCompleted
+		//command loop signals disconnection at loop termination calling stopCompleted
+	}
+	
+	/**
+	 * Starts a replay session: no command is sent and session is connected 
+	 * right away, then recorded data put with <code>putData()</code> methods 
+	 * is processed as in a live session. Recorded ARM and DISARM commands
+	 * (see {@link CaptureReplay}) change armed state when their recorded
+	 * response is processed. The same events of a live session are notified.
+	 * @param nESC number of ESCs in the recorded session (1 to {@link CastleLinkLive#MAX_ESC})
+	 * @return true if replay session was started, false if a session is already running
+	 * @throws InvalidArgumentException if nESC is out of bounds
+	 * @see CastleLinkLive#stopReplay()
+	 */
+	public boolean startReplay(int nESC) throws InvalidArgumentException {
+		if (nESC < 1 || nESC > MAX_ESC) 
+			throw new InvalidArgumentException("We support 1 to " + MAX_ESC + " ESC");
+		
+		if (! transition(STATE_DISCONNECTED, STATE_STARTED)) return false;
+		
+		initESCs(nESC);
+		
+		int[] cmds = new int[CLLCommProtocol.SEQUENCE_CNT];
+		for (int i = 0; i < cmds.length; i++)
+			cmds[i] = -1;
+		replayLastCommand = -1;
+		replayCommands = cmds;
+		
+		startCompleted();
+		return true;
+	}
+	
+	/**
+	 * Terminates a replay session started by {@link CastleLinkLive#startReplay(int)}
+	 */
+	public void stopReplay() {
+		if (replayCommands == null) return;
+		
+		replayCommands = null;
+		throttlePresent = false;
+		stopCompleted();
+	}
+	
+	/**
+	 * @return true if a replay session is running
+	 */
+	public boolean isReplaying() {
+		return replayCommands != null;
+	}
+	
+	/**
+	 * Sets the scheduler the session command loop will run on, instead of
+	 * a dedicated thread. The command loop never blocks the scheduler threads,
+	 * so many sessions can share a small scheduler. 
+	 * Effective from next {@link CastleLinkLive#start(int, int)} call.
+	 * @param scheduler the scheduler to use, or null to use a dedicated thread
+	 * @see CastleLinkLiveHub
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Sets the factory of the dedicated thread the session command loop runs on
+	 * when no scheduler is set: e.g. {@link SessionThreads#virtual(String)} to run 
+	 * sessions on virtual threads.
+	 * Effective from next {@link CastleLinkLive#start(int, int)} call.
+	 * @param threadFactory the factory, or null for a platform thread
+	 * @see CastleLinkLive#setScheduler(ScheduledExecutorService)
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+	
+	/**
+	 * Sets the maximum number of commands that can be sent to the ESC interface 
+	 * before getting a reply. With a window greater than 1, commands are tagged 
+	 * with a sequence number and sent without waiting for the previous one to 
+	 * be ACKed, so that command rate is not limited by link round trip time.
+	 * If the ESC interface doesn't support pipelined mode, session falls back 
+	 * to stop-and-wait. 
+	 * Effective from next {@link CastleLinkLive#start(int, int)} call.
+	 * @param window 1 (stop-and-wait, default) to {@link CastleLinkLive#MAX_PIPELINE_WINDOW}
+	 * @throws InvalidArgumentException if window is out of bounds
+	 */
+	public void setPipelineWindow(int window) throws InvalidArgumentException {
+		if (window < 1 || window > MAX_PIPELINE_WINDOW)
+			throw new InvalidArgumentException("Pipeline window must be 1 to " + MAX_PIPELINE_WINDOW);
+		
+		pipelineWindow = window;
+	}
+	
+	/**
+	 * @return the maximum number of commands that can be waiting for a reply
+	 * @see CastleLinkLive#setPipelineWindow(int)
+	 */
+	public int getPipelineWindow() {
+		return pipelineWindow;
+	}
+	
+	/**
+	 * @return true if current session is in pipelined mode, i.e. the ESC interface
+	 * accepted a pipeline window greater than 1
+	 */
+	public boolean isPipelined() {
+		CommandLoop l = commandLoop;
+		return (l != null && l.isPipelined());
 	}
 	
 	/**
-	 * @return the {@link OutputStream} that CastleLinkLive is using to send data to ESC interface
+	 * @return the {@link OutputStream} that CastleLinkLive is using to send data to ESC interface,
+	 * or null if a transport was set with {@link CastleLinkLive#setTransport(ITransport)}
 	 */
 	public OutputStream getOutStream() {
 		return outStream;
 	}
 
 	/**
+	 * Sets the stream to send data to ESC interface through. Equivalent to
+	 * {@link CastleLinkLive#setTransport(ITransport)} with a write-only {@link StreamTransport}
 	 * @param outStream sets the {@link OutputStream} to be used by CastleLinkLive to send data to ESC interface
 	 */
 	public void setOutStream(OutputStream outStream) {
 		this.outStream = outStream;
+		transport = (outStream == null ? null : new StreamTransport(null, outStream));
+	}
+	
+	/**
+	 * @return the transport CastleLinkLive is using to send data to ESC interface
+	 */
+	public ITransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Sets the transport to send data to ESC interface through: each command
+	 * is written with a single {@link ITransport#write(ByteBuffer)} call.
+	 * Data received by the transport still has to be fed to CastleLinkLive by the
+	 * program (e.g. {@link ITransport#read(ByteBuffer)}, then {@link CastleLinkLive#putData(ByteBuffer)}).
+	 * @param transport the transport
+	 */
+	public void setTransport(ITransport transport) {
+		this.transport = transport;
+		outStream = null;
+	}
+	
+	/**
+	 * @return the capture data exchanged with ESC interface is recorded to, or null if none
+	 */
+	public RawCapture getRawCapture() {
+		return rawCapture;
+	}
+	
+	/**
+	 * Sets a binary capture to record data exchanged with ESC interface to:
+	 * data put with <code>putData()</code> methods is recorded as {@link RawCapture#DIR_IN} 
+	 * chunks, commands as {@link RawCapture#DIR_OUT} ones. A capture can be shared
+	 * among several CastleLinkLive objects, each one with a different channel.
+	 * Capture is not closed by CastleLinkLive.
+	 * @param capture the capture, or null to stop recording
+	 * @param channel number identifying this session in the capture
+	 */
+	public void setRawCapture(RawCapture capture, int channel) {
+		rawChannel = channel;
+		rawCapture = capture;
 	}
 	
 	/**
@@ -775,12 +2134,90 @@ public class CastleLinkLive {
 	 * @see CastleESC
 	 */
 	public CastleESC getESC(int whichESC) {
-		if ( (whichESC < 0) || (whichESC > escs.size() - 1 ) )
+		CastleESC[] e = escSet.escs;
+		
+		if ( (whichESC < 0) || (whichESC > e.length - 1 ) )
 			return null;
 		else
-			return escs.get(whichESC);
+			return e[whichESC];
 	}
 
+	/**
+	 * Sets how raw data is turned into readable values for all ESCs, 
+	 * current ones and the ones created by next {@link CastleLinkLive#start(int, int)}
+	 * @param mode {@link CastleESC#DECODE_EXACT} or {@link CastleESC#DECODE_TABLE}
+	 * @param maxError maximum error of table-interpolated temperature (in degree Celsius)
+	 * @throws InvalidArgumentException if mode is not a DECODE_* constant
+	 * of {@link CastleESC}, or maxError is not positive
+	 * @see CastleESC#setDecodeMode(int, double)
+	 */
+	public void setDecodeMode(int mode, double maxError) throws InvalidArgumentException {
+		if (mode != CastleESC.DECODE_EXACT && mode != CastleESC.DECODE_TABLE)
+			throw new InvalidArgumentException("Unknown decode mode: " + mode);
+		
+		if (! (maxError > 0))
+			throw new InvalidArgumentException("Table error must be positive");
+		
+		decodeMode = mode;
+		decodeMaxError = maxError;
+		
+		CastleESC[] e = escSet.escs;
+		for (int i = 0; i < e.length; i++)
+			applyDecodeMode(e[i]);
+	}
+	
+	/**
+	 * Sets a deadband for one or more fields of all ESCs, current ones and
+	 * the ones created by next {@link CastleLinkLive#start(int, int)}: 
+	 * {@link ICastleLinkLiveEvent#dataUpdated(int, CastleESC)} is fired 
+	 * only when some value changes beyond its deadband.
+	 * @param fields FIELD_* bits of {@link CastleESC}
+	 * @param absolute absolute deadband, in the field unit
+	 * @param relative relative deadband (e.g. 0.01 for 1%)
+	 * @throws InvalidArgumentException if absolute or relative are negative
+	 * @see CastleESC#setDeadband(int, double, double)
+	 */
+	public void setDeadband(int fields, double absolute, double relative) throws InvalidArgumentException {
+		if (absolute < 0 || relative < 0) 
+			throw new InvalidArgumentException("Deadbands can't be negative");
+		
+		for (int f = 0; f < CastleESC.FIELD_CNT; f++) {
+			if ((fields & (1 << f)) == 0) continue;
+			deadbandAbs[f] = absolute;
+			deadbandRel[f] = relative;
+		}
+		
+		CastleESC[] e = escSet.escs;
+		for (int i = 0; i < e.length; i++)
+			e[i].setDeadband(fields, absolute, relative);
+	}
+	
+	private void applyDecodeMode(CastleESC esc) {
+		try {
+			esc.setDecodeMode(decodeMode, decodeMaxError);
+		} catch (InvalidArgumentException e) {
+			//already checked by setDecodeMode
+		}
+	}
+	
+	private void applyDeadbands(CastleESC esc) {
+		for (int f = 0; f < CastleESC.FIELD_CNT; f++) {
+			try {
+				esc.setDeadband(1 << f, deadbandAbs[f], deadbandRel[f]);
+			} catch (InvalidArgumentException e) {
+				//already checked by setDeadband
+			}
+		}
+	}
+	
+	/**
+	 * @return the decode mode for ESCs
+	 * @see CastleLinkLive#setDecodeMode(int, double)
+	 */
+	public int getDecodeMode() {
+		return decodeMode;
+	}
+	
 	/**
 	 * @return the throttle mode active on connected hardware interface.
 	 * Possible values are:<br />
@@ -795,15 +2232,104 @@ public class CastleLinkLive {
 	/**
 	 * @return whether CastleLinkLive is connected to the ESC interface
 	 */
-	public synchronized boolean isConnected() {
-		return connected;
+	public boolean isConnected() {
+		int s = state.get();
+		return (s == STATE_STARTED || s == STATE_ARMED);
+	}
+	
+	/**
+	 * @return current session state: one of {@link CastleLinkLive#STATE_DISCONNECTED},
+	 * {@link CastleLinkLive#STATE_HANDSHAKING}, {@link CastleLinkLive#STATE_STARTED}
+	 * or {@link CastleLinkLive#STATE_ARMED}
+	 */
+	public int getState() {
+		return state.get();
+	}
+	
+	/**
+	 * internal function to atomically change session state
+	 * @param from expected current state
+	 * @param to new state
+	 * @return true if session was in <b>from</b> state and it's now in <b>to</b> state
+	 */
+	private boolean transition(int from, int to) {
+		return state.compareAndSet(from, to);
+	}
+	
+	/**
+	 * Reply handoff statistics: replies are parsed by the thread calling 
+	 * {@link CastleLinkLive#putData(byte[], int, int)} and handed over to the command 
+	 * loop, running on the session scheduler.
+	 * @return the number of replies handed over to the command loop in current session
+	 */
+	public long getHandoffCount() {
+		CommandLoop l = commandLoop;
+		return (l == null ? 0 : l.getHandoffs());
+	}
+	
+	/**
+	 * @return the average time (in nanoseconds) between a reply being parsed and 
+	 * the command loop processing it, in current session
+	 * @see CastleLinkLive#getHandoffCount()
+	 */
+	public long getAverageHandoffNanos() {
+		CommandLoop l = commandLoop;
+		if (l == null || l.getHandoffs() == 0) return 0;
+		return l.getHandoffNanos() / l.getHandoffs();
+	}
+	
+	/**
+	 * @return the maximum time (in nanoseconds) between a reply being parsed and 
+	 * the command loop processing it, in current session
+	 * @see CastleLinkLive#getHandoffCount()
+	 */
+	public long getMaxHandoffNanos() {
+		CommandLoop l = commandLoop;
+		return (l == null ? 0 : l.getMaxHandoffNanos());
+	}
+	
+	/**
+	 * @return the number of commands waiting to be sent
+	 */
+	public int getCommandQueueDepth() {
+		CommandLoop l = commandLoop;
+		return (l == null ? 0 : l.getCommandsInQueueCount());
+	}
+	
+	/**
+	 * @return the maximum number of commands waiting to be sent at the same 
+	 * time, in current session
+	 */
+	public int getMaxCommandQueueDepth() {
+		CommandLoop l = commandLoop;
+		return (l == null ? 0 : l.getCommandQueue().maxDepth);
+	}
+	
+	/**
+	 * @return the number of SET_THROTTLE and NOOP commands merged into one
+	 * already queued, in current session
+	 */
+	public long getMergedCommandCount() {
+		CommandLoop l = commandLoop;
+		return (l == null ? 0 : l.getCommandQueue().merged);
+	}
+	
+	/**
+	 * @return the average time (in nanoseconds) commands waited in the queue 
+	 * before being sent, in current session
+	 */
+	public long getAverageCommandWaitNanos() {
+		CommandLoop l = commandLoop;
+		if (l == null || l.getCommandQueue().polled == 0) return 0;
+		return l.getCommandQueue().totalWaitNanos / l.getCommandQueue().polled;
 	}
 	
 	/**
-	 * internal function to set thread-safely set connected state
-	 * @param connected
+	 * @return the maximum time (in nanoseconds) a command waited in the queue 
+	 * before being sent, in current session
 	 */
-	private synchronized void setConnected(boolean connected) {
-		this.connected = connected;
+	public long getMaxCommandWaitNanos() {
+		CommandLoop l = commandLoop;
+		return (l == null ? 0 : l.getCommandQueue().maxWaitNanos);
 	}
 }
@@ -0,0 +1,313 @@
+/*****************************************************************************
+ *  CastleLinkLive library - CastleLinkLiveHub.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs many {@link CastleLinkLive} sessions (one per ESC interface) on a
+ * fixed set of threads: command loops of all sessions share one scheduler,
+ * and incoming data of all sessions is decoded by one shared pool. The
+ * number of threads doesn't depend on the number of sessions.
+ * <p>
+ * Sessions added with an {@link InputStream} are polled by the hub: it's
+ * program responsibility to open and close the underlying streams.
+ * Sessions added without one are fed by the program through 
+ * {@link CastleLinkLive#putData(byte[], int, int)} as usual.
+ */
+public class CastleLinkLiveHub {
+	/**
+	 * Aggregated status of all sessions of a hub
+	 * @see CastleLinkLiveHub#getStatus(Status)
+	 */
+	public static class Status {
+		/**
+		 * number of sessions in the hub
+		 */
+		public int sessions;
+		
+		/**
+		 * number of sessions connected to their ESC interface
+		 */
+		public int connected;
+		
+		/**
+		 * number of armed sessions
+		 */
+		public int armed;
+		
+		/**
+		 * total number of bytes read by the hub
+		 */
+		public long bytes;
+		
+		/**
+		 * total number of data frames received
+		 */
+		public long frames;
+		
+		/**
+		 * total number of invalid data errors
+		 */
+		public long dataErrors;
+		
+		/**
+		 * total number of parser resynchronizations
+		 */
+		public long resyncs;
+		
+		/**
+		 * total number of read errors
+		 */
+		public long readErrors;
+	}
+	
+	/**
+	 * A session and its input stream
+	 */
+	private class Session implements Runnable {
+		private final String name;
+		private final CastleLinkLive cll;
+		private final InputStream in;
+		private final byte[] buffer;
+		private final AtomicBoolean busy = new AtomicBoolean(false);
+		private volatile boolean failed = false;
+		private volatile long bytes = 0;
+		private volatile long dataErrors = 0;
+		private volatile long readErrors = 0;
+		
+		public Session(String name, CastleLinkLive cll, InputStream in) {
+			this.name = name;
+			this.cll = cll;
+			this.in = in;
+			buffer = (in == null ? null : new byte[bufferSize]);
+		}
+		
+		/**
+		 * Called by the poll task: submits a decode task if data is available
+		 * and no other decode task of this session is running
+		 */
+		public void poll() {
+			if (in == null || failed || ! busy.compareAndSet(false, true)) return;
+			
+			try {
+				if (in.available() > 0) {
+					decodePool.execute(this);
+					return;
+				}
+			} catch (IOException e) {
+				readFailed(e);
+			} catch (RejectedExecutionException e) {
+				//hub shutting down
+			}
+			
+			busy.set(false);
+		}
+		
+		private void readFailed(IOException e) {
+			readErrors++;
+			failed = true;
+			CastleLinkLive.log.warning("Session " + name + ": read exception: " + e.getMessage());
+		}
+		
+		/**
+		 * Decode task: reads and decodes all available data
+		 */
+		@Override
+		public void run() {
+			try {
+				int n;
+				while (in.available() > 0 && (n = in.read(buffer, 0, buffer.length)) > 0) {
+					bytes += n;
+					try {
+						cll.putData(buffer, 0, n);
+					} catch (InvalidDataException e) {
+						dataErrors += cll.getLastDataErrors();
+					}
+				}
+			} catch (IOException e) {
+				readFailed(e);
+			} finally {
+				busy.set(false);
+			}
+		}
+	}
+	
+	/**
+	 * Default interval between polls of session input streams, in milliseconds
+	 */
+	public static final int DEFAULT_POLL_INTERVAL = 5;
+	
+	/**
+	 * Default size of each session read buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+	
+	private final CopyOnWriteArrayList<Session> sessions = new CopyOnWriteArrayList<Session>();
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService decodePool;
+	private final int bufferSize;
+	
+	private final Runnable pollTask = new Runnable() {
+		@Override
+		public void run() {
+			for (Session s : sessions)
+				s.poll();
+		}
+	};
+	
+	/**
+	 * Class constructor. Creates a hub with one scheduler thread and as many 
+	 * decode threads as available processors
+	 */
+	public CastleLinkLiveHub() {
+		this(1, Runtime.getRuntime().availableProcessors(), DEFAULT_POLL_INTERVAL, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Class constructor
+	 * @param schedulerThreads number of threads running the command loops and the input poll
+	 * @param decodeThreads number of threads decoding incoming data
+	 * @param pollInterval interval between polls of session input streams, in milliseconds
+	 * @param bufferSize size of each session read buffer
+	 */
+	public CastleLinkLiveHub(int schedulerThreads, int decodeThreads, int pollInterval, int bufferSize) {
+		this(schedulerThreads, decodeThreads, pollInterval, bufferSize, null);
+	}
+	
+	/**
+	 * Class constructor
+	 * @param schedulerThreads number of threads running the command loops and the input poll
+	 * @param decodeThreads number of threads decoding incoming data
+	 * @param pollInterval interval between polls of session input streams, in milliseconds
+	 * @param bufferSize size of each session read buffer
+	 * @param threadFactory factory of all hub threads (e.g. {@link SessionThreads#virtual(String)}),
+	 * or null for named platform daemon threads
+	 */
+	public CastleLinkLiveHub(int schedulerThreads, int decodeThreads, int pollInterval, int bufferSize, ThreadFactory threadFactory) {
+		if (schedulerThreads < 1) schedulerThreads = 1;
+		if (decodeThreads < 1) decodeThreads = 1;
+		if (pollInterval < 1) pollInterval = 1;
+		if (bufferSize < 1) bufferSize = DEFAULT_BUFFER_SIZE;
+		
+		this.bufferSize = bufferSize;
+		scheduler = Executors.newScheduledThreadPool(schedulerThreads, 
+				threadFactory != null ? threadFactory : SessionThreads.platform("Hub Scheduler", true));
+		decodePool = Executors.newFixedThreadPool(decodeThreads, 
+				threadFactory != null ? threadFactory : SessionThreads.platform("Hub Decoder", true));
+		scheduler.scheduleWithFixedDelay(pollTask, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Adds a session to the hub. Returned {@link CastleLinkLive} is already
+	 * set up to run on the hub: the program only needs to set its event handler
+	 * and call {@link CastleLinkLive#start(int, int)}.
+	 * @param name session name (used for logging)
+	 * @param in the stream to read ESC interface data from, or null if the program
+	 * feeds data through {@link CastleLinkLive#putData(byte[], int, int)}
+	 * @param out the stream to send commands to ESC interface
+	 * @return the new session
+	 */
+	public CastleLinkLive addSession(String name, InputStream in, OutputStream out) {
+		CastleLinkLive cll = new CastleLinkLive();
+		cll.setScheduler(scheduler);
+		cll.setOutStream(out);
+		sessions.add(new Session(name, cll, in));
+		return cll;
+	}
+	
+	/**
+	 * Removes a session from the hub. The session should be already stopped.
+	 * @param cll the session to remove
+	 * @return true if the session was in the hub
+	 */
+	public boolean removeSession(CastleLinkLive cll) {
+		for (Session s : sessions) {
+			if (s.cll == cll) return sessions.remove(s);
+		}
+		return false;
+	}
+	
+	/**
+	 * @return number of sessions in the hub
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+	
+	/**
+	 * Fills <b>dest</b> with aggregated status of all sessions
+	 * @param dest the {@link Status} object to fill
+	 * @return dest
+	 */
+	public Status getStatus(Status dest) {
+		dest.sessions = 0;
+		dest.connected = 0;
+		dest.armed = 0;
+		dest.bytes = 0;
+		dest.frames = 0;
+		dest.dataErrors = 0;
+		dest.resyncs = 0;
+		dest.readErrors = 0;
+		
+		for (Session s : sessions) {
+			CastleLinkLive cll = s.cll;
+			dest.sessions++;
+			if (cll.isConnected()) dest.connected++;
+			if (cll.isArmed()) dest.armed++;
+			dest.bytes += s.bytes;
+			dest.dataErrors += s.dataErrors;
+			dest.readErrors += s.readErrors;
+			dest.resyncs += cll.getResyncCount();
+			for (int i = 0; i < cll.getnESC(); i++)
+				dest.frames += cll.getFrameCount(i);
+		}
+		
+		return dest;
+	}
+	
+	/**
+	 * Releases hub threads. Sessions should be stopped before (i.e. 
+	 * {@link ICastleLinkLiveEvent#connectionEvent(boolean)} signaled 
+	 * disconnection), since their command loops cannot run anymore 
+	 * after shutdown. Session streams are not closed.
+	 */
+	public void shutdown() {
+		sessions.clear();
+		scheduler.shutdown();
+		decodePool.shutdown();
+	}
+}
@@ -0,0 +1,122 @@
+/*****************************************************************************
+ *  CastleLinkLive library - ChannelTransport.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link ITransport} over NIO channels, in blocking mode: a socket 
+ * (see {@link ChannelTransport#connect(String, int)}), a pipe (see
+ * {@link ChannelTransport#createPipePair()}) or any other byte channel.
+ */
+public class ChannelTransport implements ITransport {
+	private final ReadableByteChannel in;
+	private final WritableByteChannel out;
+	
+	/**
+	 * Class constructor
+	 * @param channel the channel to read data from and write data to
+	 */
+	public ChannelTransport(ByteChannel channel) {
+		this(channel, channel);
+	}
+	
+	/**
+	 * Class constructor
+	 * @param in the channel to read data from (null for a write-only transport)
+	 * @param out the channel to write data to (null for a read-only transport)
+	 */
+	public ChannelTransport(ReadableByteChannel in, WritableByteChannel out) {
+		this.in = in;
+		this.out = out;
+	}
+	
+	/**
+	 * Connects to an ESC interface bridged over TCP (e.g. a serial to network
+	 * bridge). Nagle's algorithm is disabled, so that commands go out as soon as written.
+	 * @param host bridge host name or address
+	 * @param port bridge TCP port
+	 * @return the connected transport
+	 * @throws IOException if connection fails
+	 */
+	public static ChannelTransport connect(String host, int port) throws IOException {
+		SocketChannel sc = SocketChannel.open(new InetSocketAddress(host, port));
+		sc.socket().setTcpNoDelay(true);
+		return new ChannelTransport(sc);
+	}
+	
+	/**
+	 * Creates two transports connected to each other through in-process pipes:
+	 * what is written to one of them is read from the other one
+	 * @return the two connected transports
+	 * @throws IOException if pipes cannot be created
+	 */
+	public static ChannelTransport[] createPipePair() throws IOException {
+		Pipe aToB = Pipe.open();
+		Pipe bToA = Pipe.open();
+		
+		return new ChannelTransport[] {
+				new ChannelTransport(bToA.source(), aToB.sink()),
+				new ChannelTransport(aToB.source(), bToA.sink())
+		};
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) throws IOException {
+		if (out == null) throw new IOException("Read-only transport");
+		
+		//blocking channels write everything at once, unless interrupted
+		while (buffer.hasRemaining())
+			out.write(buffer);
+	}
+
+	@Override
+	public int read(ByteBuffer buffer) throws IOException {
+		if (in == null) throw new IOException("Write-only transport");
+		return in.read(buffer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException ex = null;
+		
+		try {
+			if (in != null) in.close();
+		} catch (IOException e) {
+			ex = e;
+		}
+		
+		if (out != null && out != in) out.close();
+		if (ex != null) throw ex;
+	}
+}
@@ -0,0 +1,154 @@
+/*****************************************************************************
+ *  CastleLinkLive library - CommandFuture.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pending result of a command sent through one of the asynchronous methods
+ * of {@link CastleLinkLive}. It's completed exactly once: by the ESC interface
+ * reply, by the call timeout, or when the session ends. Completion can be 
+ * waited for with {@link CommandFuture#get()} or notified to listeners
+ * ({@link CommandFuture#addListener(ICommandListener)}).
+ */
+public class CommandFuture implements Future<CommandResult> {
+	private final int command;
+	private final int value;
+	private final AtomicReference<CommandResult> result = new AtomicReference<CommandResult>(null);
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final CopyOnWriteArrayList<ICommandListener> listeners = new CopyOnWriteArrayList<ICommandListener>();
+	
+	/**
+	 * call timeout task, cancelled on completion
+	 */
+	private volatile Future<?> timeoutTask = null;
+	
+	/**
+	 * Class constructor
+	 * @param command the command id
+	 * @param value the command value
+	 */
+	CommandFuture(int command, int value) {
+		this.command = command;
+		this.value = value;
+	}
+	
+	/**
+	 * Completes the future, unless already completed
+	 * @param status one of CommandResult status constants
+	 * @param roundTripNanos round trip time, or -1
+	 * @return true if this call completed the future
+	 */
+	boolean complete(int status, long roundTripNanos) {
+		CommandResult r = new CommandResult(command, value, status, roundTripNanos);
+		if (! result.compareAndSet(null, r)) return false;
+		
+		done.countDown();
+		
+		Future<?> t = timeoutTask;
+		if (t != null) t.cancel(false);
+		
+		//whoever removes a listener notifies it: see addListener()
+		for (ICommandListener l : listeners)
+			if (listeners.remove(l)) notify(l, r);
+		
+		return true;
+	}
+	
+	/**
+	 * Sets the task that completes the future as timed out, to be
+	 * cancelled as soon as the future completes
+	 * @param task the timeout task
+	 */
+	void setTimeoutTask(Future<?> task) {
+		timeoutTask = task;
+		if (isDone()) task.cancel(false); //completed meanwhile
+	}
+	
+	private void notify(ICommandListener l, CommandResult r) {
+		try {
+			l.commandCompleted(r);
+		} catch (RuntimeException e) {
+			CastleLinkLive.log.warning("Command listener exception: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Adds a listener to be notified of command completion. If the command
+	 * is already completed, the listener is notified right away by the calling thread
+	 * @param listener the listener to add
+	 */
+	public void addListener(ICommandListener listener) {
+		listeners.add(listener);
+		
+		CommandResult r = result.get();
+		//if completion happened meanwhile, complete() may be notifying the listener already
+		if (r != null && listeners.remove(listener)) notify(listener, r);
+	}
+	
+	/**
+	 * Completes the future as {@link CommandResult#CANCELLED}. The command is
+	 * still sent if it has not been yet.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(CommandResult.CANCELLED, -1);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		CommandResult r = result.get();
+		return (r != null && r.getStatus() == CommandResult.CANCELLED);
+	}
+
+	@Override
+	public boolean isDone() {
+		return result.get() != null;
+	}
+
+	@Override
+	public CommandResult get() throws InterruptedException {
+		done.await();
+		return result.get();
+	}
+
+	@Override
+	public CommandResult get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (! done.await(timeout, unit)) throw new TimeoutException();
+		return result.get();
+	}
+	
+	/**
+	 * @return the command result, or null if the command is not completed yet
+	 */
+	public CommandResult getNow() {
+		return result.get();
+	}
+}
@@ -0,0 +1,127 @@
+/*****************************************************************************
+ *  CastleLinkLive library - CommandResult.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive;
+
+/**
+ * Outcome of a command sent to the ESC interface through one of
+ * the asynchronous methods of {@link CastleLinkLive}
+ * @see CommandFuture
+ */
+public class CommandResult {
+	/* COMMAND STATUS */
+	/**
+	 * The ESC interface ACKed the command
+	 */
+	public static final int ACK = 1;
+	
+	/**
+	 * The ESC interface NACKed the command
+	 */
+	public static final int NACK = 2;
+	
+	/**
+	 * No reply came within the call timeout
+	 */
+	public static final int TIMEOUT = 3;
+	
+	/**
+	 * The command was not sent or not replied because the session is 
+	 * not running or ended, or the future was cancelled
+	 */
+	public static final int CANCELLED = 4;
+	
+	private final int command;
+	private final int value;
+	private final int status;
+	private final long roundTripNanos;
+	
+	/**
+	 * Class constructor
+	 * @param command the command id (see CMD_* constants in {@link CLLCommProtocol})
+	 * @param value the command value
+	 * @param status one of {@link CommandResult#ACK}, {@link CommandResult#NACK},
+	 * {@link CommandResult#TIMEOUT} or {@link CommandResult#CANCELLED}
+	 * @param roundTripNanos time between command sent and reply received, in nanoseconds,
+	 * or -1 if no reply was received
+	 */
+	public CommandResult(int command, int value, int status, long roundTripNanos) {
+		this.command = command;
+		this.value = value;
+		this.status = status;
+		this.roundTripNanos = roundTripNanos;
+	}
+	
+	/**
+	 * @return the command id (see CMD_* constants in {@link CLLCommProtocol})
+	 */
+	public int getCommand() {
+		return command;
+	}
+	
+	/**
+	 * @return the command value
+	 */
+	public int getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return one of {@link CommandResult#ACK}, {@link CommandResult#NACK},
+	 * {@link CommandResult#TIMEOUT} or {@link CommandResult#CANCELLED}
+	 */
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return true if the ESC interface ACKed the command
+	 */
+	public boolean isAck() {
+		return status == ACK;
+	}
+	
+	/**
+	 * @return time between command sent and reply (ACK or NACK) received, 
+	 * in nanoseconds, or -1 if no reply was received
+	 */
+	public long getRoundTripNanos() {
+		return roundTripNanos;
+	}
+	
+	@Override
+	public String toString() {
+		String s;
+		switch (status) {
+			case ACK: s = "ACK"; break;
+			case NACK: s = "NACK"; break;
+			case TIMEOUT: s = "TIMEOUT"; break;
+			default: s = "CANCELLED"; break;
+		}
+		
+		s = "command " + command + " (" + value + "): " + s;
+		if (roundTripNanos >= 0) s += " in " + (roundTripNanos / 1000) + " us";
+		return s;
+	}
+}
@@ -0,0 +1,252 @@
+/*****************************************************************************
+ *  CastleLinkLive library - CsvFormatter.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Builds CSV text into a reusable byte buffer, without creating temporary 
+ * objects. Numbers are formatted exactly as <code>Double.toString()</code> and
+ * <code>Long.toString()</code> would, so output is the same as concatenating
+ * their results: e.g. {@link CsvFormatter#append(double, int)} writes 
+ * <code>Double.toString(Math.round(v * 10^decimals) / 10^decimals)</code>.
+ * <br />
+ * Several lines can be collected before writing them all at once
+ * ({@link CsvFormatter#writeTo(OutputStream)}, {@link CsvFormatter#toString()}).
+ */
+public class CsvFormatter {
+	/**
+	 * Maximum number of decimals supported by {@link CsvFormatter#append(double, int)}
+	 */
+	public static final int MAX_DECIMALS = 9;
+	
+	/**
+	 * Significant digits any double represents exactly: decimals with no more
+	 * than these are formatted as <code>Double.toString()</code> would
+	 */
+	private static final int EXACT_DIGITS = 15;
+	
+	private static final long[] POW10 = {
+		1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+	};
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private byte[] buffer;
+	private int length = 0;
+	private int lines = 0;
+	
+	/**
+	 * Class constructor
+	 * @param capacity initial buffer capacity, in bytes. Buffer grows as needed.
+	 */
+	public CsvFormatter(int capacity) {
+		if (capacity < 64) capacity = 64;
+		buffer = new byte[capacity];
+	}
+	
+	private void ensure(int n) {
+		if (length + n <= buffer.length) return;
+		
+		byte[] b = new byte[Math.max(buffer.length * 2, length + n)];
+		System.arraycopy(buffer, 0, b, 0, length);
+		buffer = b;
+	}
+	
+	/**
+	 * Appends <b>v</b> rounded to <b>decimals</b> decimal digits, formatted as
+	 * <code>Double.toString()</code> formats the rounded value (i.e. at least one decimal
+	 * digit, no trailing zeros, scientific notation out of 10^-3 - 10^7 range)
+	 * @param v the value
+	 * @param decimals number of decimal digits, 0 to {@link CsvFormatter#MAX_DECIMALS}
+	 * @return this formatter
+	 */
+	public CsvFormatter append(double v, int decimals) {
+		if (decimals < 0) decimals = 0;
+		if (decimals > MAX_DECIMALS) decimals = MAX_DECIMALS;
+		
+		double m = (double) POW10[decimals];
+		long k = Math.round(v * m);
+		double r = k / m;
+		double abs = Math.abs(r);
+		
+		//rare cases: let Double do it. Beyond EXACT_DIGITS its shortest
+		//representation may differ from the rounded digits
+		if (abs >= 1e7d || (abs < 1e-3d && r != 0) || 
+				digits(Math.abs(k) / POW10[decimals]) + decimals > EXACT_DIGITS) 
+			return append(Double.toString(r));
+		
+		ensure(1 + 8 + 1 + decimals);
+		
+		if (k < 0) {
+			buffer[length++] = '-';
+			k = -k;
+		}
+		
+		appendDigits(k / POW10[decimals]);
+		buffer[length++] = '.';
+		
+		long fraction = k % POW10[decimals];
+		if (fraction == 0) {
+			buffer[length++] = '0';
+			return this;
+		}
+		
+		//strip trailing zeros
+		int digits = decimals;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		
+		for (int i = digits - 1; i >= 0; i--) {
+			buffer[length + i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		length += digits;
+		
+		return this;
+	}
+	
+	/**
+	 * Appends <b>v</b> as <code>Long.toString()</code> (or <code>Integer.toString()</code>) does
+	 * @param v the value
+	 * @return this formatter
+	 */
+	public CsvFormatter append(long v) {
+		if (v == Long.MIN_VALUE) return append(Long.toString(v));
+		
+		ensure(20);
+		
+		if (v < 0) {
+			buffer[length++] = '-';
+			v = -v;
+		}
+		
+		appendDigits(v);
+		return this;
+	}
+	
+	/**
+	 * @return the number of digits of a non-negative number
+	 */
+	private static int digits(long v) {
+		int digits = 1;
+		for (long t = v; t >= 10; t /= 10)
+			digits++;
+		return digits;
+	}
+	
+	/**
+	 * Appends the digits of a non-negative number
+	 */
+	private void appendDigits(long v) {
+		int digits = digits(v);
+		
+		ensure(digits);
+		for (int i = digits - 1; i >= 0; i--) {
+			buffer[length + i] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		length += digits;
+	}
+	
+	/**
+	 * Appends an ASCII string
+	 * @param s the string
+	 * @return this formatter
+	 */
+	public CsvFormatter append(String s) {
+		int n = s.length();
+		ensure(n);
+		for (int i = 0; i < n; i++)
+			buffer[length++] = (byte) s.charAt(i);
+		return this;
+	}
+	
+	/**
+	 * Appends a field separator (comma)
+	 * @return this formatter
+	 */
+	public CsvFormatter separator() {
+		ensure(1);
+		buffer[length++] = ',';
+		return this;
+	}
+	
+	/**
+	 * Terminates current line (CR LF)
+	 * @return this formatter
+	 */
+	public CsvFormatter endLine() {
+		ensure(2);
+		buffer[length++] = '\r';
+		buffer[length++] = '\n';
+		lines++;
+		return this;
+	}
+	
+	/**
+	 * @return the number of bytes in the buffer
+	 */
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * @return the number of lines terminated since last reset
+	 */
+	public int lines() {
+		return lines;
+	}
+	
+	/**
+	 * Empties the buffer
+	 */
+	public void reset() {
+		length = 0;
+		lines = 0;
+	}
+	
+	/**
+	 * Writes buffer content to <b>out</b> with a single write
+	 * @param out the stream to write to
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, length);
+	}
+	
+	/**
+	 * @return buffer content as a string
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length, ASCII);
+	}
+}
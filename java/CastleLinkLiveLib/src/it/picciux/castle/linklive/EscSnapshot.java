@@ -0,0 +1,139 @@
+/*****************************************************************************
+ *  CastleLinkLive library - EscSnapshot.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+/**
+ * Caller-owned copy of the values of a {@link CastleESC}, taken as a whole
+ * from a single data frame by {@link CastleESC#readSnapshot(EscSnapshot)}.
+ * A snapshot can be reused for any number of reads, so that consumers
+ * on threads other than the parser's one don't allocate per frame.
+ * @see CastleESC#readSnapshot(EscSnapshot)
+ */
+public class EscSnapshot {
+	double voltage;
+	double rippleVoltage;
+	double current;
+	double throttle;
+	int outputPower;
+	long electricalRPM;
+	double BECvoltage;
+	double BECcurrent;
+	double temperature;
+	int rpmDivider = 1;
+	long version = 0;
+	
+	/**
+	 * Class constructor
+	 */
+	public EscSnapshot() {
+	}
+	
+	/**
+	 * @return the version of the ESC values this snapshot was taken from.
+	 * It grows by 2 every published frame and is 0 if no frame was read yet
+	 * @see CastleESC#getVersion()
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return the configured motor poles number to calculate shaft RPM.
+	 */
+	public int getMotorPoles() {
+		return rpmDivider * 2;
+	}
+	
+	/**
+	 * @return battery voltage as reported by ESC (in Volts)
+	 */
+	public double getVoltage() {
+		return voltage;
+	}
+
+	/**
+	 * @return battery ripple voltage as reported by ESC (in Volts)
+	 */
+	public double getRippleVoltage() {
+		return rippleVoltage;
+	}
+
+	/**
+	 * @return current flowing through power system, as reported by ESC (in Amperes)
+	 */
+	public double getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return throttle pulse duration as reported by ESC (in microseconds)
+	 */
+	public double getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * @return the power level the ESC is driving the motor (percentage: 0-100)
+	 */
+	public int getOutputPower() {
+		return outputPower;
+	}
+
+	/**
+	 * @return the electrical RPM as reported by ESC (not counting motor poles number)
+	 */
+	public long getElectricalRPM() {
+		return electricalRPM;
+	}
+
+	/**
+	 * @return the shaft RPM as reported by ESC (if motor poles number is set correctly)
+	 */
+	public long getRPM() {
+		return electricalRPM / rpmDivider;
+	}
+	
+	/**
+	 * @return the BEC voltage as reported by ESC (in Volts)
+	 */
+	public double getBECvoltage() {
+		return BECvoltage;
+	}
+
+	/**
+	 * @return the BEC current as reported by ESC (in Amperes)
+	 */
+	public double getBECcurrent() {
+		return BECcurrent;
+	}
+
+	/**
+	 * @return the ESC temperature, as reported by ESC itself (in degree Celsius)
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+}
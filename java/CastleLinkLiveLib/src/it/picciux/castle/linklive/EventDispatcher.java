@@ -0,0 +1,551 @@
+/*****************************************************************************
+ *  CastleLinkLive library - EventDispatcher.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Event handler decoupling data parsing from event handling: ESC data 
+ * is copied into a preallocated ring buffer and delivered to the actual 
+ * handler by the dispatcher own thread, so that a slow handler doesn't 
+ * stall the thread feeding data to {@link CastleLinkLive}.
+ * <br />
+ * Usage: <code>cll.setEventHandler(new EventDispatcher(handler, capacity, policy))</code>,
+ * then {@link EventDispatcher#start()}.
+ * <br />
+ * When the ring is full, {@link EventDispatcher#dataUpdated(int, CastleESC)}
+ * behaves as configured by backpressure policy:
+ * <ul>
+ * <li>{@link EventDispatcher#POLICY_BLOCK}: the caller waits for a free slot</li>
+ * <li>{@link EventDispatcher#POLICY_DROP_OLDEST}: the oldest undelivered data is dropped</li>
+ * <li>{@link EventDispatcher#POLICY_LATEST_PER_ESC}: only the latest undelivered 
+ * data of each ESC is kept (ring capacity is ignored). Fields changed by the
+ * data it replaces are reported as changed by the kept one too
+ * ({@link CastleESC#getChangedFields()})</li>
+ * </ul>
+ * Dropped data are counted as overflows. Other events (connection, throttle
+ * presence, armed state) are never dropped and are delivered in order with data:
+ * data posted before them is delivered (or dropped) first, so that e.g. a handler
+ * closing a log on disconnection gets the last data before.
+ * <br />
+ * Exceptions thrown by the handler are logged, and don't stop the dispatcher.
+ * Events are delivered by a single thread at a time: when the dispatcher is
+ * restarted, the new thread waits for the previous one to return from the handler.
+ * <br />
+ * The {@link CastleESC} object handed to the handler is owned by the dispatcher 
+ * and is reused for next event: copy it ({@link CastleESC#copyTo(CastleESC)}) to keep it.
+ */
+public class EventDispatcher implements ICastleLinkLiveEvent {
+	/**
+	 * Backpressure policy: wait for the handler to free a slot
+	 */
+	public static final int POLICY_BLOCK = 0;
+	
+	/**
+	 * Backpressure policy: drop oldest undelivered data
+	 */
+	public static final int POLICY_DROP_OLDEST = 1;
+	
+	/**
+	 * Backpressure policy: keep only latest undelivered data of each ESC
+	 */
+	public static final int POLICY_LATEST_PER_ESC = 2;
+	
+	/**
+	 * Default number of slots in the ring
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	/**
+	 * Ring slot
+	 */
+	private static class Slot {
+		int index;
+		long postedNanos;
+		long seq;
+		final CastleESC esc = new CastleESC();
+	}
+	
+	/**
+	 * Non-data event, to be delivered after data posted before it
+	 */
+	private static class ControlEvent {
+		final Runnable event;
+		final long after;
+		
+		ControlEvent(Runnable event, long after) {
+			this.event = event;
+			this.after = after;
+		}
+	}
+	
+	private final ICastleLinkLiveEvent handler;
+	private int policy;
+	
+	/* ring: count slots starting at tail */
+	private Slot[] ring;
+	private int tail = 0;
+	private int count = 0;
+	
+	/* latest per ESC: pending flags indexed by ESC id */
+	private Slot[] latest;
+	private boolean[] pending;
+	private int pendingCount = 0;
+	
+	/* sequence of last posted data */
+	private long posted = 0;
+	
+	/* non-data events, never dropped */
+	private final ArrayDeque<ControlEvent> controlEvents = new ArrayDeque<ControlEvent>();
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	
+	private volatile long overflows = 0;
+	private volatile long delivered = 0;
+	
+	/* lag: time between data posted and delivered to the handler */
+	private volatile long lastLagNanos = 0;
+	private volatile long maxLagNanos = 0;
+	private volatile long totalLagNanos = 0;
+	
+	private String name = "Event Dispatcher";
+	private ThreadFactory threadFactory = null;
+	private Thread thread = null;
+	private volatile boolean running = false;
+	
+	/**
+	 * incremented by each start and stop: a dispatcher thread runs while
+	 * the generation it was started for is current
+	 */
+	private volatile int generation = 0;
+	
+	/**
+	 * Class constructor. Creates a dispatcher with {@link EventDispatcher#DEFAULT_CAPACITY} 
+	 * slots and {@link EventDispatcher#POLICY_LATEST_PER_ESC} policy
+	 * @param handler the handler events are delivered to
+	 */
+	public EventDispatcher(ICastleLinkLiveEvent handler) {
+		this.handler = handler;
+		init(DEFAULT_CAPACITY, POLICY_LATEST_PER_ESC);
+	}
+	
+	/**
+	 * Class constructor
+	 * @param handler the handler events are delivered to
+	 * @param capacity number of slots in the ring
+	 * @param policy backpressure policy: one of {@link EventDispatcher#POLICY_BLOCK},
+	 * {@link EventDispatcher#POLICY_DROP_OLDEST} or {@link EventDispatcher#POLICY_LATEST_PER_ESC}
+	 * @throws InvalidArgumentException if policy is not valid
+	 */
+	public EventDispatcher(ICastleLinkLiveEvent handler, int capacity, int policy) throws InvalidArgumentException {
+		if (policy != POLICY_BLOCK && policy != POLICY_DROP_OLDEST && policy != POLICY_LATEST_PER_ESC)
+			throw new InvalidArgumentException(policy + " is not a valid backpressure policy");
+		
+		this.handler = handler;
+		init(capacity, policy);
+	}
+	
+	private void init(int capacity, int policy) {
+		if (capacity < 1) capacity = 1;
+		
+		this.policy = policy;
+		
+		if (policy == POLICY_LATEST_PER_ESC) {
+			ring = new Slot[0];
+			latest = new Slot[CastleLinkLive.MAX_ESC];
+			for (int i = 0; i < latest.length; i++) {
+				latest[i] = new Slot();
+				latest[i].index = i;
+			}
+		} else {
+			ring = new Slot[capacity];
+			for (int i = 0; i < ring.length; i++)
+				ring[i] = new Slot();
+			latest = new Slot[0];
+		}
+		
+		pending = new boolean[latest.length];
+	}
+	
+	/**
+	 * Starts the dispatcher thread
+	 */
+	public synchronized void start() {
+		if (running) return;
+		
+		running = true;
+		final int gen = ++generation;
+		final Thread previous = thread;
+		Runnable body = new Runnable() {
+			@Override
+			public void run() {
+				dispatch(gen, previous);
+			}
+		};
+		
+		if (threadFactory != null) {
+			thread = threadFactory.newThread(body);
+		} else {
+			thread = new Thread(body);
+			thread.setName(name);
+			thread.setDaemon(true);
+		}
+		thread.start();
+	}
+	
+	/**
+	 * Sets the name of the dispatcher thread. Takes effect on next {@link EventDispatcher#start()}
+	 * @param name the thread name
+	 */
+	public synchronized void setName(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Sets the factory of the dispatcher thread (e.g. {@link SessionThreads#virtual(String)}).
+	 * Takes effect on next {@link EventDispatcher#start()}
+	 * @param threadFactory the factory, or null for a platform daemon thread named
+	 * as set by {@link EventDispatcher#setName(String)}
+	 */
+	public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+	
+	/**
+	 * Stops the dispatcher thread. Undelivered events are discarded.
+	 */
+	public synchronized void stop() {
+		if (! running) return;
+		
+		lock.lock();
+		try {
+			running = false;
+			generation++;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		
+		//not joined, as the caller could be what the handler is waiting for:
+		//next start waits for it instead
+		thread.interrupt();
+	}
+	
+	/**
+	 * @return the number of ESC data events dropped by backpressure policy
+	 */
+	public long getOverflowCount() {
+		return overflows;
+	}
+	
+	/**
+	 * @return the number of ESC data events delivered to the handler
+	 */
+	public long getDeliveredCount() {
+		return delivered;
+	}
+	
+	/**
+	 * @return the number of undelivered ESC data events
+	 */
+	public int getPendingCount() {
+		lock.lock();
+		try {
+			return (policy == POLICY_LATEST_PER_ESC ? pendingCount : count);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return time the last delivered ESC data event waited in the dispatcher, 
+	 * in nanoseconds
+	 */
+	public long getLastLagNanos() {
+		return lastLagNanos;
+	}
+	
+	/**
+	 * @return maximum time an ESC data event waited in the dispatcher, in nanoseconds
+	 */
+	public long getMaxLagNanos() {
+		return maxLagNanos;
+	}
+	
+	/**
+	 * @return average time ESC data events waited in the dispatcher, in nanoseconds
+	 * (0 if none was delivered yet)
+	 */
+	public long getAverageLagNanos() {
+		long n = delivered;
+		if (n == 0) return 0;
+		return totalLagNanos / n;
+	}
+	
+	/**
+	 * @return the backpressure policy
+	 */
+	public int getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Copies ESC data into the ring. Called by {@link CastleLinkLive}
+	 */
+	@Override
+	public void dataUpdated(int index, CastleESC esc) {
+		dataUpdated(index, esc, esc.getChangedFields());
+	}
+	
+	/**
+	 * Copies ESC data into the ring, to be delivered as changing <b>changedFields</b>
+	 * (e.g. changes accumulated over data the caller filtered out)
+	 * @param index ESC id
+	 * @param esc ESC data
+	 * @param changedFields FIELD_* bits of {@link CastleESC}
+	 */
+	void dataUpdated(int index, CastleESC esc, int changedFields) {
+		lock.lock();
+		try {
+			if (policy == POLICY_LATEST_PER_ESC) {
+				if (index < 0 || index >= latest.length) return;
+				
+				if (pending[index]) {
+					overflows++;
+					changedFields |= latest[index].esc.getChangedFields();
+				} else {
+					pending[index] = true;
+					pendingCount++;
+					latest[index].postedNanos = System.nanoTime();
+				}
+				latest[index].seq = ++posted;
+				esc.copyTo(latest[index].esc);
+				latest[index].esc.setChangedFields(changedFields);
+			} else {
+				if (count == ring.length) {
+					if (policy == POLICY_BLOCK) {
+						while (count == ring.length && running)
+							notFull.awaitUninterruptibly();
+						if (! running) return;
+					} else {
+						//drop oldest
+						tail = (tail + 1) % ring.length;
+						count--;
+						overflows++;
+					}
+				}
+				
+				Slot s = ring[(tail + count) % ring.length];
+				s.index = index;
+				s.postedNanos = System.nanoTime();
+				s.seq = ++posted;
+				esc.copyTo(s.esc);
+				s.esc.setChangedFields(changedFields);
+				count++;
+			}
+			
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Queues a non-data event
+	 */
+	private void postControl(Runnable event) {
+		lock.lock();
+		try {
+			controlEvents.add(new ControlEvent(event, posted));
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void throttlePresent(final boolean present) {
+		postControl(new Runnable() {
+			@Override
+			public void run() {
+				handler.throttlePresent(present);
+			}
+		});
+	}
+
+	@Override
+	public void connectionEvent(final boolean connected) {
+		postControl(new Runnable() {
+			@Override
+			public void run() {
+				handler.connectionEvent(connected);
+			}
+		});
+	}
+
+	@Override
+	public void connectionError(final String reason) {
+		postControl(new Runnable() {
+			@Override
+			public void run() {
+				handler.connectionError(reason);
+			}
+		});
+	}
+
+	@Override
+	public void armedEvent(final boolean armed) {
+		postControl(new Runnable() {
+			@Override
+			public void run() {
+				handler.armedEvent(armed);
+			}
+		});
+	}
+	
+	/**
+	 * @param after sequence of a control event
+	 * @return true if some data posted before a control event is still pending
+	 * in the ring (lock must be held)
+	 */
+	private boolean ringDataBefore(long after) {
+		return count > 0 && ring[tail].seq <= after;
+	}
+	
+	/**
+	 * @param after sequence of a control event
+	 * @return the id of next ESC, round robin from <b>next</b>, whose pending
+	 * data was posted before a control event, or -1 if none (lock must be held)
+	 */
+	private int latestDataBefore(int next, long after) {
+		for (int i = 0; i < pending.length; i++) {
+			int e = (next + i) % pending.length;
+			if (pending[e] && latest[e].seq <= after) return e;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @param gen generation a dispatcher thread was started for
+	 * @return true if the thread has to keep running
+	 */
+	private boolean isCurrent(int gen) {
+		return running && generation == gen;
+	}
+	
+	/**
+	 * Dispatcher thread body
+	 * @param gen generation this thread was started for
+	 * @param previous the thread of the previous generation, if any
+	 */
+	private void dispatch(int gen, Thread previous) {
+		/* previous thread may still be in the handler: let it return and exit.
+		 * Waited for even if stopped meanwhile, so that a thread never exits
+		 * before the previous one and next thread can rely on it */
+		while (previous != null && previous.isAlive()) {
+			try {
+				previous.join();
+			} catch (InterruptedException e) {
+				//stopped meanwhile: keep waiting
+			}
+		}
+		
+		//handler gets data from here, so that the ring slot can be reused right away
+		CastleESC esc = new CastleESC();
+		int next = 0; //next ESC to check for latest per ESC policy
+		
+		while (isCurrent(gen)) {
+			Runnable control = null;
+			int index = -1;
+			long postedNanos = 0;
+			
+			lock.lock();
+			try {
+				while (isCurrent(gen) && controlEvents.isEmpty() && count == 0 && pendingCount == 0)
+					notEmpty.awaitUninterruptibly();
+				
+				if (! isCurrent(gen)) break;
+				
+				ControlEvent c = controlEvents.peek();
+				boolean data;
+				
+				if (c == null)
+					data = true;
+				else if (policy == POLICY_LATEST_PER_ESC) {
+					int e = latestDataBefore(next, c.after);
+					if (e >= 0) next = e;
+					data = (e >= 0);
+				} else
+					data = ringDataBefore(c.after);
+				
+				if (! data) {
+					control = controlEvents.poll().event;
+				} else if (count > 0) {
+					Slot s = ring[tail];
+					index = s.index;
+					postedNanos = s.postedNanos;
+					s.esc.copyTo(esc);
+					tail = (tail + 1) % ring.length;
+					count--;
+					notFull.signal();
+				} else if (pendingCount > 0) {
+					//round robin, so that a fast ESC doesn't starve others
+					while (! pending[next]) next = (next + 1) % pending.length;
+					index = next;
+					postedNanos = latest[index].postedNanos;
+					latest[index].esc.copyTo(esc);
+					pending[index] = false;
+					pendingCount--;
+					next = (next + 1) % pending.length;
+				}
+			} finally {
+				lock.unlock();
+			}
+			
+			try {
+				if (control != null) {
+					control.run();
+				} else if (index >= 0) {
+					long lag = System.nanoTime() - postedNanos;
+					lastLagNanos = lag;
+					if (lag > maxLagNanos) maxLagNanos = lag;
+					totalLagNanos += lag;
+					
+					delivered++;
+					handler.dataUpdated(index, esc);
+				}
+			} catch (RuntimeException e) {
+				CastleLinkLive.log.warning("Event handler exception: " + e.getMessage());
+			}
+		}
+	}
+}
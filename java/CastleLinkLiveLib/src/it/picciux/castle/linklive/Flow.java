@@ -0,0 +1,96 @@
+/*****************************************************************************
+ *  CastleLinkLive library - Flow.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+/**
+ * Reactive streams interfaces, mirroring <code>java.util.concurrent.Flow</code>
+ * (Java 9 and later) with the same names and contracts, so that this library 
+ * still runs on Java 6: adapting them to JDK ones is a one-line delegation per method.
+ * @see TelemetryPublisher
+ */
+public final class Flow {
+	private Flow() {
+	}
+	
+	/**
+	 * A producer of items received by {@link Subscriber}s on demand
+	 * @param <T> the published item type
+	 */
+	public static interface Publisher<T> {
+		/**
+		 * Adds a subscriber, that will be notified with
+		 * {@link Subscriber#onSubscribe(Subscription)} first
+		 * @param subscriber the subscriber
+		 */
+		public void subscribe(Subscriber<? super T> subscriber);
+	}
+	
+	/**
+	 * A receiver of items. Calls are never concurrent for the same subscription.
+	 * @param <T> the received item type
+	 */
+	public static interface Subscriber<T> {
+		/**
+		 * First method called for a new subscription: no item is sent
+		 * until {@link Subscription#request(long)} is called
+		 * @param subscription the new subscription
+		 */
+		public void onSubscribe(Subscription subscription);
+		
+		/**
+		 * Next item of the subscription
+		 * @param item the item
+		 */
+		public void onNext(T item);
+		
+		/**
+		 * Unrecoverable error: the subscription is terminated
+		 * @param throwable the error
+		 */
+		public void onError(Throwable throwable);
+		
+		/**
+		 * No more items will be sent: the subscription is terminated
+		 */
+		public void onComplete();
+	}
+	
+	/**
+	 * Link between a {@link Publisher} and a {@link Subscriber}
+	 */
+	public static interface Subscription {
+		/**
+		 * Adds <b>n</b> items to the demand of the subscriber
+		 * @param n number of items (> 0; {@link Long#MAX_VALUE} for unbounded demand)
+		 */
+		public void request(long n);
+		
+		/**
+		 * Stops sending items to the subscriber
+		 */
+		public void cancel();
+	}
+}
@@ -0,0 +1,41 @@
+/*****************************************************************************
+ *  CastleLinkLive library - ICommandListener.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive;
+
+/**
+ * Interface to be implemented by objects that want to be notified
+ * when a command sent through one of the asynchronous methods of
+ * {@link CastleLinkLive} completes
+ * @see CommandFuture#addListener(ICommandListener)
+ */
+public interface ICommandListener {
+	/**
+	 * Called once when the command completes. It's called by the session 
+	 * command loop (or by the thread adding the listener, if the command is 
+	 * already completed), so it must not block.
+	 * @param result the command outcome
+	 */
+	public void commandCompleted(CommandResult result);
+}
@@ -0,0 +1,63 @@
+/*****************************************************************************
+ *  CastleLinkLive library - ITransport.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte link to an ESC interface: a serial port, a network bridge or a simulator.
+ * {@link CastleLinkLive} writes each command with a single 
+ * {@link ITransport#write(ByteBuffer)} call; data read with 
+ * {@link ITransport#read(ByteBuffer)} goes to {@link CastleLinkLive#putData(ByteBuffer)}.
+ * @see CastleLinkLive#setTransport(ITransport)
+ * @see StreamTransport
+ * @see ChannelTransport
+ */
+public interface ITransport {
+	/**
+	 * Writes all remaining bytes of <b>buffer</b>, in as few underlying
+	 * calls as possible, and flushes them. Buffer position is advanced to its limit.
+	 * @param buffer the data to write
+	 * @throws IOException if the link fails
+	 */
+	public void write(ByteBuffer buffer) throws IOException;
+	
+	/**
+	 * Reads available data into <b>buffer</b>, blocking until at least one
+	 * byte is available. Buffer position is advanced by the number of bytes read.
+	 * @param buffer the buffer to fill
+	 * @return the number of bytes read, or -1 at end of stream
+	 * @throws IOException if the link fails
+	 */
+	public int read(ByteBuffer buffer) throws IOException;
+	
+	/**
+	 * Closes the link
+	 * @throws IOException if the link fails
+	 */
+	public void close() throws IOException;
+}
@@ -0,0 +1,458 @@
+/*****************************************************************************
+ *  CastleLinkLive library - RawCapture.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary capture of the raw byte stream exchanged with one or more ESC interfaces.
+ * <br />
+ * A capture is a sequence of fixed-size, memory-mapped segment files named
+ * <i>basePath.NNNNN</i> (see {@link RawCapture#segmentPath(String, int)}). 
+ * Each segment is laid out as follows (all numbers big-endian):
+ * <ul>
+ * <li>a {@link RawCapture#HEADER_SIZE} bytes header: magic (int), format version (short),
+ * flags (short), segment number (int), segment size (int), <code>System.nanoTime()</code> 
+ * and <code>System.currentTimeMillis()</code> at segment creation (two longs), 
+ * end of written data (int), index entries (int), chunks (int);</li>
+ * <li>a time index of {@link RawCapture#INDEX_ENTRIES} entries, each made of the 
+ * timestamp (long) and the segment offset (int) of a chunk. An entry is added 
+ * at most every index interval, so a reader can seek to a point in time without
+ * scanning the whole segment;</li>
+ * <li>the chunks, each made of payload length (int), timestamp (long), flags (short:
+ * {@link RawCapture#DIR_IN} or {@link RawCapture#DIR_OUT}), channel (short) and payload.</li>
+ * </ul>
+ * A new segment is started when the current one has no room for a chunk or its
+ * index is full. Header counters are updated after each chunk, so a capture 
+ * is readable even if the program terminated without closing it.
+ * <br />
+ * Writes copy data into the mapped segment and allocate nothing: file I/O is
+ * left to the operating system. Methods are synchronized, so a single capture
+ * can be shared by several sessions, each one with its own channel number
+ * (see {@link CastleLinkLive#setRawCapture(RawCapture, int)}).
+ */
+public class RawCapture {
+	/**
+	 * Segment magic number ("CLLR")
+	 */
+	public static final int MAGIC = 0x434C4C52;
+	
+	/**
+	 * Segment format version
+	 */
+	public static final int FORMAT_VERSION = 1;
+	
+	/**
+	 * Chunk direction: data received from ESC interface
+	 */
+	public static final int DIR_IN = 0;
+	
+	/**
+	 * Chunk direction: data sent to ESC interface
+	 */
+	public static final int DIR_OUT = 1;
+	
+	/**
+	 * Segment flag: segment was completed (capture rolled over or was closed)
+	 */
+	public static final int SEGMENT_CLOSED = 0x01;
+	
+	/**
+	 * Size of segment header, in bytes
+	 */
+	public static final int HEADER_SIZE = 64;
+	
+	/**
+	 * Number of time index entries in a segment
+	 */
+	public static final int INDEX_ENTRIES = 1024;
+	
+	/**
+	 * Size of a time index entry, in bytes
+	 */
+	public static final int INDEX_ENTRY_SIZE = 12;
+	
+	/**
+	 * Offset of the first chunk in a segment
+	 */
+	public static final int DATA_START = HEADER_SIZE + INDEX_ENTRIES * INDEX_ENTRY_SIZE;
+	
+	/**
+	 * Size of a chunk header, in bytes
+	 */
+	public static final int CHUNK_HEADER_SIZE = 16;
+	
+	/**
+	 * Default segment size, in bytes
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	
+	/**
+	 * Minimum segment size, in bytes
+	 */
+	public static final int MIN_SEGMENT_SIZE = 64 * 1024;
+	
+	/**
+	 * Default minimum time between index entries, in milliseconds
+	 */
+	public static final int DEFAULT_INDEX_INTERVAL = 100;
+	
+	/* header field offsets */
+	static final int H_MAGIC = 0;
+	static final int H_VERSION = 4;
+	static final int H_FLAGS = 6;
+	static final int H_SEGMENT = 8;
+	static final int H_SIZE = 12;
+	static final int H_START_NANOS = 16;
+	static final int H_START_MILLIS = 24;
+	static final int H_DATA_END = 32;
+	static final int H_INDEX_COUNT = 36;
+	static final int H_CHUNKS = 40;
+	
+	private final String basePath;
+	private final int segmentSize;
+	private final long indexIntervalNanos;
+	
+	private MappedByteBuffer segment;
+	private int segmentNumber = -1;
+	private int indexCount;
+	private int segmentChunks;
+	private long lastIndexNanos;
+	private boolean closed = false;
+	private IOException error;
+	
+	private long chunks = 0;
+	private long bytes = 0;
+	private long dropped = 0;
+	
+	/**
+	 * Class constructor. Creates a capture with {@link RawCapture#DEFAULT_SEGMENT_SIZE} 
+	 * segments and an index entry every {@link RawCapture#DEFAULT_INDEX_INTERVAL} milliseconds.
+	 * Segments of a previous capture with the same base path are deleted.
+	 * @param basePath path of capture files, without segment number
+	 * @throws IOException if first segment cannot be created, or previous
+	 * segments cannot be deleted
+	 */
+	public RawCapture(String basePath) throws IOException {
+		this(basePath, DEFAULT_SEGMENT_SIZE, DEFAULT_INDEX_INTERVAL);
+	}
+	
+	/**
+	 * Class constructor. Segments of a previous capture with the same base 
+	 * path are deleted, so that they're not read as part of this one.
+	 * @param basePath path of capture files, without segment number
+	 * @param segmentSize size of each segment file, in bytes (at least {@link RawCapture#MIN_SEGMENT_SIZE})
+	 * @param indexInterval minimum time between index entries, in milliseconds
+	 * @throws IOException if first segment cannot be created, or previous
+	 * segments cannot be deleted
+	 */
+	public RawCapture(String basePath, int segmentSize, int indexInterval) throws IOException {
+		if (segmentSize < MIN_SEGMENT_SIZE) segmentSize = MIN_SEGMENT_SIZE;
+		if (indexInterval < 0) indexInterval = 0;
+		
+		this.basePath = basePath;
+		this.segmentSize = segmentSize;
+		this.indexIntervalNanos = indexInterval * 1000000L;
+		
+		deleteSegments(basePath);
+		nextSegment();
+	}
+	
+	/**
+	 * Deletes the segments of capture <b>basePath</b>, up to the first missing one
+	 * @param basePath path of capture files, without segment number
+	 * @throws IOException if an existing segment cannot be deleted
+	 */
+	private static void deleteSegments(String basePath) throws IOException {
+		for (int n = 0; ; n++) {
+			File f = new File(segmentPath(basePath, n));
+			if (! f.exists()) return;
+			if (! f.delete()) throw new IOException("Cannot delete " + f.getPath());
+		}
+	}
+	
+	/**
+	 * @param basePath path of capture files, without segment number
+	 * @param segment segment number
+	 * @return the path of the file holding segment <b>segment</b> of capture <b>basePath</b>
+	 */
+	public static String segmentPath(String basePath, int segment) {
+		String n = Integer.toString(segment);
+		StringBuilder sb = new StringBuilder(basePath.length() + 6);
+		sb.append(basePath).append('.');
+		for (int i = n.length(); i < 5; i++)
+			sb.append('0');
+		return sb.append(n).toString();
+	}
+	
+	/**
+	 * Completes current segment, if any, and maps the next one
+	 * @throws IOException
+	 */
+	private void nextSegment() throws IOException {
+		completeSegment();
+		
+		int number = segmentNumber + 1;
+		RandomAccessFile file = new RandomAccessFile(new File(segmentPath(basePath, number)), "rw");
+		try {
+			file.setLength(segmentSize);
+			//mapping stays valid after channel is closed
+			segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} finally {
+			file.close();
+		}
+		
+		segmentNumber = number;
+		indexCount = 0;
+		segmentChunks = 0;
+		
+		segment.putInt(H_MAGIC, MAGIC);
+		segment.putShort(H_VERSION, (short) FORMAT_VERSION);
+		segment.putShort(H_FLAGS, (short) 0);
+		segment.putInt(H_SEGMENT, number);
+		segment.putInt(H_SIZE, segmentSize);
+		segment.putLong(H_START_NANOS, System.nanoTime());
+		segment.putLong(H_START_MILLIS, System.currentTimeMillis());
+		segment.putInt(H_DATA_END, DATA_START);
+		segment.putInt(H_INDEX_COUNT, 0);
+		segment.putInt(H_CHUNKS, 0);
+		segment.position(DATA_START);
+	}
+	
+	/**
+	 * Marks current segment as complete
+	 */
+	private void completeSegment() {
+		if (segment == null) return;
+		segment.putShort(H_FLAGS, (short) SEGMENT_CLOSED);
+		segment = null;
+	}
+	
+	/**
+	 * Makes room for a chunk of <b>length</b> payload bytes, starting a new segment
+	 * if needed, and writes its header and index entry
+	 * @return false if chunk cannot be written
+	 */
+	private boolean beginChunk(int direction, int channel, long nanos, int length) {
+		if (closed || error != null) return false;
+		
+		if (segment.remaining() < CHUNK_HEADER_SIZE + length || indexCount == INDEX_ENTRIES) {
+			try {
+				nextSegment();
+			} catch (IOException e) {
+				error = e;
+				return false;
+			}
+		}
+		
+		int offset = segment.position();
+		
+		if (indexCount == 0 || nanos - lastIndexNanos >= indexIntervalNanos) {
+			int entry = HEADER_SIZE + indexCount * INDEX_ENTRY_SIZE;
+			segment.putLong(entry, nanos);
+			segment.putInt(entry + 8, offset);
+			segment.putInt(H_INDEX_COUNT, ++indexCount);
+			lastIndexNanos = nanos;
+		}
+		
+		segment.putInt(length);
+		segment.putLong(nanos);
+		segment.putShort((short) direction);
+		segment.putShort((short) channel);
+		return true;
+	}
+	
+	/**
+	 * Updates counters after a chunk payload was written
+	 */
+	private void endChunk(int length) {
+		segment.putInt(H_CHUNKS, ++segmentChunks);
+		segment.putInt(H_DATA_END, segment.position());
+		chunks++;
+		bytes += length;
+	}
+	
+	/**
+	 * @return the maximum payload of a single chunk
+	 */
+	private int maxPayload() {
+		return segmentSize - DATA_START - CHUNK_HEADER_SIZE;
+	}
+	
+	/**
+	 * Appends a chunk holding a slice of a byte array to the capture. Slices
+	 * bigger than a segment are split in several chunks with the same timestamp.
+	 * @param direction {@link RawCapture#DIR_IN} or {@link RawCapture#DIR_OUT}
+	 * @param channel number identifying the source of data (e.g. the test stand)
+	 * @param nanos <code>System.nanoTime()</code> timestamp of data
+	 * @param data array containing data
+	 * @param offset the array element to start data from
+	 * @param length the number of bytes to write
+	 */
+	public synchronized void write(int direction, int channel, long nanos, byte[] data, int offset, int length) {
+		while (length > 0) {
+			int n = Math.min(length, maxPayload());
+			
+			if (! beginChunk(direction, channel, nanos, n)) {
+				dropped++;
+				return;
+			}
+			
+			segment.put(data, offset, n);
+			endChunk(n);
+			offset += n;
+			length -= n;
+		}
+	}
+	
+	/**
+	 * Appends a chunk holding the remaining bytes of a {@link ByteBuffer} to the capture.
+	 * Buffer position is not changed.
+	 * @param direction {@link RawCapture#DIR_IN} or {@link RawCapture#DIR_OUT}
+	 * @param channel number identifying the source of data (e.g. the test stand)
+	 * @param nanos <code>System.nanoTime()</code> timestamp of data
+	 * @param data the buffer containing data
+	 * @see RawCapture#write(int, int, long, byte[], int, int)
+	 */
+	public synchronized void write(int direction, int channel, long nanos, ByteBuffer data) {
+		if (data.hasArray()) {
+			write(direction, channel, nanos, data.array(), data.arrayOffset() + data.position(), data.remaining());
+			return;
+		}
+		
+		int position = data.position();
+		int limit = data.limit();
+		
+		while (data.position() < limit) {
+			int n = Math.min(limit - data.position(), maxPayload());
+			
+			if (! beginChunk(direction, channel, nanos, n)) {
+				dropped++;
+				break;
+			}
+			
+			data.limit(data.position() + n);
+			segment.put(data);
+			data.limit(limit);
+			endChunk(n);
+		}
+		
+		data.limit(limit);
+		data.position(position);
+	}
+	
+	/**
+	 * Appends a single byte chunk to the capture
+	 * @param direction {@link RawCapture#DIR_IN} or {@link RawCapture#DIR_OUT}
+	 * @param channel number identifying the source of data (e.g. the test stand)
+	 * @param nanos <code>System.nanoTime()</code> timestamp of data
+	 * @param b the byte to write (only least significant byte is considered)
+	 */
+	public synchronized void write(int direction, int channel, long nanos, int b) {
+		if (! beginChunk(direction, channel, nanos, 1)) {
+			dropped++;
+			return;
+		}
+		
+		segment.put((byte) b);
+		endChunk(1);
+	}
+	
+	/**
+	 * Completes current segment and flushes it to disk. Further writes are dropped.
+	 */
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		
+		if (segment == null) return;
+		MappedByteBuffer s = segment;
+		completeSegment();
+		s.force();
+	}
+	
+	/**
+	 * @return true if capture has been closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * @return the error that stopped the capture (i.e. a segment couldn't be created), 
+	 * or null if none occurred
+	 */
+	public synchronized IOException getError() {
+		return error;
+	}
+	
+	/**
+	 * @return path of capture files, without segment number
+	 */
+	public String getBasePath() {
+		return basePath;
+	}
+	
+	/**
+	 * @return the size of each segment, in bytes
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+	
+	/**
+	 * @return the number of segments created so far
+	 */
+	public synchronized int getSegmentCount() {
+		return segmentNumber + 1;
+	}
+	
+	/**
+	 * @return the number of chunks written
+	 */
+	public synchronized long getChunkCount() {
+		return chunks;
+	}
+	
+	/**
+	 * @return the number of payload bytes written
+	 */
+	public synchronized long getByteCount() {
+		return bytes;
+	}
+	
+	/**
+	 * @return the number of writes dropped because capture was closed or failed
+	 */
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+}
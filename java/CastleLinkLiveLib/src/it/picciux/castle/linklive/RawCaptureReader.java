@@ -0,0 +1,291 @@
+/*****************************************************************************
+ *  CastleLinkLive library - RawCaptureReader.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader of a capture written by {@link RawCapture}. Segments are
+ * memory-mapped read-only and chunks are read in order with {@link RawCaptureReader#next()}:
+ * chunk data is then available through getters until next call.
+ * {@link RawCaptureReader#seek(long)} uses segments time index to skip to a 
+ * given time without scanning the whole capture.
+ * <br />
+ * Only data written when a segment is opened is read: a capture still being
+ * written can be read up to that point.
+ */
+public class RawCaptureReader {
+	private final String basePath;
+	
+	private MappedByteBuffer segment;
+	private int segmentNumber = -1;
+	private int dataEnd;
+	private int position;
+	private long startNanos;
+	private long startMillis;
+	
+	private int chunkStart;
+	private int dataOffset;
+	private int length;
+	private long nanos;
+	private int direction;
+	private int channel;
+	
+	/**
+	 * Class constructor. Opens first segment of the capture
+	 * @param basePath path of capture files, without segment number
+	 * (see {@link RawCaptureReader#basePathOf(String)})
+	 * @throws IOException if first segment doesn't exist or is not valid
+	 */
+	public RawCaptureReader(String basePath) throws IOException {
+		this.basePath = basePath;
+		
+		if (! openSegment(0)) 
+			throw new FileNotFoundException(RawCapture.segmentPath(basePath, 0));
+	}
+	
+	/**
+	 * @param segmentPath path of a segment file
+	 * @return the path of the capture the segment belongs to, i.e. 
+	 * <b>segmentPath</b> without segment number
+	 * @see RawCapture#segmentPath(String, int)
+	 */
+	public static String basePathOf(String segmentPath) {
+		int dot = segmentPath.length() - 6;
+		if (dot < 0 || segmentPath.charAt(dot) != '.') return segmentPath;
+		
+		for (int i = dot + 1; i < segmentPath.length(); i++)
+			if (! Character.isDigit(segmentPath.charAt(i))) return segmentPath;
+		
+		return segmentPath.substring(0, dot);
+	}
+	
+	/**
+	 * Maps segment <b>number</b>
+	 * @param number the segment number
+	 * @return false if segment doesn't exist
+	 * @throws IOException if segment cannot be read or is not valid
+	 */
+	private boolean openSegment(int number) throws IOException {
+		File f = new File(RawCapture.segmentPath(basePath, number));
+		if (! f.exists()) return false;
+		
+		MappedByteBuffer s;
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			s = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		
+		if (s.capacity() < RawCapture.DATA_START || s.getInt(RawCapture.H_MAGIC) != RawCapture.MAGIC)
+			throw new IOException(f.getPath() + " is not a capture segment");
+		
+		if (s.getShort(RawCapture.H_VERSION) > RawCapture.FORMAT_VERSION)
+			throw new IOException(f.getPath() + ": unsupported capture format " + s.getShort(RawCapture.H_VERSION));
+		
+		segment = s;
+		segmentNumber = number;
+		dataEnd = Math.min(s.getInt(RawCapture.H_DATA_END), s.capacity());
+		startNanos = s.getLong(RawCapture.H_START_NANOS);
+		startMillis = s.getLong(RawCapture.H_START_MILLIS);
+		position = RawCapture.DATA_START;
+		return true;
+	}
+	
+	/**
+	 * Reads the timestamp of first indexed chunk of a segment, without mapping it
+	 * @param number the segment number
+	 * @return the timestamp, or Long.MAX_VALUE if segment is empty or doesn't exist
+	 * @throws IOException
+	 */
+	private long firstIndexedNanos(int number) throws IOException {
+		File f = new File(RawCapture.segmentPath(basePath, number));
+		if (! f.exists()) return Long.MAX_VALUE;
+		
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			file.seek(RawCapture.H_INDEX_COUNT);
+			if (file.readInt() == 0) return Long.MAX_VALUE;
+			
+			file.seek(RawCapture.HEADER_SIZE);
+			return file.readLong();
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Moves to next chunk of the capture, opening next segment if needed
+	 * @return false if there are no more chunks
+	 * @throws IOException if a segment cannot be read or data is corrupted
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			if (position + RawCapture.CHUNK_HEADER_SIZE <= dataEnd) {
+				int len = segment.getInt(position);
+				
+				if (len < 0 || position + RawCapture.CHUNK_HEADER_SIZE + len > dataEnd)
+					throw new IOException("Corrupted chunk at " + position + " in segment " + segmentNumber);
+				
+				chunkStart = position;
+				nanos = segment.getLong(position + 4);
+				direction = segment.getShort(position + 12);
+				channel = segment.getShort(position + 14);
+				dataOffset = position + RawCapture.CHUNK_HEADER_SIZE;
+				length = len;
+				position = dataOffset + len;
+				return true;
+			}
+			
+			if (! openSegment(segmentNumber + 1)) return false;
+		}
+	}
+	
+	/**
+	 * Positions the reader so that next call to {@link RawCaptureReader#next()} 
+	 * returns the first chunk with a timestamp not before <b>nanos</b>
+	 * @param nanos the timestamp to seek to, in capture time base
+	 * @return false if no chunk was found at or after <b>nanos</b>
+	 * @throws IOException if a segment cannot be read or data is corrupted
+	 */
+	public boolean seek(long nanos) throws IOException {
+		//last segment starting not after nanos
+		int number = 0;
+		long first;
+		while ((first = firstIndexedNanos(number + 1)) != Long.MAX_VALUE && first <= nanos)
+			number++;
+		
+		if (! openSegment(number)) return false;
+		
+		//last index entry not after nanos
+		int count = segment.getInt(RawCapture.H_INDEX_COUNT);
+		int lo = 0, hi = count - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (segment.getLong(RawCapture.HEADER_SIZE + mid * RawCapture.INDEX_ENTRY_SIZE) <= nanos) {
+				found = mid;
+				lo = mid + 1;
+			} else
+				hi = mid - 1;
+		}
+		
+		if (found >= 0)
+			position = segment.getInt(RawCapture.HEADER_SIZE + found * RawCapture.INDEX_ENTRY_SIZE + 8);
+		
+		while (next()) {
+			if (this.nanos >= nanos) {
+				position = chunkStart;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @return the timestamp of current chunk, in capture time base
+	 * (<code>System.nanoTime()</code> of the recording program)
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+	
+	/**
+	 * @return the wall-clock time of current chunk, in milliseconds since epoch,
+	 * derived from segment creation time
+	 */
+	public long getMillis() {
+		return startMillis + (nanos - startNanos) / 1000000L;
+	}
+	
+	/**
+	 * @return the direction of current chunk: {@link RawCapture#DIR_IN} or {@link RawCapture#DIR_OUT}
+	 */
+	public int getDirection() {
+		return direction;
+	}
+	
+	/**
+	 * @return the channel of current chunk
+	 */
+	public int getChannel() {
+		return channel;
+	}
+	
+	/**
+	 * @return the payload length of current chunk
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * Copies the payload of current chunk to <b>dest</b>
+	 * @param dest the array to copy data to. It must have room for {@link RawCaptureReader#getLength()}
+	 * bytes starting at <b>offset</b>
+	 * @param offset the first array element to write
+	 * @return the number of bytes copied
+	 */
+	public int getData(byte[] dest, int offset) {
+		segment.clear();
+		segment.position(dataOffset);
+		segment.get(dest, offset, length);
+		return length;
+	}
+	
+	/**
+	 * @return a buffer holding the payload of current chunk between its position and limit.
+	 * The same buffer object is returned for all chunks of a segment, and it's only valid
+	 * until next call to {@link RawCaptureReader#next()}
+	 */
+	public ByteBuffer getData() {
+		segment.clear();
+		segment.position(dataOffset);
+		segment.limit(dataOffset + length);
+		return segment;
+	}
+	
+	/**
+	 * @return the number of current segment
+	 */
+	public int getSegment() {
+		return segmentNumber;
+	}
+	
+	/**
+	 * @return path of capture files, without segment number
+	 */
+	public String getBasePath() {
+		return basePath;
+	}
+}
@@ -0,0 +1,128 @@
+/*****************************************************************************
+ *  CastleLinkLive library - SessionThreads.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the threads this library creates (session schedulers,
+ * event dispatchers, hub pools, simulator threads), to be set with the 
+ * <code>setThreadFactory</code> methods of {@link CastleLinkLive}, 
+ * {@link EventDispatcher}, {@link TelemetryBus}, the simulator, or with 
+ * {@link CastleLinkLiveHub} constructor.
+ * <br />
+ * On Java 21 and later {@link SessionThreads#virtual(String)} returns a 
+ * factory of virtual threads, found by reflection so that the library still 
+ * runs on Java 6: hundreds of sessions then don't cost a platform thread each.
+ * Library threads never wait while holding a monitor (they use 
+ * <code>java.util.concurrent</code> locks and queues), so they don't pin 
+ * their carrier thread.
+ */
+public final class SessionThreads {
+	private static final Method ofVirtual;
+	private static final Method builderName;
+	private static final Method builderFactory;
+	
+	static {
+		Method o = null, n = null, f = null;
+		
+		try {
+			o = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			n = builder.getMethod("name", String.class, long.class);
+			f = builder.getMethod("factory");
+			
+			//preview releases have the methods, but throw when used
+			f.invoke(n.invoke(o.invoke(null), "probe", 0L));
+		} catch (Throwable t) {
+			o = null;
+		}
+		
+		ofVirtual = o;
+		builderName = n;
+		builderFactory = f;
+	}
+	
+	private SessionThreads() {
+	}
+	
+	/**
+	 * @return true if this JVM supports virtual threads
+	 */
+	public static boolean isVirtualAvailable() {
+		return ofVirtual != null;
+	}
+	
+	/**
+	 * Creates a factory of platform threads
+	 * @param name thread name prefix: threads are named <b>name</b> 1, <b>name</b> 2...
+	 * @param daemon true to create daemon threads
+	 * @return the factory
+	 */
+	public static ThreadFactory platform(final String name, final boolean daemon) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(0);
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName(name + " " + count.incrementAndGet());
+				t.setDaemon(daemon);
+				return t;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a factory of virtual threads (always daemon)
+	 * @param name thread name prefix: threads are named <b>name</b> 1, <b>name</b> 2...
+	 * @return the factory, or null if virtual threads are not available
+	 * @see SessionThreads#isVirtualAvailable()
+	 */
+	public static ThreadFactory virtual(String name) {
+		if (ofVirtual == null) return null;
+		
+		try {
+			Object builder = builderName.invoke(ofVirtual.invoke(null), name + " ", 1L);
+			return (ThreadFactory) builderFactory.invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Creates a factory of virtual threads if available, of platform daemon threads otherwise
+	 * @param name thread name prefix
+	 * @return the factory
+	 */
+	public static ThreadFactory preferVirtual(String name) {
+		ThreadFactory f = virtual(name);
+		if (f == null) f = platform(name, true);
+		return f;
+	}
+}
@@ -0,0 +1,118 @@
+/*****************************************************************************
+ *  CastleLinkLive library - StreamTransport.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ITransport} over a pair of streams (e.g. a serial port ones, or
+ * {@link it.picciux.castle.linklive.sim.EscInterfaceSimulator} pipes). Each
+ * write is a single <code>write(byte[], int, int)</code> call on the output stream.
+ */
+public class StreamTransport implements ITransport {
+	private final InputStream in;
+	private final OutputStream out;
+	
+	/* for buffers without an accessible array: one per direction, since
+	 * reads and writes are usually done by different threads */
+	private byte[] readScratch = new byte[0];
+	private byte[] writeScratch = new byte[0];
+	
+	/**
+	 * Class constructor
+	 * @param in the stream to read data from (null for a write-only transport)
+	 * @param out the stream to write data to (null for a read-only transport)
+	 */
+	public StreamTransport(InputStream in, OutputStream out) {
+		this.in = in;
+		this.out = out;
+	}
+	
+	/**
+	 * @return the input stream
+	 */
+	public InputStream getInputStream() {
+		return in;
+	}
+	
+	/**
+	 * @return the output stream
+	 */
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) throws IOException {
+		if (out == null) throw new IOException("Read-only transport");
+		
+		int n = buffer.remaining();
+		if (buffer.hasArray()) {
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+			buffer.position(buffer.limit());
+		} else {
+			byte[] b = writeScratch;
+			if (b.length < n) writeScratch = b = new byte[n];
+			buffer.get(b, 0, n);
+			out.write(b, 0, n);
+		}
+		out.flush();
+	}
+
+	@Override
+	public int read(ByteBuffer buffer) throws IOException {
+		if (in == null) throw new IOException("Write-only transport");
+		
+		int n;
+		if (buffer.hasArray()) {
+			n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (n > 0) buffer.position(buffer.position() + n);
+		} else {
+			byte[] b = readScratch;
+			if (b.length < buffer.remaining()) readScratch = b = new byte[buffer.remaining()];
+			n = in.read(b, 0, buffer.remaining());
+			if (n > 0) buffer.put(b, 0, n);
+		}
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException ex = null;
+		
+		try {
+			if (in != null) in.close();
+		} catch (IOException e) {
+			ex = e;
+		}
+		
+		if (out != null) out.close();
+		if (ex != null) throw ex;
+	}
+}
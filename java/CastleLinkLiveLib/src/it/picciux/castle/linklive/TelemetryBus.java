@@ -0,0 +1,311 @@
+/*****************************************************************************
+ *  CastleLinkLive library - TelemetryBus.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Event handler delivering {@link CastleLinkLive} events to any number of 
+ * subscribers. Each subscriber has its own bounded queue and thread (an
+ * {@link EventDispatcher}), so that a slow subscriber (a stalled file system,
+ * a slow network client) never delays the others nor the thread feeding data.
+ * <br />
+ * Usage: <code>cll.setEventHandler(bus)</code>, then 
+ * {@link TelemetryBus#subscribe(ICastleLinkLiveEvent)} every sink.
+ * <br />
+ * ESC data events can be filtered per subscriber by ESC id, by changed fields
+ * and by minimum interval: filters are applied before queueing, on the thread
+ * feeding data, and delivered data reports as changed 
+ * ({@link CastleESC#getChangedFields()}) every field changed since the last
+ * data delivered for the same ESC. Other events (connection, throttle presence, armed state) 
+ * are delivered to every subscriber.
+ */
+public class TelemetryBus implements ICastleLinkLiveEvent {
+	/**
+	 * ESC id mask selecting all ESCs
+	 * @see Subscription#setEscMask(int)
+	 */
+	public static final int ALL_ESC = (1 << CastleLinkLive.MAX_ESC) - 1;
+	
+	/**
+	 * A subscriber to a {@link TelemetryBus}, with its filters and statistics
+	 * @see TelemetryBus#subscribe(ICastleLinkLiveEvent, int, int)
+	 */
+	public static class Subscription {
+		private final EventDispatcher dispatcher;
+		
+		private volatile int escMask = ALL_ESC;
+		private volatile int fieldMask = CastleESC.FIELD_ALL;
+		private volatile long minIntervalNanos = 0;
+		
+		/* filter state, accessed by the thread feeding data only */
+		private final int[] changedFields = new int[CastleLinkLive.MAX_ESC];
+		private final long[] lastPosted = new long[CastleLinkLive.MAX_ESC];
+		private final boolean[] posted = new boolean[CastleLinkLive.MAX_ESC];
+		
+		private volatile long filtered = 0;
+		
+		private Subscription(EventDispatcher dispatcher) {
+			this.dispatcher = dispatcher;
+		}
+		
+		/**
+		 * Selects ESCs whose data is delivered to this subscriber
+		 * @param mask bit n set to get data of ESC n ({@link TelemetryBus#ALL_ESC} by default)
+		 */
+		public void setEscMask(int mask) {
+			escMask = mask;
+		}
+		
+		/**
+		 * @return the ESC id mask
+		 */
+		public int getEscMask() {
+			return escMask;
+		}
+		
+		/**
+		 * Selects fields this subscriber is interested in: ESC data is 
+		 * delivered only when at least one of them changed since the last
+		 * data delivered for the same ESC
+		 * @param mask FIELD_* bits of {@link CastleESC} ({@link CastleESC#FIELD_ALL} by default)
+		 */
+		public void setFieldMask(int mask) {
+			fieldMask = mask;
+		}
+		
+		/**
+		 * @return the field mask
+		 */
+		public int getFieldMask() {
+			return fieldMask;
+		}
+		
+		/**
+		 * Sets the minimum time between two data events of the same ESC.
+		 * Data coming sooner is not queued: changes it carries are delivered 
+		 * with the next data queued.
+		 * @param ms minimum interval in milliseconds (0, the default, for none)
+		 */
+		public void setMinInterval(int ms) {
+			if (ms < 0) ms = 0;
+			minIntervalNanos = ms * 1000000L;
+		}
+		
+		/**
+		 * @return the minimum interval between data events of the same ESC, in milliseconds
+		 */
+		public int getMinInterval() {
+			return (int) (minIntervalNanos / 1000000L);
+		}
+		
+		/**
+		 * @return the number of ESC data events discarded by filters
+		 */
+		public long getFilteredCount() {
+			return filtered;
+		}
+		
+		/**
+		 * @return the number of ESC data events dropped because the subscriber queue was full
+		 */
+		public long getDroppedCount() {
+			return dispatcher.getOverflowCount();
+		}
+		
+		/**
+		 * @return the number of ESC data events delivered to the subscriber
+		 */
+		public long getDeliveredCount() {
+			return dispatcher.getDeliveredCount();
+		}
+		
+		/**
+		 * @return the number of ESC data events waiting in the subscriber queue
+		 */
+		public int getPendingCount() {
+			return dispatcher.getPendingCount();
+		}
+		
+		/**
+		 * @return time the last delivered ESC data event waited in the queue, in nanoseconds
+		 */
+		public long getLastLagNanos() {
+			return dispatcher.getLastLagNanos();
+		}
+		
+		/**
+		 * @return maximum time an ESC data event waited in the queue, in nanoseconds
+		 */
+		public long getMaxLagNanos() {
+			return dispatcher.getMaxLagNanos();
+		}
+		
+		/**
+		 * @return average time ESC data events waited in the queue, in nanoseconds
+		 */
+		public long getAverageLagNanos() {
+			return dispatcher.getAverageLagNanos();
+		}
+		
+		/**
+		 * Applies filters and queues data
+		 */
+		private void post(int index, CastleESC esc, long now) {
+			if ((escMask & (1 << index)) == 0) {
+				filtered++;
+				return;
+			}
+			
+			int changed = changedFields[index] | esc.getChangedFields();
+			changedFields[index] = changed;
+			
+			if ((changed & fieldMask) == 0 || 
+					(posted[index] && now - lastPosted[index] < minIntervalNanos)) {
+				filtered++;
+				return;
+			}
+			
+			changedFields[index] = 0;
+			lastPosted[index] = now;
+			posted[index] = true;
+			dispatcher.dataUpdated(index, esc, changed);
+		}
+	}
+	
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private volatile ThreadFactory threadFactory = null;
+	
+	/**
+	 * Class constructor
+	 */
+	public TelemetryBus() {
+	}
+	
+	/**
+	 * Adds a subscriber with a queue of {@link EventDispatcher#DEFAULT_CAPACITY} 
+	 * events, dropping oldest events when full
+	 * @param sink the handler events are delivered to
+	 * @return the subscription, to set filters, read statistics and unsubscribe
+	 */
+	public Subscription subscribe(ICastleLinkLiveEvent sink) {
+		try {
+			return subscribe(sink, EventDispatcher.DEFAULT_CAPACITY, EventDispatcher.POLICY_DROP_OLDEST);
+		} catch (InvalidArgumentException e) {
+			return null; //never happens
+		}
+	}
+	
+	/**
+	 * Adds a subscriber. Its thread is started right away
+	 * @param sink the handler events are delivered to
+	 * @param capacity size of the subscriber queue
+	 * @param policy what to do when the queue is full: {@link EventDispatcher#POLICY_DROP_OLDEST}
+	 * or {@link EventDispatcher#POLICY_LATEST_PER_ESC}. {@link EventDispatcher#POLICY_BLOCK}
+	 * is not accepted, since it would let a slow subscriber stall all the others
+	 * @return the subscription, to set filters, read statistics and unsubscribe
+	 * @throws InvalidArgumentException if policy is not valid
+	 */
+	public Subscription subscribe(ICastleLinkLiveEvent sink, int capacity, int policy) throws InvalidArgumentException {
+		if (policy == EventDispatcher.POLICY_BLOCK)
+			throw new InvalidArgumentException("Blocking policy is not allowed on a bus");
+		
+		EventDispatcher dispatcher = new EventDispatcher(sink, capacity, policy);
+		Subscription s = new Subscription(dispatcher);
+		
+		dispatcher.setName("Telemetry Bus subscriber " + subscriptions.size());
+		dispatcher.setThreadFactory(threadFactory);
+		dispatcher.start();
+		subscriptions.add(s);
+		return s;
+	}
+	
+	/**
+	 * Sets the factory of subscriber threads (e.g. {@link SessionThreads#virtual(String)}).
+	 * Takes effect on next subscriptions
+	 * @param threadFactory the factory, or null for platform daemon threads
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+	
+	/**
+	 * Removes a subscriber and stops its thread. Undelivered events are discarded.
+	 * @param s the subscription to remove
+	 */
+	public void unsubscribe(Subscription s) {
+		if (subscriptions.remove(s)) s.dispatcher.stop();
+	}
+	
+	/**
+	 * @return the number of subscribers
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+	
+	/**
+	 * Removes all subscribers and stops their threads
+	 */
+	public void shutdown() {
+		for (Subscription s : subscriptions) 
+			unsubscribe(s);
+	}
+	
+	@Override
+	public void dataUpdated(int index, CastleESC esc) {
+		if (index < 0 || index >= CastleLinkLive.MAX_ESC) return;
+		
+		long now = System.nanoTime();
+		for (Subscription s : subscriptions)
+			s.post(index, esc, now);
+	}
+
+	@Override
+	public void throttlePresent(boolean present) {
+		for (Subscription s : subscriptions)
+			s.dispatcher.throttlePresent(present);
+	}
+
+	@Override
+	public void connectionEvent(boolean connected) {
+		for (Subscription s : subscriptions)
+			s.dispatcher.connectionEvent(connected);
+	}
+
+	@Override
+	public void connectionError(String reason) {
+		for (Subscription s : subscriptions)
+			s.dispatcher.connectionError(reason);
+	}
+
+	@Override
+	public void armedEvent(boolean armed) {
+		for (Subscription s : subscriptions)
+			s.dispatcher.armedEvent(armed);
+	}
+}
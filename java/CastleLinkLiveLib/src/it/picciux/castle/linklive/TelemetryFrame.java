@@ -0,0 +1,121 @@
+/*****************************************************************************
+ *  CastleLinkLive library - TelemetryFrame.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive;
+
+/**
+ * Raw telemetry data of a single ESC data frame, as received from the ESC
+ * interface: ticks for every data frame id, ESC id, throttle presence and
+ * the {@link System#nanoTime()} timestamp of its arrival.<br />
+ * Objects of this class are meant to be reused: the parser fills frames 
+ * taken from a {@link TelemetryFramePool}, and every {@link CastleESC} holds
+ * a copy of the last frame it parsed. Use {@link TelemetryFrame#copyTo(TelemetryFrame)}
+ * to keep data in your own storage without allocating.
+ * @see CLLCommProtocol
+ * @see CastleESC#getFrame()
+ */
+public class TelemetryFrame {
+	private final int[] ticks = new int[CLLCommProtocol.DATA_FRAME_CNT];
+	private int escId = CLLCommProtocol.NO_ESC;
+	private boolean throttlePresent = false;
+	private long arrivalNanos = 0;
+	private long sequence = 0;
+	
+	/**
+	 * Class constructor
+	 */
+	public TelemetryFrame() {
+	}
+	
+	/**
+	 * @param index the data frame id (see FRAME_* constants in {@link CLLCommProtocol})
+	 * @return raw ticks for data frame <b>index</b>, or -1 if index is out of bounds
+	 */
+	public int getTicks(int index) {
+		if (index >= 0 && index < CLLCommProtocol.DATA_FRAME_CNT)
+			return ticks[index];
+		else
+			return -1;
+	}
+	
+	/**
+	 * @return the 0-based index of the ESC this frame belongs to
+	 */
+	public int getEscId() {
+		return escId;
+	}
+	
+	/**
+	 * @return true if the ESC interface reported a valid throttle signal
+	 * when this frame was sent
+	 */
+	public boolean isThrottlePresent() {
+		return throttlePresent;
+	}
+	
+	/**
+	 * @return the {@link System#nanoTime()} value taken when this frame was 
+	 * received
+	 */
+	public long getArrivalNanos() {
+		return arrivalNanos;
+	}
+	
+	/**
+	 * @return the progressive number of this frame, as assigned by the parser 
+	 * that decoded it
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Copies all data of this frame into <b>dest</b>
+	 * @param dest the frame to copy data into
+	 */
+	public void copyTo(TelemetryFrame dest) {
+		System.arraycopy(ticks, 0, dest.ticks, 0, ticks.length);
+		dest.escId = escId;
+		dest.throttlePresent = throttlePresent;
+		dest.arrivalNanos = arrivalNanos;
+		dest.sequence = sequence;
+	}
+	
+	/**
+	 * Fills the frame header data. Used by {@link CLLCommProtocol}
+	 */
+	void set(int escId, boolean throttlePresent, long arrivalNanos, long sequence) {
+		this.escId = escId;
+		this.throttlePresent = throttlePresent;
+		this.arrivalNanos = arrivalNanos;
+		this.sequence = sequence;
+	}
+	
+	/**
+	 * Sets raw ticks for a data frame id. Used by {@link CLLCommProtocol}
+	 */
+	void setTicks(int index, int value) {
+		ticks[index] = value;
+	}
+}
@@ -0,0 +1,78 @@
+/*****************************************************************************
+ *  CastleLinkLive library - TelemetryFramePool.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive;
+
+/**
+ * Fixed-size pool of preallocated {@link TelemetryFrame} objects, handed
+ * out in round-robin order. A frame returned by {@link TelemetryFramePool#next()}
+ * stays untouched until the pool wraps around, i.e. for the next 
+ * <i>size - 1</i> calls: consumers needing data for longer have to copy it
+ * ({@link TelemetryFrame#copyTo(TelemetryFrame)}).
+ */
+public class TelemetryFramePool {
+	/**
+	 * Default number of frames in a pool
+	 */
+	public static final int DEFAULT_SIZE = 16;
+	
+	private final TelemetryFrame[] frames;
+	private int next = 0;
+	
+	/**
+	 * Class constructor. Creates a pool of {@link TelemetryFramePool#DEFAULT_SIZE} frames
+	 */
+	public TelemetryFramePool() {
+		this(DEFAULT_SIZE);
+	}
+	
+	/**
+	 * Class constructor
+	 * @param size the number of frames in the pool
+	 */
+	public TelemetryFramePool(int size) {
+		if (size < 1) size = 1;
+		
+		frames = new TelemetryFrame[size];
+		for (int i = 0; i < size; i++)
+			frames[i] = new TelemetryFrame();
+	}
+	
+	/**
+	 * @return the next frame of the pool. Its content is undefined and it's
+	 * up to the caller to fill it.
+	 */
+	public TelemetryFrame next() {
+		TelemetryFrame f = frames[next];
+		if (++next == frames.length) next = 0;
+		return f;
+	}
+	
+	/**
+	 * @return the number of frames in the pool
+	 */
+	public int size() {
+		return frames.length;
+	}
+}
@@ -0,0 +1,450 @@
+/*****************************************************************************
+ *  CastleLinkLive library - TelemetryLogReader.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads logs written by {@link TelemetryLogWriter}, one block at a time.
+ * <br />
+ * {@link TelemetryLogReader#nextBlock()} only reads block header: time range,
+ * ESC ids and field ranges can be checked to skip the block without
+ * decompressing it. Block rows are then read either one by one 
+ * ({@link TelemetryLogReader#nextRow()}, {@link TelemetryLogReader#decode(CastleESC)}),
+ * or a column at a time ({@link TelemetryLogReader#getTimes(long[])}, 
+ * {@link TelemetryLogReader#getTicks(int, int[])}), decompressing only 
+ * the columns needed.
+ */
+public class TelemetryLogReader {
+	private final DataInputStream in;
+	private final int timeUnit;
+	private final long createdMillis;
+	private final long createdNanos;
+	
+	private final Inflater inflater = new Inflater();
+	
+	/* current block header */
+	private boolean inBlock = false;
+	private int rows;
+	private int escMask;
+	private long minNanos;
+	private long maxNanos;
+	private final double[] min = new double[CastleESC.FIELD_CNT];
+	private final double[] max = new double[CastleESC.FIELD_CNT];
+	private final int[] compressedLengths = new int[TelemetryLogWriter.COLUMNS];
+	private int dataLength;
+	
+	/* current block data */
+	private boolean dataLoaded = false;
+	private byte[] compressed = new byte[4096];
+	private final int[] compressedOffsets = new int[TelemetryLogWriter.COLUMNS];
+	private final byte[][] columns = new byte[TelemetryLogWriter.COLUMNS][];
+	private final boolean[] inflated = new boolean[TelemetryLogWriter.COLUMNS];
+	
+	/* row iteration */
+	private int row;
+	private final int[] positions = new int[TelemetryLogWriter.COLUMNS];
+	private long time;
+	private final int[][] ticks = new int[CastleLinkLive.MAX_ESC][CLLCommProtocol.DATA_FRAME_CNT];
+	private int escId;
+	private boolean throttlePresent;
+	private final TelemetryFrame frame = new TelemetryFrame();
+	private final int[] scanTicks = new int[CastleLinkLive.MAX_ESC];
+	
+	/**
+	 * Class constructor
+	 * @param path the log file
+	 * @throws IOException if file cannot be opened or is not a telemetry log
+	 */
+	public TelemetryLogReader(String path) throws IOException {
+		this(new FileInputStream(path));
+	}
+	
+	/**
+	 * Class constructor
+	 * @param in the stream to read log from
+	 * @throws IOException if stream cannot be read or is not a telemetry log
+	 */
+	public TelemetryLogReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+		
+		if (this.in.readInt() != TelemetryLogWriter.MAGIC)
+			throw new IOException("Not a telemetry log");
+		
+		int version = this.in.readShort();
+		if (version > TelemetryLogWriter.FORMAT_VERSION)
+			throw new IOException("Unsupported telemetry log format " + version);
+		
+		this.in.readShort();
+		timeUnit = this.in.readInt();
+		createdMillis = this.in.readLong();
+		createdNanos = this.in.readLong();
+		
+		for (int c = 0; c < TelemetryLogWriter.COLUMNS; c++)
+			columns[c] = new byte[1024];
+	}
+	
+	/**
+	 * Moves to next block, skipping the rest of current one, and reads its header
+	 * @return false if there are no more blocks
+	 * @throws IOException if log cannot be read
+	 */
+	public boolean nextBlock() throws IOException {
+		if (inBlock && ! dataLoaded) skipFully(dataLength);
+		inBlock = false;
+		
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		
+		rows = in.readInt();
+		escMask = in.readInt();
+		minNanos = in.readLong();
+		maxNanos = in.readLong();
+		for (int f = 0; f < CastleESC.FIELD_CNT; f++) {
+			min[f] = in.readDouble();
+			max[f] = in.readDouble();
+		}
+		
+		dataLength = length - (4 + 4 + 8 + 8 + CastleESC.FIELD_CNT * 16 + TelemetryLogWriter.COLUMNS * 4);
+		int offset = 0;
+		for (int c = 0; c < TelemetryLogWriter.COLUMNS; c++) {
+			compressedLengths[c] = in.readInt();
+			compressedOffsets[c] = offset;
+			offset += compressedLengths[c];
+			inflated[c] = false;
+		}
+		
+		if (offset != dataLength || rows < 0)
+			throw new IOException("Corrupted telemetry log block");
+		
+		inBlock = true;
+		dataLoaded = false;
+		row = -1;
+		return true;
+	}
+	
+	private void skipFully(int n) throws IOException {
+		while (n > 0) {
+			int s = (int) in.skip(n);
+			if (s <= 0) {
+				in.readByte();
+				s = 1;
+			}
+			n -= s;
+		}
+	}
+	
+	/**
+	 * Reads compressed data of current block
+	 */
+	private void loadData() throws IOException {
+		if (dataLoaded) return;
+		if (! inBlock) throw new IllegalStateException("No current block");
+		
+		if (compressed.length < dataLength) compressed = new byte[dataLength];
+		in.readFully(compressed, 0, dataLength);
+		dataLoaded = true;
+	}
+	
+	/**
+	 * Inflates column <b>c</b> of current block
+	 * @return column data
+	 */
+	private byte[] column(int c) throws IOException {
+		loadData();
+		if (inflated[c]) return columns[c];
+		
+		inflater.reset();
+		inflater.setInput(compressed, compressedOffsets[c], compressedLengths[c]);
+		
+		int len = 0;
+		try {
+			while (! inflater.finished()) {
+				if (len == columns[c].length) {
+					byte[] n = new byte[columns[c].length * 2];
+					System.arraycopy(columns[c], 0, n, 0, len);
+					columns[c] = n;
+				}
+				
+				int n = inflater.inflate(columns[c], len, columns[c].length - len);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Truncated telemetry log column");
+				len += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted telemetry log column: " + e.getMessage());
+		}
+		
+		inflated[c] = true;
+		return columns[c];
+	}
+	
+	/**
+	 * Reads a zigzag varint from column <b>col</b> at positions[c]
+	 */
+	private long varint(byte[] col, int c) {
+		int p = positions[c];
+		long v = 0;
+		int shift = 0;
+		int b;
+		
+		do {
+			b = col[p++];
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		
+		positions[c] = p;
+		return (v >>> 1) ^ -(v & 1);
+	}
+	
+	/**
+	 * Moves to next row of current block
+	 * @return false if there are no more rows in current block
+	 * @throws IOException if block cannot be read
+	 */
+	public boolean nextRow() throws IOException {
+		if (! inBlock || row + 1 >= rows) return false;
+		
+		if (row < 0) {
+			for (int c = 0; c < TelemetryLogWriter.COLUMNS; c++) {
+				column(c);
+				positions[c] = 0;
+			}
+			time = 0;
+			for (int e = 0; e < ticks.length; e++)
+				for (int f = 0; f < CLLCommProtocol.DATA_FRAME_CNT; f++)
+					ticks[e][f] = 0;
+		}
+		
+		row++;
+		time += varint(columns[TelemetryLogWriter.COL_TIME], TelemetryLogWriter.COL_TIME);
+		
+		int e = columns[TelemetryLogWriter.COL_ESC][positions[TelemetryLogWriter.COL_ESC]++];
+		escId = e & CLLCommProtocol.ESC_ID_MASK;
+		throttlePresent = (e & TelemetryLogWriter.THROTTLE_PRESENT) != 0;
+		
+		int[] t = ticks[escId];
+		for (int f = 0; f < CLLCommProtocol.DATA_FRAME_CNT; f++) {
+			int c = TelemetryLogWriter.COL_TICKS + f;
+			t[f] += (int) varint(columns[c], c);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return arrival time of current row, in the time base of the logging program 
+	 * (<code>System.nanoTime()</code>), at log time unit resolution
+	 */
+	public long getArrivalNanos() {
+		return time * timeUnit;
+	}
+	
+	/**
+	 * @return wall-clock time of current row, in milliseconds since epoch
+	 */
+	public long getMillis() {
+		return createdMillis + (getArrivalNanos() - createdNanos) / 1000000L;
+	}
+	
+	/**
+	 * @return ESC id of current row
+	 */
+	public int getEscId() {
+		return escId;
+	}
+	
+	/**
+	 * @return throttle presence flag of current row
+	 */
+	public boolean isThrottlePresent() {
+		return throttlePresent;
+	}
+	
+	/**
+	 * @param frameId the data frame id (see FRAME_* constants in {@link CLLCommProtocol})
+	 * @return raw ticks of current row for <b>frameId</b>
+	 */
+	public int getTicks(int frameId) {
+		return ticks[escId][frameId];
+	}
+	
+	/**
+	 * Decodes current row into <b>esc</b>, as {@link CastleESC#parseData(TelemetryFrame)} does
+	 * for a received frame. <b>esc</b> should only be fed rows of the same ESC id.
+	 * @param esc the ESC to update
+	 * @return true if some data in the ESC was updated
+	 * @throws InvalidDataException if row data is not valid
+	 */
+	public boolean decode(CastleESC esc) throws InvalidDataException {
+		int[] t = ticks[escId];
+		for (int f = 0; f < CLLCommProtocol.DATA_FRAME_CNT; f++)
+			frame.setTicks(f, t[f]);
+		frame.set(escId, throttlePresent, getArrivalNanos(), row);
+		return esc.parseData(frame);
+	}
+	
+	/**
+	 * Decodes arrival times of all rows of current block
+	 * @param dest array to store times into, at least {@link TelemetryLogReader#getBlockRows()} long
+	 * @return the number of rows
+	 * @throws IOException if block cannot be read
+	 * @see TelemetryLogReader#getArrivalNanos()
+	 */
+	public int getTimes(long[] dest) throws IOException {
+		byte[] col = column(TelemetryLogWriter.COL_TIME);
+		int c = TelemetryLogWriter.COL_TIME;
+		int saved = positions[c];
+		positions[c] = 0;
+		
+		long t = 0;
+		for (int r = 0; r < rows; r++) {
+			t += varint(col, c);
+			dest[r] = t * timeUnit;
+		}
+		
+		positions[c] = saved;
+		return rows;
+	}
+	
+	/**
+	 * Decodes ESC ids of all rows of current block
+	 * @param dest array to store ids into, at least {@link TelemetryLogReader#getBlockRows()} long
+	 * @return the number of rows
+	 * @throws IOException if block cannot be read
+	 */
+	public int getEscIds(int[] dest) throws IOException {
+		byte[] col = column(TelemetryLogWriter.COL_ESC);
+		for (int r = 0; r < rows; r++)
+			dest[r] = col[r] & CLLCommProtocol.ESC_ID_MASK;
+		return rows;
+	}
+	
+	/**
+	 * Decodes raw ticks of data frame id <b>frameId</b> for all rows of current block
+	 * @param frameId the data frame id (see FRAME_* constants in {@link CLLCommProtocol})
+	 * @param dest array to store ticks into, at least {@link TelemetryLogReader#getBlockRows()} long
+	 * @return the number of rows
+	 * @throws IOException if block cannot be read
+	 */
+	public int getTicks(int frameId, int[] dest) throws IOException {
+		byte[] esc = column(TelemetryLogWriter.COL_ESC);
+		byte[] col = column(TelemetryLogWriter.COL_TICKS + frameId);
+		
+		int[] prev = scanTicks;
+		for (int e = 0; e < prev.length; e++)
+			prev[e] = 0;
+		
+		//same as varint(), with local state
+		int p = 0;
+		for (int r = 0; r < rows; r++) {
+			int b = col[p++];
+			int v = b & 0x7F;
+			for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+				b = col[p++];
+				v |= (b & 0x7F) << shift;
+			}
+			
+			int e = esc[r] & CLLCommProtocol.ESC_ID_MASK;
+			prev[e] += (v >>> 1) ^ -(v & 1);
+			dest[r] = prev[e];
+		}
+		
+		return rows;
+	}
+	
+	/**
+	 * @return the number of rows in current block
+	 */
+	public int getBlockRows() {
+		return rows;
+	}
+	
+	/**
+	 * @return the mask of ESC ids (bit <i>n</i> for ESC <i>n</i>) with rows in current block
+	 */
+	public int getBlockEscMask() {
+		return escMask;
+	}
+	
+	/**
+	 * @return earliest arrival time in current block (see {@link TelemetryLogReader#getArrivalNanos()})
+	 */
+	public long getBlockMinNanos() {
+		return minNanos;
+	}
+	
+	/**
+	 * @return latest arrival time in current block (see {@link TelemetryLogReader#getArrivalNanos()})
+	 */
+	public long getBlockMaxNanos() {
+		return maxNanos;
+	}
+	
+	/**
+	 * @param field a FIELD_* bit of {@link CastleESC}
+	 * @return the minimum value of <b>field</b> in current block (see {@link CastleESC#getValue(int)})
+	 */
+	public double getBlockMin(int field) {
+		return min[Integer.numberOfTrailingZeros(field) % CastleESC.FIELD_CNT];
+	}
+	
+	/**
+	 * @param field a FIELD_* bit of {@link CastleESC}
+	 * @return the maximum value of <b>field</b> in current block (see {@link CastleESC#getValue(int)})
+	 */
+	public double getBlockMax(int field) {
+		return max[Integer.numberOfTrailingZeros(field) % CastleESC.FIELD_CNT];
+	}
+	
+	/**
+	 * @return wall-clock time the log was created at, in milliseconds since epoch
+	 */
+	public long getCreatedMillis() {
+		return createdMillis;
+	}
+	
+	/**
+	 * Closes the log
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		in.close();
+		inflater.end();
+	}
+}
@@ -0,0 +1,336 @@
+/*****************************************************************************
+ *  CastleLinkLive library - TelemetryLogWriter.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes ESC telemetry in a compact columnar format, to be read with
+ * {@link TelemetryLogReader}.
+ * <br />
+ * Updates are stored as rows of raw data (arrival time, ESC id, throttle presence
+ * and the ticks of every data frame id), so that readers decode them exactly as
+ * {@link CastleESC} does. Rows are grouped in blocks of a fixed number of rows, 
+ * and each column of a block is stored on its own: timestamps as deltas from 
+ * previous row, ticks as deltas from previous row of the same ESC, both as 
+ * zigzag varints, then each column is deflated. Every block starts from scratch,
+ * so it can be decoded without reading previous ones.
+ * <br />
+ * File layout (all numbers big-endian):
+ * <ul>
+ * <li>header: magic (int), format version (short), reserved (short), time unit in 
+ * nanoseconds (int), <code>System.currentTimeMillis()</code> and <code>System.nanoTime()</code>
+ * at creation (two longs);</li>
+ * <li>blocks: length of the rest of the block (int), rows (int), mask of ESC ids 
+ * (int), minimum and maximum arrival time (two longs), minimum and maximum value
+ * of each {@link CastleESC} field in FIELD_* bit order (two doubles each, see 
+ * {@link CastleESC#getValue(int)}), compressed length of each column (int each),
+ * then column data.</li>
+ * </ul>
+ * Block headers let a reader skip blocks by time, ESC or value range without 
+ * decompressing them. Writing a row doesn't allocate: column buffers are
+ * only grown until they fit a block.
+ */
+public class TelemetryLogWriter {
+	/**
+	 * File magic number ("CLLT")
+	 */
+	public static final int MAGIC = 0x434C4C54;
+	
+	/**
+	 * File format version
+	 */
+	public static final int FORMAT_VERSION = 1;
+	
+	/**
+	 * Resolution of stored arrival times, in nanoseconds
+	 */
+	public static final int TIME_UNIT = 1000;
+	
+	/**
+	 * Default number of rows in a block
+	 */
+	public static final int DEFAULT_BLOCK_ROWS = 4096;
+	
+	/**
+	 * Column of arrival times
+	 */
+	public static final int COL_TIME = 0;
+	
+	/**
+	 * Column of ESC ids and throttle presence flags (one byte per row)
+	 */
+	public static final int COL_ESC = 1;
+	
+	/**
+	 * First ticks column: ticks of data frame id <i>f</i> are in column <code>COL_TICKS + f</code>
+	 */
+	public static final int COL_TICKS = 2;
+	
+	/**
+	 * Number of columns
+	 */
+	public static final int COLUMNS = COL_TICKS + CLLCommProtocol.DATA_FRAME_CNT;
+	
+	/**
+	 * Throttle presence bit in {@link TelemetryLogWriter#COL_ESC} column
+	 */
+	public static final int THROTTLE_PRESENT = 0x80;
+	
+	private final DataOutputStream out;
+	private final int blockRows;
+	private final Deflater deflater = new Deflater();
+	
+	private final byte[][] columns = new byte[COLUMNS][];
+	private final int[] lengths = new int[COLUMNS];
+	private byte[] compressed = new byte[4096];
+	private final int[] compressedLengths = new int[COLUMNS];
+	
+	private int rows = 0;
+	private int escMask = 0;
+	private long minTime;
+	private long maxTime;
+	private long prevTime;
+	private final int[][] prevTicks = new int[CastleLinkLive.MAX_ESC][CLLCommProtocol.DATA_FRAME_CNT];
+	private final double[] min = new double[CastleESC.FIELD_CNT];
+	private final double[] max = new double[CastleESC.FIELD_CNT];
+	
+	private long totalRows = 0;
+	private long totalBytes = 0;
+	
+	/**
+	 * Class constructor. Creates (or overwrites) file <b>path</b>, with blocks of
+	 * {@link TelemetryLogWriter#DEFAULT_BLOCK_ROWS} rows
+	 * @param path the log file
+	 * @throws IOException if file cannot be created
+	 */
+	public TelemetryLogWriter(String path) throws IOException {
+		this(new FileOutputStream(path), DEFAULT_BLOCK_ROWS);
+	}
+	
+	/**
+	 * Class constructor
+	 * @param out the stream to write log to
+	 * @param blockRows number of rows in a block
+	 * @throws IOException if log header cannot be written
+	 */
+	public TelemetryLogWriter(OutputStream out, int blockRows) throws IOException {
+		if (blockRows < 1) blockRows = 1;
+		
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		this.blockRows = blockRows;
+		
+		for (int c = 0; c < COLUMNS; c++)
+			columns[c] = new byte[1024];
+		
+		this.out.writeInt(MAGIC);
+		this.out.writeShort(FORMAT_VERSION);
+		this.out.writeShort(0);
+		this.out.writeInt(TIME_UNIT);
+		this.out.writeLong(System.currentTimeMillis());
+		this.out.writeLong(System.nanoTime());
+		totalBytes = 28;
+		
+		resetBlock();
+	}
+	
+	private void resetBlock() {
+		rows = 0;
+		escMask = 0;
+		prevTime = 0;
+		minTime = Long.MAX_VALUE;
+		maxTime = Long.MIN_VALUE;
+		
+		for (int c = 0; c < COLUMNS; c++)
+			lengths[c] = 0;
+		
+		for (int e = 0; e < prevTicks.length; e++)
+			for (int f = 0; f < CLLCommProtocol.DATA_FRAME_CNT; f++)
+				prevTicks[e][f] = 0;
+		
+		for (int f = 0; f < CastleESC.FIELD_CNT; f++) {
+			min[f] = Double.POSITIVE_INFINITY;
+			max[f] = Double.NEGATIVE_INFINITY;
+		}
+	}
+	
+	/**
+	 * Appends a byte to column <b>c</b>
+	 */
+	private void put(int c, int b) {
+		byte[] col = columns[c];
+		int len = lengths[c];
+		
+		if (len == col.length) {
+			byte[] n = new byte[col.length * 2];
+			System.arraycopy(col, 0, n, 0, len);
+			columns[c] = col = n;
+		}
+		
+		col[len] = (byte) b;
+		lengths[c] = len + 1;
+	}
+	
+	/**
+	 * Appends a signed value to column <b>c</b> as a zigzag varint
+	 */
+	private void putVarint(int c, long value) {
+		long v = (value << 1) ^ (value >> 63);
+		
+		while ((v & ~0x7FL) != 0) {
+			put(c, (int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		put(c, (int) v);
+	}
+	
+	/**
+	 * Appends the last update of <b>esc</b>: its frame (see {@link CastleESC#getFrame()})
+	 * and its values for block statistics. A block is written every block rows.
+	 * @param esc the ESC to log
+	 * @throws IOException if a block cannot be written
+	 */
+	public synchronized void write(CastleESC esc) throws IOException {
+		TelemetryFrame frame = esc.getFrame();
+		int escId = frame.getEscId() & CLLCommProtocol.ESC_ID_MASK;
+		
+		long t = frame.getArrivalNanos() / TIME_UNIT;
+		putVarint(COL_TIME, t - prevTime);
+		prevTime = t;
+		if (t < minTime) minTime = t;
+		if (t > maxTime) maxTime = t;
+		
+		put(COL_ESC, escId | (frame.isThrottlePresent() ? THROTTLE_PRESENT : 0));
+		escMask |= 1 << escId;
+		
+		int[] prev = prevTicks[escId];
+		for (int f = 0; f < CLLCommProtocol.DATA_FRAME_CNT; f++) {
+			int ticks = frame.getTicks(f);
+			putVarint(COL_TICKS + f, ticks - prev[f]);
+			prev[f] = ticks;
+		}
+		
+		for (int f = 0; f < CastleESC.FIELD_CNT; f++) {
+			double v = esc.getValue(1 << f);
+			if (v < min[f]) min[f] = v;
+			if (v > max[f]) max[f] = v;
+		}
+		
+		totalRows++;
+		if (++rows == blockRows) writeBlock();
+	}
+	
+	/**
+	 * Deflates column <b>c</b> at the end of compressed buffer
+	 * @return the new length of compressed data
+	 */
+	private int deflate(int c, int offset) {
+		deflater.reset();
+		deflater.setInput(columns[c], 0, lengths[c]);
+		deflater.finish();
+		
+		int start = offset;
+		while (! deflater.finished()) {
+			if (offset == compressed.length) {
+				byte[] n = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, n, 0, offset);
+				compressed = n;
+			}
+			offset += deflater.deflate(compressed, offset, compressed.length - offset);
+		}
+		
+		compressedLengths[c] = offset - start;
+		return offset;
+	}
+	
+	/**
+	 * Writes current block, if not empty
+	 */
+	private void writeBlock() throws IOException {
+		if (rows == 0) return;
+		
+		int data = 0;
+		for (int c = 0; c < COLUMNS; c++)
+			data = deflate(c, data);
+		
+		int length = 4 + 4 + 8 + 8 + CastleESC.FIELD_CNT * 16 + COLUMNS * 4 + data;
+		
+		out.writeInt(length);
+		out.writeInt(rows);
+		out.writeInt(escMask);
+		out.writeLong(minTime * TIME_UNIT);
+		out.writeLong(maxTime * TIME_UNIT);
+		for (int f = 0; f < CastleESC.FIELD_CNT; f++) {
+			out.writeDouble(min[f]);
+			out.writeDouble(max[f]);
+		}
+		for (int c = 0; c < COLUMNS; c++)
+			out.writeInt(compressedLengths[c]);
+		out.write(compressed, 0, data);
+		
+		totalBytes += 4 + length;
+		resetBlock();
+	}
+	
+	/**
+	 * Writes current block, even if not complete, and flushes the stream.
+	 * Rows written afterwards start a new block.
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		writeBlock();
+		out.flush();
+	}
+	
+	/**
+	 * Writes current block and closes the log
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		writeBlock();
+		out.close();
+		deflater.end();
+	}
+	
+	/**
+	 * @return the number of rows written
+	 */
+	public synchronized long getRowCount() {
+		return totalRows;
+	}
+	
+	/**
+	 * @return the number of bytes of completed blocks written, header included
+	 */
+	public synchronized long getByteCount() {
+		return totalBytes;
+	}
+}
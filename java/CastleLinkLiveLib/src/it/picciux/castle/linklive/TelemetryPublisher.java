@@ -0,0 +1,331 @@
+/*****************************************************************************
+ *  CastleLinkLive library - TelemetryPublisher.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event handler publishing ESC data as a {@link Flow.Publisher} of immutable
+ * {@link TelemetrySample}s, with demand-driven backpressure: each subscriber 
+ * gets items only as requested through {@link Flow.Subscription#request(long)}.
+ * <br />
+ * Usage: <code>cll.setEventHandler(publisher)</code> (or subscribe it to a 
+ * {@link TelemetryBus}), then {@link TelemetryPublisher#subscribe(Flow.Subscriber)}.
+ * <br />
+ * Samples arriving while a subscriber has no demand are kept in a bounded
+ * buffer per subscriber. When the buffer is full, the configured policy applies:
+ * <ul>
+ * <li>{@link TelemetryPublisher#BUFFER_DROP_OLDEST}: the oldest buffered sample is dropped</li>
+ * <li>{@link TelemetryPublisher#BUFFER_DROP_NEWEST}: the new sample is dropped</li>
+ * <li>{@link TelemetryPublisher#BUFFER_ERROR}: the subscription is terminated 
+ * with {@link Flow.Subscriber#onError(Throwable)}</li>
+ * </ul>
+ * Subscribers are called by the publisher executor (see 
+ * {@link TelemetryPublisher#setExecutor(Executor)}), by one thread at a time 
+ * for each subscriber. Neither the thread delivering events to the publisher
+ * nor the one calling {@link Flow.Subscription#request(long)} ever call
+ * subscribers, so a slow subscriber doesn't stall data decoding: its samples
+ * are buffered, and buffer policy applies. 
+ * Connection events don't terminate subscriptions:
+ * {@link TelemetryPublisher#close()} does.
+ */
+public class TelemetryPublisher implements ICastleLinkLiveEvent, Flow.Publisher<TelemetrySample> {
+	/**
+	 * Buffer policy: drop the oldest buffered sample
+	 */
+	public static final int BUFFER_DROP_OLDEST = 0;
+	
+	/**
+	 * Buffer policy: drop the new sample
+	 */
+	public static final int BUFFER_DROP_NEWEST = 1;
+	
+	/**
+	 * Buffer policy: terminate the subscription with an error
+	 */
+	public static final int BUFFER_ERROR = 2;
+	
+	/**
+	 * Default number of samples buffered per subscriber
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256;
+	
+	/**
+	 * Subscription of a single subscriber. Items are delivered by a drain loop
+	 * run by the publisher executor, one task at a time: any other thread just 
+	 * counts a missed drain, that the running task will do
+	 */
+	private class SampleSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super TelemetrySample> subscriber;
+		private final ConcurrentLinkedQueue<TelemetrySample> buffer = new ConcurrentLinkedQueue<TelemetrySample>();
+		private final AtomicInteger buffered = new AtomicInteger(0);
+		private final AtomicLong demand = new AtomicLong(0);
+		private final AtomicInteger drains = new AtomicInteger(0);
+		
+		private volatile boolean cancelled = false;
+		private volatile Throwable error = null;
+		
+		private final Runnable drainTask = new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		};
+		
+		SampleSubscription(Flow.Subscriber<? super TelemetrySample> subscriber) {
+			this.subscriber = subscriber;
+		}
+		
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Non-positive request: " + n);
+			} else {
+				long r, u;
+				do {
+					r = demand.get();
+					u = r + n;
+					if (u < 0) u = Long.MAX_VALUE; //overflow: unbounded
+				} while (! demand.compareAndSet(r, u));
+			}
+			
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+		}
+		
+		/**
+		 * Buffers a sample, applying buffer policy, and delivers what's possible
+		 */
+		void offer(TelemetrySample sample) {
+			if (cancelled) return;
+			
+			if (buffered.get() >= bufferSize) {
+				switch (policy) {
+					case BUFFER_DROP_NEWEST:
+						dropped.incrementAndGet();
+						drain();
+						return;
+					case BUFFER_ERROR:
+						error = new CastleLinkLiveException("Subscriber buffer overflow (" + bufferSize + " samples)");
+						drain();
+						return;
+					default:
+						if (buffer.poll() != null) {
+							buffered.decrementAndGet();
+							dropped.incrementAndGet();
+						}
+						break;
+				}
+			}
+			
+			buffer.offer(sample);
+			buffered.incrementAndGet();
+			drain();
+		}
+		
+		/**
+		 * Has the executor deliver buffered samples, unless it's already doing it
+		 */
+		void drain() {
+			if (drains.getAndIncrement() != 0) return;
+			
+			try {
+				executor.execute(drainTask);
+			} catch (RejectedExecutionException e) {
+				drainLoop(); //executor shut down: deliver from here
+			}
+		}
+		
+		/**
+		 * Delivers buffered samples as long as there's demand, and terminal signals
+		 */
+		private void drainLoop() {
+			int missed = 1;
+			do {
+				if (! cancelled) {
+					if (error != null) {
+						cancel();
+						buffer.clear();
+						subscriber.onError(error);
+					} else {
+						long r = demand.get();
+						long e = 0;
+						
+						while (e != r && ! cancelled) {
+							TelemetrySample s = buffer.poll();
+							if (s == null) break;
+							buffered.decrementAndGet();
+							
+							try {
+								subscriber.onNext(s);
+							} catch (RuntimeException ex) {
+								//subscribers must not throw: drop it
+								cancel();
+							}
+							e++;
+						}
+						
+						if (e != 0 && r != Long.MAX_VALUE) demand.addAndGet(-e);
+						
+						if (closed && buffer.isEmpty() && ! cancelled) {
+							cancel();
+							subscriber.onComplete();
+						}
+					}
+				}
+				
+				missed = drains.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
+	
+	private final int bufferSize;
+	private final int policy;
+	
+	private final CopyOnWriteArrayList<SampleSubscription> subscriptions = new CopyOnWriteArrayList<SampleSubscription>();
+	private final AtomicLong dropped = new AtomicLong(0);
+	private volatile boolean closed = false;
+	private volatile Executor executor = Executors.newCachedThreadPool(SessionThreads.platform("Telemetry Publisher", true));
+	
+	/* read into by the thread delivering events only */
+	private final EscSnapshot scratch = new EscSnapshot();
+	
+	/**
+	 * Class constructor. Creates a publisher buffering up to {@link TelemetryPublisher#DEFAULT_BUFFER_SIZE}
+	 * samples per subscriber, with {@link TelemetryPublisher#BUFFER_DROP_OLDEST} policy
+	 */
+	public TelemetryPublisher() {
+		this.bufferSize = DEFAULT_BUFFER_SIZE;
+		this.policy = BUFFER_DROP_OLDEST;
+	}
+	
+	/**
+	 * Class constructor
+	 * @param bufferSize number of samples buffered per subscriber without demand
+	 * @param policy what to do when a buffer is full: {@link TelemetryPublisher#BUFFER_DROP_OLDEST},
+	 * {@link TelemetryPublisher#BUFFER_DROP_NEWEST} or {@link TelemetryPublisher#BUFFER_ERROR}
+	 * @throws InvalidArgumentException if policy is not valid
+	 */
+	public TelemetryPublisher(int bufferSize, int policy) throws InvalidArgumentException {
+		if (policy != BUFFER_DROP_OLDEST && policy != BUFFER_DROP_NEWEST && policy != BUFFER_ERROR)
+			throw new InvalidArgumentException(policy + " is not a valid buffer policy");
+		
+		if (bufferSize < 1) bufferSize = 1;
+		this.bufferSize = bufferSize;
+		this.policy = policy;
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super TelemetrySample> subscriber) {
+		SampleSubscription s = new SampleSubscription(subscriber);
+		subscriber.onSubscribe(s);
+		
+		if (closed) {
+			s.drain(); //completes it
+			return;
+		}
+		
+		if (! s.cancelled) subscriptions.add(s);
+	}
+	
+	/**
+	 * Completes all subscriptions, once their buffered samples are delivered.
+	 * Samples arriving after this call are discarded.
+	 */
+	public void close() {
+		closed = true;
+		for (SampleSubscription s : subscriptions)
+			s.drain();
+	}
+	
+	/**
+	 * Sets the executor subscribers are called by (e.g. a pool of 
+	 * {@link SessionThreads#virtual(String)} threads). By default, a pool of
+	 * platform daemon threads created as needed
+	 * @param executor the executor
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * @return the number of active subscriptions
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+	
+	/**
+	 * @return the number of samples dropped by buffer policy, for all subscribers
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+	
+	/**
+	 * @return the buffer policy
+	 */
+	public int getPolicy() {
+		return policy;
+	}
+	
+	@Override
+	public void dataUpdated(int index, CastleESC esc) {
+		if (closed || subscriptions.isEmpty()) return;
+		
+		//immutable, so the same sample goes to every subscriber
+		TelemetrySample sample = new TelemetrySample(index, esc, scratch);
+		for (SampleSubscription s : subscriptions)
+			s.offer(sample);
+	}
+
+	@Override
+	public void throttlePresent(boolean present) {
+	}
+
+	@Override
+	public void connectionEvent(boolean connected) {
+	}
+
+	@Override
+	public void connectionError(String reason) {
+	}
+
+	@Override
+	public void armedEvent(boolean armed) {
+	}
+}
@@ -0,0 +1,180 @@
+/*****************************************************************************
+ *  CastleLinkLive library - TelemetrySample.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+package it.picciux.castle.linklive;
+
+/**
+ * Immutable values of an ESC from a single data frame, as published
+ * by {@link TelemetryPublisher}. Unlike an {@link EscSnapshot}, a sample
+ * can't be refilled, so it can be handed to any number of consumers.
+ */
+public final class TelemetrySample {
+	private final int escIndex;
+	private final long arrivalNanos;
+	private final long version;
+	private final int rpmDivider;
+	private final double voltage;
+	private final double rippleVoltage;
+	private final double current;
+	private final double throttle;
+	private final int outputPower;
+	private final long electricalRPM;
+	private final double BECvoltage;
+	private final double BECcurrent;
+	private final double temperature;
+	
+	/**
+	 * Takes a sample of <b>esc</b> current values 
+	 * ({@link CastleESC#readSnapshot(EscSnapshot)})
+	 * @param escIndex the ESC id
+	 * @param esc the ESC to sample
+	 */
+	public TelemetrySample(int escIndex, CastleESC esc) {
+		this(escIndex, esc, new EscSnapshot());
+	}
+	
+	/**
+	 * Takes a sample of <b>esc</b> current values, reading them
+	 * through a caller-owned snapshot
+	 * @param escIndex the ESC id
+	 * @param esc the ESC to sample
+	 * @param scratch snapshot to read values into (overwritten)
+	 */
+	TelemetrySample(int escIndex, CastleESC esc, EscSnapshot scratch) {
+		this.escIndex = escIndex;
+		this.arrivalNanos = esc.getFrame().getArrivalNanos();
+		
+		esc.readSnapshot(scratch);
+		version = scratch.version;
+		rpmDivider = scratch.rpmDivider;
+		voltage = scratch.voltage;
+		rippleVoltage = scratch.rippleVoltage;
+		current = scratch.current;
+		throttle = scratch.throttle;
+		outputPower = scratch.outputPower;
+		electricalRPM = scratch.electricalRPM;
+		BECvoltage = scratch.BECvoltage;
+		BECcurrent = scratch.BECcurrent;
+		temperature = scratch.temperature;
+	}
+	
+	/**
+	 * @return the ESC id
+	 */
+	public int getEscIndex() {
+		return escIndex;
+	}
+	
+	/**
+	 * @return arrival time of the frame values come from 
+	 * (see {@link TelemetryFrame#getArrivalNanos()})
+	 */
+	public long getArrivalNanos() {
+		return arrivalNanos;
+	}
+	
+	/**
+	 * @return the version of the ESC values this sample was taken from
+	 * @see EscSnapshot#getVersion()
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return the configured motor poles number to calculate shaft RPM.
+	 */
+	public int getMotorPoles() {
+		return rpmDivider * 2;
+	}
+	
+	/**
+	 * @return battery voltage as reported by ESC (in Volts)
+	 */
+	public double getVoltage() {
+		return voltage;
+	}
+
+	/**
+	 * @return battery ripple voltage as reported by ESC (in Volts)
+	 */
+	public double getRippleVoltage() {
+		return rippleVoltage;
+	}
+
+	/**
+	 * @return current flowing through power system, as reported by ESC (in Amperes)
+	 */
+	public double getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return throttle pulse duration as reported by ESC (in microseconds)
+	 */
+	public double getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * @return the power level the ESC is driving the motor (percentage: 0-100)
+	 */
+	public int getOutputPower() {
+		return outputPower;
+	}
+
+	/**
+	 * @return the electrical RPM as reported by ESC (not counting motor poles number)
+	 */
+	public long getElectricalRPM() {
+		return electricalRPM;
+	}
+
+	/**
+	 * @return the shaft RPM as reported by ESC (if motor poles number is set correctly)
+	 */
+	public long getRPM() {
+		return electricalRPM / rpmDivider;
+	}
+	
+	/**
+	 * @return the BEC voltage as reported by ESC (in Volts)
+	 */
+	public double getBECvoltage() {
+		return BECvoltage;
+	}
+
+	/**
+	 * @return the BEC current as reported by ESC (in Amperes)
+	 */
+	public double getBECcurrent() {
+		return BECcurrent;
+	}
+
+	/**
+	 * @return the ESC temperature, as reported by ESC itself (in degree Celsius)
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+}
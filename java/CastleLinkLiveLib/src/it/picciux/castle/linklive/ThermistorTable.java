@@ -0,0 +1,152 @@
+/*****************************************************************************
+ *  CastleLinkLive library - ThermistorTable.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive;
+
+import java.util.HashMap;
+
+/**
+ * Precomputed, linearly interpolated table of the ESC thermistor curve 
+ * (the one reported in {@link CLLCommProtocol#FRAME_TEMP2}), as a function
+ * of the ratio between thermistor ticks and reference ticks.
+ * The table is sized so that interpolation error, as compared with the exact 
+ * formula, is within a given bound. Ratios below the table domain (more than
+ * about 200 degrees Celsius) are calculated with the exact formula.
+ * @see CastleESC#setDecodeMode(int, double)
+ */
+class ThermistorTable {
+	/**
+	 * ratio above which the thermistor is considered not connected
+	 */
+	static final double MAX_RATIO = 3.9d;
+	
+	/**
+	 * lowest ratio covered by the table
+	 */
+	static final double MIN_RATIO = 0.05d;
+	
+	private static final int MIN_SEGMENTS = 16;
+	private static final int MAX_SEGMENTS = 1 << 16;
+	
+	/**
+	 * tables built so far, keyed by error bound and shared by all ESCs
+	 * asking for the same bound
+	 */
+	private static final HashMap<Double, ThermistorTable> cache = new HashMap<Double, ThermistorTable>();
+	
+	private final double measuredError;
+	private final double invStep;
+	private final double[] base;
+	private final double[] slope;
+	
+	/**
+	 * @param maxError maximum allowed interpolation error, in degree Celsius
+	 * @return a table satisfying the error bound
+	 */
+	static synchronized ThermistorTable forErrorBound(double maxError) {
+		Double key = Double.valueOf(maxError);
+		ThermistorTable t = cache.get(key);
+		
+		if (t == null) {
+			t = new ThermistorTable(maxError);
+			cache.put(key, t);
+		}
+		
+		return t;
+	}
+	
+	/**
+	 * Exact thermistor formula
+	 * @param ratio thermistor ticks / reference ticks
+	 * @return temperature in degree Celsius
+	 */
+	static double exact(double ratio) {
+		double d = ratio * 63.8125d;
+		return 1.0d / (Math.log(d * 10200d / (255 - d) / 10000.0d) / 3455.0d + 1.0d / 298.0d) - 273;
+	}
+	
+	private ThermistorTable(double maxError) {
+		int segments = MIN_SEGMENTS;
+		double[] b;
+		double[] s;
+		double err;
+		
+		//double table size until error bound is satisfied
+		while (true) {
+			double step = (MAX_RATIO - MIN_RATIO) / segments;
+			b = new double[segments + 1];
+			s = new double[segments + 1];
+			
+			for (int i = 0; i <= segments; i++)
+				b[i] = exact(MIN_RATIO + i * step);
+			
+			for (int i = 0; i < segments; i++)
+				s[i] = b[i + 1] - b[i];
+			s[segments] = 0;
+			
+			err = 0;
+			for (int i = 0; i < segments; i++) {
+				for (int q = 1; q < 4; q++) {
+					double frac = q / 4.0d;
+					double e = Math.abs(b[i] + s[i] * frac - exact(MIN_RATIO + (i + frac) * step));
+					if (e > err) err = e;
+				}
+			}
+			
+			if (err <= maxError || segments >= MAX_SEGMENTS) break;
+			segments *= 2;
+		}
+		
+		base = b;
+		slope = s;
+		measuredError = err;
+		invStep = segments / (MAX_RATIO - MIN_RATIO);
+	}
+	
+	/**
+	 * @param ratio thermistor ticks / reference ticks, not greater than {@link ThermistorTable#MAX_RATIO}
+	 * @return temperature in degree Celsius
+	 */
+	double temperature(double ratio) {
+		if (ratio < MIN_RATIO) return exact(ratio);
+		
+		double x = (ratio - MIN_RATIO) * invStep;
+		int i = (int) x;
+		return base[i] + slope[i] * (x - i);
+	}
+	
+	/**
+	 * @return maximum interpolation error measured when building the table
+	 */
+	double getMeasuredError() {
+		return measuredError;
+	}
+	
+	/**
+	 * @return number of table entries
+	 */
+	int size() {
+		return base.length;
+	}
+}
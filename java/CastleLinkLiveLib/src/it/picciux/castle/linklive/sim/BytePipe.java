@@ -0,0 +1,183 @@
+/*****************************************************************************
+ *  CastleLinkLive library - BytePipe.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+
+package it.picciux.castle.linklive.sim;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory byte pipe with a bounded buffer. Unlike java.io piped streams,
+ * it waits on {@link java.util.concurrent.locks} conditions instead of 
+ * object monitors, so a virtual thread blocked on it doesn't pin its carrier, 
+ * and it doesn't care which thread wrote last.
+ * Closing either end closes the pipe: readers get what's left, then end of stream.
+ */
+class BytePipe {
+	private final byte[] buf;
+	private int head = 0;
+	private int count = 0;
+	private boolean closed = false;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	
+	private final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			lock.lock();
+			try {
+				while (count == 0 && ! closed)
+					await(notEmpty);
+				
+				if (count == 0) return -1;
+				
+				int c = buf[head] & 0xFF;
+				head = (head + 1) % buf.length;
+				count--;
+				notFull.signalAll();
+				return c;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			
+			lock.lock();
+			try {
+				while (count == 0 && ! closed)
+					await(notEmpty);
+				
+				if (count == 0) return -1;
+				
+				int n = Math.min(len, count);
+				int first = Math.min(n, buf.length - head);
+				System.arraycopy(buf, head, b, off, first);
+				System.arraycopy(buf, 0, b, off + first, n - first);
+				head = (head + n) % buf.length;
+				count -= n;
+				notFull.signalAll();
+				return n;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public int available() {
+			lock.lock();
+			try {
+				return count;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public void close() {
+			BytePipe.this.close();
+		}
+	};
+	
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			lock.lock();
+			try {
+				while (len > 0) {
+					while (count == buf.length && ! closed)
+						await(notFull);
+					
+					if (closed) throw new IOException("Pipe closed");
+					
+					int tail = (head + count) % buf.length;
+					int n = Math.min(len, Math.min(buf.length - count, buf.length - tail));
+					System.arraycopy(b, off, buf, tail, n);
+					count += n;
+					off += n;
+					len -= n;
+					notEmpty.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public void close() {
+			BytePipe.this.close();
+		}
+	};
+	
+	/**
+	 * @param size buffer size, in bytes
+	 */
+	BytePipe(int size) {
+		if (size < 1) size = 1;
+		buf = new byte[size];
+	}
+	
+	InputStream getInputStream() {
+		return in;
+	}
+	
+	OutputStream getOutputStream() {
+		return out;
+	}
+	
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private static void await(Condition c) throws InterruptedIOException {
+		try {
+			c.await(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
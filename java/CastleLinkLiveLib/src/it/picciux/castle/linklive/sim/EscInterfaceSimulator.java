@@ -0,0 +1,826 @@
+/*****************************************************************************
+ *  CastleLinkLive library - EscInterfaceSimulator.java
+ *  Copyright (C) 2026  CastleLinkLive contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  For further info, check http://code.google.com/p/castlelinklive4arduino/
+ *
+ *  SVN: $Id$
+ *  
+ *****************************************************************************/
+
+
+package it.picciux.castle.linklive.sim;
+
+import it.picciux.castle.linklive.CLLCommProtocol;
+import it.picciux.castle.linklive.CastleLinkLive;
+import it.picciux.castle.linklive.ITransport;
+import it.picciux.castle.linklive.InvalidDataException;
+import it.picciux.castle.linklive.SessionThreads;
+import it.picciux.castle.linklive.StreamTransport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process simulator of an ESC interface running CastleLinkLiveSerialMonitor.
+ * It implements the device side of the protocol described in {@link CLLCommProtocol}:
+ * commands are ACKed or NACKed following the same state machine as the Arduino
+ * program (HELLO, configuration, START, ARM/DISARM, SET_THROTTLE), and once armed
+ * telemetry frames are sent for each configured ESC at the configured rate.
+ * Pipelined mode (SET_PIPELINE) is supported as well, with the same command 
+ * queue length: commands arriving when the queue is full are dropped.
+ * <br />
+ * The simulator talks through piped streams: use {@link EscInterfaceSimulator#connect(CastleLinkLive)}
+ * to wire it to a {@link CastleLinkLive} object, or {@link EscInterfaceSimulator#getInputStream()}
+ * and {@link EscInterfaceSimulator#getOutputStream()} to wire it by yourself.
+ * Noise (corrupted telemetry frames) and reply latency can be injected to
+ * reproduce field conditions.
+ */
+public class EscInterfaceSimulator {
+	/* SIMULATED INTERFACE STATES (as in CastleLinkLiveSerialMonitor) */
+	public static final int STATUS_HELLO	= 0;
+	public static final int STATUS_CONF		= 1;
+	public static final int STATUS_STARTED	= 2;
+	public static final int STATUS_ARMED	= 3;
+	
+	/**
+	 * Default maximum number of ESCs accepted by START (as for an atmega328 board)
+	 */
+	public static final int DEFAULT_MAX_ESC = 2;
+	
+	/**
+	 * Default size of pipes buffers
+	 */
+	public static final int DEFAULT_PIPE_SIZE = 64 * 1024;
+	
+	/**
+	 * Command queue length (as CastleLinkLiveSerialMonitor QUEUE_LEN)
+	 */
+	public static final int QUEUE_LEN = 10;
+	
+	private static final int COMMAND_SIZE = 5;
+	private static final int NO_THROTTLE_INTERVAL = 100; //ms, as CastleLinkLiveSerialMonitor
+	
+	private static final int REFERENCE_TICKS = 2000;
+	private static final int OFFSET_TICKS = 1000;
+	
+	/**
+	 * Thread reading and processing commands sent by the host
+	 */
+	private class CommandTask implements Runnable {
+		@Override
+		public void run() {
+			byte[] cmd = new byte[COMMAND_SIZE];
+			int cnt = -1;
+			
+			while (isRunning()) {
+				int c;
+				
+				try {
+					c = cmdIn.read();
+				} catch (IOException e) {
+					//interrupted: go on unless the simulator was stopped
+					if (! isRunning()) break;
+					sleepMs(10);
+					continue;
+				}
+				
+				if (c < 0) break;
+				
+				//same framing as CastleLinkLiveSerialMonitor USART ISR
+				if (cnt == -1) {
+					if (c == CLLCommProtocol.OUT_HEADER) cnt = 0;
+					continue;
+				}
+				
+				cmd[cnt++] = (byte) c;
+				
+				if (cnt == COMMAND_SIZE - 1) {
+					int checksum = CLLCommProtocol.OUT_HEADER;
+					for (int i = 0; i < COMMAND_SIZE - 2; i++)
+						checksum ^= cmd[i] & 0xFF;
+					
+					if (checksum == (cmd[COMMAND_SIZE - 2] & 0xFF))
+						queueCommand(cmd[0] & 0xFF, (cmd[1] & 0xFF) | ((cmd[2] & 0xFF) << 8));
+					
+					cnt = -1;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Thread generating telemetry frames
+	 */
+	private class TelemetryTask implements Runnable {
+		private final byte[] frame = new byte[CLLCommProtocol.DATA_FRAME_LEN];
+		private final int[] ticks = new int[CLLCommProtocol.DATA_FRAME_CNT];
+		private final byte[] batch = new byte[CLLCommProtocol.DATA_FRAME_LEN * BATCH_FRAMES];
+		
+		private static final int BATCH_FRAMES = 64;
+		
+		@Override
+		public void run() {
+			long next = System.nanoTime();
+			
+			try {
+				while (isRunning()) {
+					int st = getStatus();
+					
+					if (st != STATUS_ARMED) {
+						sleepMs(10);
+						next = System.nanoTime();
+						continue;
+					}
+					
+					if (! isThrottlePresent()) {
+						//CastleLinkLiveSerialMonitor sends an empty frame for ESC 0
+						emptyTicks(ticks);
+						encode(frame, 0, false, ticks);
+						write(frame, 0, frame.length);
+						sleepMs(NO_THROTTLE_INTERVAL);
+						next = System.nanoTime();
+						continue;
+					}
+					
+					int rate = frameRate;
+					int n = nESC > 0 ? nESC : 1;
+					int count;
+					
+					if (rate <= 0) { //as fast as possible
+						count = BATCH_FRAMES;
+					} else {
+						long now = System.nanoTime();
+						if (now < next) {
+							parkUntil(next);
+							continue;
+						}
+						
+						long interval = 1000000000L / ((long) rate * n);
+						count = (int) Math.min(BATCH_FRAMES, (now - next) / interval + 1);
+						next += count * interval;
+						
+						//don't try to catch up after long stalls
+						if (now - next > 1000000000L) next = now;
+					}
+					
+					int len = 0;
+					for (int i = 0; i < count; i++) {
+						int esc = (int) (framesSent % n);
+						simulatedTicks(ticks);
+						encode(frame, esc, true, ticks);
+						len = appendFrame(batch, len, frame);
+						framesSent++;
+					}
+					
+					write(batch, 0, len);
+				}
+			} catch (IOException e) {
+				//host side closed
+			}
+		}
+		
+		private void parkUntil(long deadline) {
+			long wait = deadline - System.nanoTime();
+			if (wait > 2000000L)
+				sleepMs((int) (wait / 1000000L) - 1);
+			else if (wait > 0)
+				Thread.yield();
+		}
+	}
+	
+	/**
+	 * Thread feeding data sent by the simulator to a {@link CastleLinkLive} object
+	 */
+	private class ReaderTask implements Runnable {
+		private final CastleLinkLive cll;
+		
+		public ReaderTask(CastleLinkLive cll) {
+			this.cll = cll;
+		}
+		
+		@Override
+		public void run() {
+			byte[] buf = new byte[4096];
+			
+			try {
+				while (isRunning()) {
+					int n = hostIn.read(buf, 0, buf.length);
+					if (n < 0) break;
+					
+					try {
+						cll.putData(buf, 0, n);
+					} catch (InvalidDataException e) {
+						dataErrors += cll.getLastDataErrors();
+					}
+				}
+			} catch (IOException e) {
+				//simulator stopped
+			}
+		}
+	}
+	
+	/**
+	 * Sends a reply when its latency has elapsed
+	 */
+	private class Reply implements Runnable {
+		private final int seq;
+		private final boolean ack;
+		
+		public Reply(int seq, boolean ack) {
+			this.seq = seq;
+			this.ack = ack;
+		}
+		
+		@Override
+		public void run() {
+			queued.decrementAndGet();
+			try {
+				reply(seq, ack);
+			} catch (IOException e) {
+				//host side closed
+			}
+		}
+	}
+	
+	//pipes: host -> simulator
+	private OutputStream hostOut;
+	private InputStream cmdIn;
+	
+	//pipes: simulator -> host
+	private OutputStream simOut;
+	private InputStream hostIn;
+	
+	private Thread commandThread;
+	private ScheduledExecutorService replyScheduler;
+	private Thread telemetryThread;
+	private Thread readerThread;
+	private ThreadFactory threadFactory = null;
+	
+	/* keeps replies and telemetry frames whole. Not a monitor, since writers 
+	 * block while the pipe is full */
+	private final ReentrantLock writeLock = new ReentrantLock();
+	
+	private volatile boolean running = false;
+	
+	/* simulated interface state */
+	private volatile int status = STATUS_HELLO;
+	private volatile boolean autoGenThrottle = false;
+	private volatile int throttle = 0;
+	private volatile int nESC = 0;
+	private volatile boolean pipelined = false;
+	
+	/* commands waiting for their reply to be sent, i.e. occupying the queue */
+	private final AtomicInteger queued = new AtomicInteger(0);
+	private long lastReplyDue = 0;
+	private int tMin = CastleLinkLive.DEFAULT_THROTTLE_MIN;
+	private int tMax = CastleLinkLive.DEFAULT_THROTTLE_MAX;
+	
+	/* configuration */
+	private volatile int frameRate = 20;
+	private volatile double corruptionRate = 0.0d;
+	private volatile double nackRate = 0.0d;
+	private volatile int minLatency = 0;
+	private volatile int maxLatency = 0;
+	private volatile int maxESC = DEFAULT_MAX_ESC;
+	private volatile boolean externalThrottlePresent = true;
+	private volatile boolean pipelineSupported = true;
+	private int pipeSize = DEFAULT_PIPE_SIZE;
+	
+	/* statistics */
+	private volatile long framesSent = 0;
+	private volatile long commandsReceived = 0;
+	private volatile long dataErrors = 0;
+	private volatile long commandsDropped = 0;
+	
+	private final Random random;
+	
+	/**
+	 * Class constructor
+	 */
+	public EscInterfaceSimulator() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * Class constructor
+	 * @param seed seed for noise, latency and data generation
+	 */
+	public EscInterfaceSimulator(long seed) {
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Creates the pipes and starts simulating the ESC interface
+	 * @throws IOException if pipes cannot be created
+	 */
+	public synchronized void start() throws IOException {
+		if (running) return;
+		
+		BytePipe cmdPipe = new BytePipe(pipeSize);
+		cmdIn = cmdPipe.getInputStream();
+		hostOut = cmdPipe.getOutputStream();
+		BytePipe dataPipe = new BytePipe(pipeSize);
+		hostIn = dataPipe.getInputStream();
+		simOut = dataPipe.getOutputStream();
+		
+		status = STATUS_HELLO;
+		pipelined = false;
+		queued.set(0);
+		running = true;
+		
+		replyScheduler = Executors.newSingleThreadScheduledExecutor(factory("Simulator Replies"));
+		
+		commandThread = factory("Simulator Commands").newThread(new CommandTask());
+		commandThread.start();
+		telemetryThread = factory("Simulator Telemetry").newThread(new TelemetryTask());
+		telemetryThread.start();
+	}
+	
+	/**
+	 * Starts the simulator and wires it to <b>cll</b>: CastleLinkLive output stream is set to
+	 * simulator input and a thread is started to feed simulator output to 
+	 * {@link CastleLinkLive#putData(byte[], int, int)}.
+	 * Session must be started by calling {@link CastleLinkLive#start(int, int)} as usual.
+	 * @param cll the CastleLinkLive object to connect
+	 * @throws IOException if pipes cannot be created
+	 */
+	public synchronized void connect(CastleLinkLive cll) throws IOException {
+		start();
+		cll.setTransport(getTransport());
+		readerThread = factory("Simulator Reader").newThread(new ReaderTask(cll));
+		readerThread.start();
+	}
+	
+	/**
+	 * Stops the simulator and closes all the pipes
+	 */
+	public void stop() {
+		synchronized (this) {
+			if (! running) return;
+			running = false;
+		}
+		
+		closeQuietly(hostOut);
+		closeQuietly(simOut);
+		closeQuietly(cmdIn);
+		closeQuietly(hostIn);
+		
+		if (replyScheduler != null) replyScheduler.shutdownNow();
+		if (commandThread != null) commandThread.interrupt();
+		if (telemetryThread != null) telemetryThread.interrupt();
+		if (readerThread != null) readerThread.interrupt();
+	}
+	
+	/**
+	 * @return the stream the host has to write commands to
+	 */
+	public OutputStream getOutputStream() {
+		return hostOut;
+	}
+
+	/**
+	 * @return the stream the host has to read simulator data from
+	 */
+	public InputStream getInputStream() {
+		return hostIn;
+	}
+	
+	/**
+	 * @return a transport over simulator streams, for the host to use
+	 */
+	public ITransport getTransport() {
+		return new StreamTransport(hostIn, hostOut);
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * @return current simulated interface state (one of STATUS_* constants)
+	 */
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return last throttle value (0-100) set by host
+	 */
+	public int getThrottle() {
+		return throttle;
+	}
+	
+	/**
+	 * @return the number of telemetry frames sent so far
+	 */
+	public long getFramesSent() {
+		return framesSent;
+	}
+	
+	/**
+	 * @return the number of valid commands received so far
+	 */
+	public long getCommandsReceived() {
+		return commandsReceived;
+	}
+	
+	/**
+	 * @return the number of valid commands dropped because command queue was full
+	 */
+	public long getCommandsDropped() {
+		return commandsDropped;
+	}
+	
+	/**
+	 * @return true if host enabled pipelined mode
+	 */
+	public boolean isPipelined() {
+		return pipelined;
+	}
+	
+	/**
+	 * @return the number of data errors reported by CastleLinkLive when 
+	 * connected with {@link EscInterfaceSimulator#connect(CastleLinkLive)}
+	 */
+	public long getDataErrors() {
+		return dataErrors;
+	}
+	
+	/**
+	 * Sets telemetry rate
+	 * @param framesPerSecond frames sent per second for each ESC. 0 or less means
+	 * as fast as possible
+	 */
+	public void setFrameRate(int framesPerSecond) {
+		this.frameRate = framesPerSecond;
+	}
+	
+	/**
+	 * @param corruptionRate fraction (0.0 - 1.0) of telemetry frames that will have
+	 * one byte dropped or altered
+	 */
+	public void setCorruptionRate(double corruptionRate) {
+		this.corruptionRate = corruptionRate;
+	}
+	
+	/**
+	 * @param nackRate fraction (0.0 - 1.0) of otherwise valid commands that will
+	 * be NACKed anyway
+	 */
+	public void setNackRate(double nackRate) {
+		this.nackRate = nackRate;
+	}
+	
+	/**
+	 * Sets the delay before replying to a command. Actual delay is
+	 * uniformly distributed between the two values. 
+	 * @param minMs minimum delay in milliseconds
+	 * @param maxMs maximum delay in milliseconds
+	 */
+	public void setLatency(int minMs, int maxMs) {
+		this.minLatency = Math.max(0, minMs);
+		this.maxLatency = Math.max(this.minLatency, maxMs);
+	}
+	
+	/**
+	 * @param maxESC maximum number of ESCs accepted by START command
+	 */
+	public void setMaxESC(int maxESC) {
+		this.maxESC = maxESC;
+	}
+	
+	/**
+	 * @param present whether an external throttle signal is present (only 
+	 * relevant in external throttle mode)
+	 */
+	public void setExternalThrottlePresent(boolean present) {
+		this.externalThrottlePresent = present;
+	}
+	
+	/**
+	 * @param supported false to simulate a CastleLinkLiveSerialMonitor version 
+	 * without pipelined mode (SET_PIPELINE command is NACKed)
+	 */
+	public void setPipelineSupported(boolean supported) {
+		this.pipelineSupported = supported;
+	}
+	
+	/**
+	 * @param pipeSize size of pipes buffers, in bytes. Only effective if 
+	 * set before starting the simulator
+	 */
+	public void setPipeSize(int pipeSize) {
+		this.pipeSize = pipeSize;
+	}
+	
+	/**
+	 * Sets the factory of simulator threads (e.g. 
+	 * {@link it.picciux.castle.linklive.SessionThreads#virtual(String)}), 
+	 * to simulate many interfaces without a platform thread each. 
+	 * Only effective if set before starting the simulator
+	 * @param threadFactory the factory, or null for platform daemon threads
+	 */
+	public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+	
+	private ThreadFactory factory(String name) {
+		if (threadFactory != null) return threadFactory;
+		return SessionThreads.platform(name, true);
+	}
+	
+	private boolean isThrottlePresent() {
+		return autoGenThrottle || externalThrottlePresent;
+	}
+	
+	/**
+	 * Queues a command as CastleLinkLiveSerialMonitor USART ISR would: commands
+	 * arriving while the queue is full are dropped
+	 * @param idByte command id byte (id and sequence)
+	 * @param value command value
+	 */
+	private void queueCommand(int idByte, int value) {
+		commandsReceived++;
+		
+		if (queued.get() >= QUEUE_LEN - 1) {
+			commandsDropped++;
+			return;
+		}
+		
+		queued.incrementAndGet();
+		
+		int seq = (pipelined ? idByte >> CLLCommProtocol.CMD_SEQ_SHIFT : CLLCommProtocol.NO_SEQUENCE);
+		boolean ack = processCommand(idByte & CLLCommProtocol.CMD_ID_MASK, value);
+		
+		int latency = minLatency;
+		if (maxLatency > minLatency) latency += nextInt(maxLatency - minLatency + 1);
+		
+		//replies leave in order, as they would on a serial link
+		long now = System.nanoTime();
+		long due = Math.max(now + latency * 1000000L, lastReplyDue);
+		lastReplyDue = due;
+		
+		try {
+			replyScheduler.schedule(new Reply(seq, ack), due - now, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			//simulator stopped
+		}
+	}
+	
+	/**
+	 * Processes a command as CastleLinkLiveSerialMonitor would
+	 * @param id command id
+	 * @param value command value
+	 * @return true to ACK the command, false to NACK it
+	 */
+	private boolean processCommand(int id, int value) {
+		boolean ack = false;
+		
+		switch(id) {
+			case CLLCommProtocol.CMD_NOOP:
+				ack = true;
+				break;
+				
+			case CLLCommProtocol.CMD_HELLO:
+				if (status < STATUS_ARMED) {
+					status = STATUS_CONF;
+					pipelined = false;
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_SET_PIPELINE:
+				if (status == STATUS_CONF && pipelineSupported && 
+						(value & 0xFF) >= 1 && (value & 0xFF) < QUEUE_LEN) {
+					//this reply is still not tagged: pipelined mode starts with next command
+					pipelined = ((value & 0xFF) > 1);
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_SET_TMIN:
+				if (status == STATUS_CONF) {
+					tMin = value;
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_SET_TMAX:
+				if (status == STATUS_CONF) {
+					tMax = value;
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_SET_TMODE:
+				if (status == STATUS_CONF) {
+					autoGenThrottle = ((value & 0xFF) > 0);
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_SET_NESC:
+				if (status == STATUS_CONF) {
+					nESC = value & 0xFF;
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_START:
+				if (status == STATUS_CONF && nESC > 0 && nESC <= maxESC && tMin < tMax) {
+					status = STATUS_STARTED;
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_ARM:
+				if (status == STATUS_STARTED) {
+					status = STATUS_ARMED;
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_SET_THROTTLE:
+				if (status == STATUS_STARTED || status == STATUS_ARMED) {
+					throttle = value & 0xFF;
+					ack = true;
+				}
+				break;
+				
+			case CLLCommProtocol.CMD_DISARM:
+				if (status == STATUS_ARMED) {
+					status = STATUS_STARTED;
+					ack = true;
+				}
+				break;
+		}
+		
+		if (ack && nackRate > 0 && nextDouble() < nackRate) ack = false;
+		
+		return ack;
+	}
+	
+	private void reply(int seq, boolean ack) throws IOException {
+		int l = (ack ? CLLCommProtocol.RESPONSE_ACK : CLLCommProtocol.RESPONSE_NACK);
+		byte[] r;
+		
+		if (seq == CLLCommProtocol.NO_SEQUENCE) {
+			l |= CLLCommProtocol.HEADER_RESPONSE_L;
+			r = new byte[] {
+					(byte) CLLCommProtocol.HEADER_RESPONSE_H,
+					(byte) l
+			};
+		} else {
+			l |= CLLCommProtocol.HEADER_SEQRESPONSE_L | (seq << CLLCommProtocol.SEQUENCE_SHIFT);
+			r = new byte[] {
+					(byte) CLLCommProtocol.HEADER_RESPONSE_H,
+					(byte) l,
+					(byte) (CLLCommProtocol.HEADER_RESPONSE_H ^ l)
+			};
+		}
+		
+		write(r, 0, r.length);
+	}
+	
+	/**
+	 * Writes data to the host, keeping replies and telemetry frames whole
+	 */
+	private void write(byte[] b, int off, int len) throws IOException {
+		writeLock.lock();
+		try {
+			simOut.write(b, off, len);
+			simOut.flush(); //wakes up reader
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Appends a frame to a batch, applying configured corruption
+	 * @return new batch length
+	 */
+	private int appendFrame(byte[] batch, int len, byte[] frame) {
+		double cr = corruptionRate;
+		
+		if (cr > 0 && nextDouble() < cr) {
+			int pos = nextInt(frame.length);
+			
+			if (nextInt(2) == 0) { //drop a byte
+				System.arraycopy(frame, 0, batch, len, pos);
+				System.arraycopy(frame, pos + 1, batch, len + pos, frame.length - pos - 1);
+				return len + frame.length - 1;
+			}
+			
+			System.arraycopy(frame, 0, batch, len, frame.length);
+			batch[len + pos] ^= (byte) (1 + nextInt(255));
+			return len + frame.length;
+		}
+		
+		System.arraycopy(frame, 0, batch, len, frame.length);
+		return len + frame.length;
+	}
+	
+	/**
+	 * Fills ticks with data of a simulated power system, driven by current throttle
+	 */
+	private void simulatedTicks(int[] ticks) {
+		double t = (autoGenThrottle ? throttle : 50) / 100.0d;
+		double jitter = (nextDouble() - 0.5d) * 0.01d;
+		
+		ticks[CLLCommProtocol.FRAME_REFERENCE] = REFERENCE_TICKS;
+		ticks[CLLCommProtocol.FRAME_VOLTAGE] = toTicks((11.1d - 1.5d * t + jitter) / 20.0d);
+		ticks[CLLCommProtocol.FRAME_RIPPLE_VOLTAGE] = toTicks((0.05d + 0.2d * t + jitter) / 4.0d);
+		ticks[CLLCommProtocol.FRAME_CURRENT] = toTicks((0.5d + 40.0d * t * t + jitter) / 50.0d);
+		ticks[CLLCommProtocol.FRAME_THROTTLE] = toTicks((tMin + (tMax - tMin) * t) / 1000.0d);
+		ticks[CLLCommProtocol.FRAME_OUTPUT_POWER] = toTicks(t * 100.0d / 25.02d);
+		ticks[CLLCommProtocol.FRAME_RPM] = toTicks(30000.0d * t / 20416.7d);
+		ticks[CLLCommProtocol.FRAME_BEC_VOLTAGE] = toTicks((5.5d + jitter) / 4.0d);
+		ticks[CLLCommProtocol.FRAME_BEC_CURRENT] = toTicks((0.3d + jitter) / 4.0d);
+		ticks[CLLCommProtocol.FRAME_TEMP1] = toTicks((25.0d + 30.0d * t + jitter) / 30.0d);
+		ticks[CLLCommProtocol.FRAME_TEMP2] = OFFSET_TICKS; //linear sensor: thermistor reports offset
+	}
+	
+	private static void emptyTicks(int[] ticks) {
+		for (int i = 0; i < ticks.length; i++) ticks[i] = 0;
+		ticks[CLLCommProtocol.FRAME_REFERENCE] = 2000;
+		ticks[CLLCommProtocol.FRAME_TEMP2] = 1000;
+	}
+	
+	private static int toTicks(double value) {
+		if (value < 0) value = 0;
+		return OFFSET_TICKS + (int) Math.round(value * REFERENCE_TICKS);
+	}
+	
+	/**
+	 * Encodes an ESC data frame as CastleLinkLiveSerialMonitor does
+	 */
+	private static void encode(byte[] frame, int escId, boolean throttlePresent, int[] ticks) {
+		frame[0] = (byte) CLLCommProtocol.HEADER_DATAIN_H;
+		frame[1] = (byte) (CLLCommProtocol.HEADER_DATAIN_L | 
+				(throttlePresent ? CLLCommProtocol.THROTTLE_PRESENT_MASK : 0) | 
+				(escId & CLLCommProtocol.ESC_ID_MASK));
+		
+		int checksum = frame[0] ^ frame[1];
+		
+		for (int i = 0; i < CLLCommProtocol.DATA_FRAME_CNT; i++) {
+			frame[i * 2 + 2] = (byte) (ticks[i] >> 8);
+			frame[i * 2 + 3] = (byte) ticks[i];
+			checksum ^= frame[i * 2 + 2] ^ frame[i * 2 + 3];
+		}
+		
+		frame[CLLCommProtocol.DATA_FRAME_LEN - 1] = (byte) checksum;
+	}
+	
+	private double nextDouble() {
+		synchronized (random) {
+			return random.nextDouble();
+		}
+	}
+	
+	private int nextInt(int n) {
+		synchronized (random) {
+			return random.nextInt(n);
+		}
+	}
+	
+	private static void sleepMs(int ms) {
+		if (ms <= 0) return;
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void closeQuietly(Closeable c) {
+		if (c == null) return;
+		try {
+			c.close();
+		} catch (IOException e) {
+		}
+	}
+}
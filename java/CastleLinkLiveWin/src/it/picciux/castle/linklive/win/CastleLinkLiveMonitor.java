@@ -32,6 +32,7 @@ import org.eclipse.swt.layout.RowLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Layout;
@@ -40,12 +41,19 @@ import org.eclipse.swt.widgets.ProgressBar;
 import org.eclipse.swt.widgets.Scale;
 import org.eclipse.swt.widgets.Shell;
 
+import it.picciux.castle.linklive.CaptureReplay;
 import it.picciux.castle.linklive.CastleESC;
 import it.picciux.castle.linklive.CastleLinkLive;
+import it.picciux.castle.linklive.CsvFormatter;
+import it.picciux.castle.linklive.EventDispatcher;
 import it.picciux.castle.linklive.ICastleLinkLiveEvent;
 import it.picciux.castle.linklive.InvalidArgumentException;
 import it.picciux.castle.linklive.InvalidDataException;
 import it.picciux.castle.linklive.InvalidThrottleLimitException;
+import it.picciux.castle.linklive.RawCapture;
+import it.picciux.castle.linklive.RawCaptureReader;
+import it.picciux.castle.linklive.TelemetryBus;
+import it.picciux.castle.linklive.TelemetryLogWriter;
 import it.picciux.commlayer.CommLayerException;
 import it.picciux.commlayer.ICommEventListener;
 import it.picciux.commlayer.win.log.LoggerFactory;
@@ -55,6 +63,8 @@ import it.picciux.commlayer.win.serial.SerialLayer;
 import it.picciux.commlayer.log.Logger;
 import it.picciux.commlayer.log.LoggerException;
 
+import java.io.IOException;
+
 public class CastleLinkLiveMonitor {
 	
 	public static class AppSettings implements Cloneable {
@@ -66,6 +76,7 @@ public class CastleLinkLiveMonitor {
 		int motorPoles = 2;
 		int logType = LOG_NONE;
 		String logPath = "";
+		int uiRefreshRate = DEFAULT_UI_REFRESH_RATE; //frames per second
 		
 		//TODO implement UI for network broadcast settings
 		int hrBroadcastPort = 0; 
@@ -111,6 +122,7 @@ public class CastleLinkLiveMonitor {
 	private static Button connectButton;
 	private static Button armButton;
 	private static Button setupButton;
+	private static Button replayButton;
 	
 	private static final String VOLTAGE_TITLE = "Voltage: ";
 	private static final String CURRENT_TITLE = "Current: ";
@@ -127,6 +139,11 @@ public class CastleLinkLiveMonitor {
 	public static final int LOG_NONE = 0;
 	public static final int LOG_RAW = 1;
 	public static final int LOG_HR = 2;
+	public static final int LOG_COLUMNAR = 3;
+	
+	public static final int MIN_UI_REFRESH_RATE = 1;
+	public static final int MAX_UI_REFRESH_RATE = 60;
+	public static final int DEFAULT_UI_REFRESH_RATE = 20;
 	
 	private static Color OKColor;
 	private static Color ProgressColor;
@@ -139,10 +156,52 @@ public class CastleLinkLiveMonitor {
 	//private static DataReader reader;
 	private static SerialLayer layer;
 	private static CastleLinkLive cll;
+	private static TelemetryBus bus;
 	private static DataLogger dataLogger = null;
+	private static RawCapture rawCapture = null;
+	private static CaptureReplay replay = null;
+	//only used by log handler thread
+	private static TelemetryLogWriter telemetryLog = null;
 	private static EscBroadcaster hrNetBroadcaster = null;
 	private static NetworkDataBroadcaster rawNetBroacaster = null;
-	private static int dataErrors = 0;
+	private static volatile int dataErrors = 0;
+	
+	//latest telemetry of each ESC, overwritten by the event handler and
+	//picked up by the UI refresh timer at most uiRefreshRate times per second
+	private static final CastleESC[] snapshots = new CastleESC[CastleLinkLive.MAX_ESC];
+	private static int snapshotIndex = -1;
+	private static boolean snapshotChanged = false;
+	
+	//what is currently on screen. UI thread only
+	private static final CastleESC shownESC = new CastleESC();
+	private static int shownDataErrors = -1;
+	
+	private static final Runnable uiRefresh = new Runnable() {
+		@Override
+		public void run() {
+			if (mainWin.isDisposed()) return;
+			refreshValues();
+			display.timerExec(uiRefreshInterval(), this);
+		}
+	};
+
+	//how often batched log and broadcast lines are checked for a due flush, in ms
+	private static final int LOG_FLUSH_CHECK_INTERVAL = 100;
+	
+	private static final Runnable logFlush = new Runnable() {
+		@Override
+		public void run() {
+			if (mainWin.isDisposed()) return;
+			
+			DataLogger logger = dataLogger;
+			if (logger != null) logger.flushIfDue();
+			
+			EscBroadcaster broadcaster = hrNetBroadcaster;
+			if (broadcaster != null) broadcaster.flushIfDue();
+			
+			display.timerExec(LOG_FLUSH_CHECK_INTERVAL, this);
+		}
+	};
 
 	public static Logger log;
 	private static int LOGLEVEL = Logger.FINE;
@@ -152,13 +211,25 @@ public class CastleLinkLiveMonitor {
 	}
 
 	private static void updateDataErrors() {
-		display.syncExec(new Runnable() {
-			
-			@Override
-			public void run() {
-				dataErrorsLabel.setText(DATA_ERRORS_TITLE + dataErrors);
-			}
-		});
+		int errors = dataErrors;
+		if (errors == shownDataErrors) return;
+		shownDataErrors = errors;
+		dataErrorsLabel.setText(DATA_ERRORS_TITLE + errors);
+	}
+	
+	private static int uiRefreshInterval() {
+		int rate = appSettings.uiRefreshRate;
+		if (rate < MIN_UI_REFRESH_RATE) rate = MIN_UI_REFRESH_RATE;
+		if (rate > MAX_UI_REFRESH_RATE) rate = MAX_UI_REFRESH_RATE;
+		return 1000 / rate;
+	}
+	
+	private static void setText(Label l, String text) {
+		if (! text.equals(l.getText())) l.setText(text);
+	}
+	
+	private static void setSelection(ProgressBar p, int value) {
+		if (p.getSelection() != value) p.setSelection(value);
 	}
 	
 	private static String throttleModeDescr(int throttleMode) {
@@ -196,7 +267,8 @@ public class CastleLinkLiveMonitor {
 	}
 	
 	private static void throttleScaleSetValue(int value) {
-		throttleScale.setSelection(throttleScale.getMaximum() - value);
+		int selection = throttleScale.getMaximum() - value;
+		if (throttleScale.getSelection() != selection) throttleScale.setSelection(selection);
 	}
 	
 	private static int throttleScaleGetValue() {
@@ -208,6 +280,24 @@ public class CastleLinkLiveMonitor {
 		return Math.round(v * m) / m;
 	}
 	
+	/**
+	 * Appends ESC values to <b>csv</b>, comma separated and rounded as by
+	 * {@link CastleLinkLiveMonitor#round(double, int)}. Line is not terminated.
+	 * @param csv the formatter to append values to
+	 * @param esc the ESC
+	 */
+	public static void appendESC(CsvFormatter csv, CastleESC esc) {
+		csv.append(esc.getVoltage(), 3).separator()
+			.append(esc.getRippleVoltage(), 3).separator()
+			.append(esc.getCurrent(), 3).separator()
+			.append(esc.getRPM()).separator()
+			.append(esc.getThrottle(), 3).separator()
+			.append(esc.getOutputPower()).separator()
+			.append(esc.getTemperature(), 1).separator()
+			.append(esc.getBECvoltage(), 3).separator()
+			.append(esc.getBECcurrent(), 3);
+	}
+	
 	private static void makeUI(Shell w) {
 		w.setLayout(new RowLayout(SWT.VERTICAL));
 		
@@ -313,12 +403,76 @@ public class CastleLinkLiveMonitor {
 			
 		});
 		
+		replayButton = new Button(statusGroup, SWT.PUSH);
+		replayButton.setText("Replay");
+		replayButton.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				if (replay == null)
+					openCapture();
+				else
+					replay.stop();
+			}
+		});
+		
 		//final laying-out
 		w.pack();
 		
 		connectButton.setText("Connect");
 	}
 	
+	/**
+	 * Asks for a raw capture and replays it with recorded timing, 
+	 * as if data came from the serial port
+	 */
+	private static void openCapture() {
+		FileDialog fd = new FileDialog(mainWin, SWT.OPEN);
+		fd.setText("Open capture");
+		String path = fd.open();
+		if (path == null) return;
+		
+		try {
+			replay = new CaptureReplay(RawCaptureReader.basePathOf(path));
+			replay.addSession(0, cll, appSettings.nESC);
+		} catch (Exception e) {
+			replay = null;
+			MessageBox mb = new MessageBox(mainWin, SWT.ICON_ERROR | SWT.OK);
+			mb.setMessage("Cannot replay " + path + ": " + e.getMessage());
+			mb.open();
+			return;
+		}
+		
+		dataErrors = 0;
+		updateDataErrors();
+		synchronized (snapshots) {
+			for (int i = 0; i < snapshots.length; i++)
+				snapshots[i] = null;
+		}
+		
+		connectButton.setEnabled(false);
+		setupButton.setEnabled(false);
+		replayButton.setText("Stop replay");
+		replay.start();
+	}
+	
+	/**
+	 * Restores UI when a replay is over. Called in UI thread
+	 */
+	private static void replayFinished() {
+		if (replay == null) return;
+		
+		if (replay.getError() != null) {
+			MessageBox mb = new MessageBox(mainWin, SWT.ICON_ERROR | SWT.OK);
+			mb.setMessage("Replay error: " + replay.getError().getMessage());
+			mb.open();
+		}
+		
+		replay = null;
+		connectButton.setEnabled(true);
+		setupButton.setEnabled(true);
+		replayButton.setText("Replay");
+	}
+	
 	private static void showPreferences() {
 		PreferencesWindow pref = new PreferencesWindow(mainWin, appSettings, layer);
 		pref.start();
@@ -337,33 +491,44 @@ public class CastleLinkLiveMonitor {
 		log.config("LOG path: " + appSettings.logPath);
 	}
 	
-	private static void updateValues(CastleESC esc) {
-		//long start = System.currentTimeMillis();
-		mainWin.setRedraw(false);
+	private static void refreshValues() {
+		boolean changed;
+		
+		synchronized (snapshots) {
+			changed = snapshotChanged;
+			if (changed) {
+				snapshots[snapshotIndex].copyTo(shownESC);
+				snapshotChanged = false;
+			}
+		}
 		
+		if (changed) updateValues(shownESC);
+		updateDataErrors();
+	}
+	
+	private static void updateValues(CastleESC esc) {
+		//only widgets whose text actually changed are touched, so that
+		//steady values don't cause any repaint
 		if (cll.getThrottleMode() == CastleLinkLive.EXTERNAL_THROTTLE) {
 			double tp = round((((esc.getThrottle() * 1000.0d) - cll.getThrottleMin()) / (cll.getThrottleMax() - cll.getThrottleMin()) * 100.0d),1);
-			throttlePercent.setText(tp  + "%");
-			throttleValue.setText(Double.toString(round(esc.getThrottle(), 3)) + "us");
+			setText(throttlePercent, tp  + "%");
+			setText(throttleValue, Double.toString(round(esc.getThrottle(), 3)) + "us");
 			throttleScaleSetValue((int) tp);
 			
 		}
 		
-		outputPower.setSelection(esc.getOutputPower());
-		outputPowerPercent.setText(esc.getOutputPower() + "%");
-		
-		voltage.setText(VOLTAGE_TITLE + round(esc.getVoltage(), 3) + "V");
-		current.setText(CURRENT_TITLE + round(esc.getCurrent(), 3) + "A");
-		power.setText(POWER_TITLE + round(esc.getVoltage() + esc.getCurrent(), 1) + "W");
-		rpm.setText(RPM_TITLE + esc.getRPM());
-		rippleVoltage.setText(RIPPLE_TITLE + round(esc.getRippleVoltage(), 3) + "V");
-		becVoltage.setText(BEC_VOLTAGE_TITLE + round(esc.getBECvoltage(), 3) + "V");
-		becCurrent.setText(BEC_CURRENT_TITLE + round(esc.getBECcurrent(), 3) + "A");
-		temperature.setSelection((int) esc.getTemperature());
-		temperatureValue.setText(Double.toString(round(esc.getTemperature(), 1)) + "C");
-		
-		mainWin.setRedraw(true);
-		//log.fine("UI update took " + (System.currentTimeMillis() - start) + " ms");
+		setSelection(outputPower, esc.getOutputPower());
+		setText(outputPowerPercent, esc.getOutputPower() + "%");
+		
+		setText(voltage, VOLTAGE_TITLE + round(esc.getVoltage(), 3) + "V");
+		setText(current, CURRENT_TITLE + round(esc.getCurrent(), 3) + "A");
+		setText(power, POWER_TITLE + round(esc.getVoltage() + esc.getCurrent(), 1) + "W");
+		setText(rpm, RPM_TITLE + esc.getRPM());
+		setText(rippleVoltage, RIPPLE_TITLE + round(esc.getRippleVoltage(), 3) + "V");
+		setText(becVoltage, BEC_VOLTAGE_TITLE + round(esc.getBECvoltage(), 3) + "V");
+		setText(becCurrent, BEC_CURRENT_TITLE + round(esc.getBECcurrent(), 3) + "A");
+		setSelection(temperature, (int) esc.getTemperature());
+		setText(temperatureValue, Double.toString(round(esc.getTemperature(), 1)) + "C");
 	}
 	
 	private static void uiThreadExec(Runnable runnable) {
@@ -382,6 +547,7 @@ public class CastleLinkLiveMonitor {
 		updateDataErrors();
 		setupButton.setEnabled(false);
 		connectButton.setEnabled(false);
+		replayButton.setEnabled(false);
 		connectButton.setText("Connecting");
 		
 		layer.getSettings().setPort(appSettings.port);
@@ -389,11 +555,17 @@ public class CastleLinkLiveMonitor {
 		//reader = new Reader(cll);
 		//layer.setDataReader(reader);
 		
-		if (appSettings.logType != LOG_NONE && appSettings.logPath.length() > 0) 
+		if (appSettings.logType == LOG_HR && appSettings.logPath.length() > 0) 
 			dataLogger = new DataLogger(appSettings.logPath);
 		
-		if (appSettings.logType == LOG_RAW && dataLogger != null)
-			layer.addDataLogger(dataLogger);
+		if (appSettings.logType == LOG_RAW && appSettings.logPath.length() > 0) {
+			try {
+				rawCapture = new RawCapture(appSettings.logPath);
+				cll.setRawCapture(rawCapture, 0);
+			} catch (IOException e) {
+				log.warning("Cannot create raw capture: " + e.getMessage());
+			}
+		}
 		
 		if (appSettings.hrBroadcastPort > 0)
 			hrNetBroadcaster = new EscBroadcaster(appSettings.hrBroadcastPort, "HR broadcaster");
@@ -443,7 +615,10 @@ public class CastleLinkLiveMonitor {
 		
 		cll = new CastleLinkLive();
 		
-		cll.setEventHandler(new ICastleLinkLiveEvent() {
+		display.timerExec(uiRefreshInterval(), uiRefresh);
+		display.timerExec(LOG_FLUSH_CHECK_INTERVAL, logFlush);
+		
+		ICastleLinkLiveEvent handler = new ICastleLinkLiveEvent() {
 			
 			@Override
 			public void throttlePresent(boolean present) {
@@ -466,15 +641,13 @@ public class CastleLinkLiveMonitor {
 			@Override
 			public void dataUpdated(final int index, final CastleESC esc) {
 				log.finer("Updating " + esc.getVoltage());
-				uiThreadExec(new Runnable() {
-					@Override
-					public void run() {
-						updateValues(esc);
-					}
-				});
+				synchronized (snapshots) {
+					if (snapshots[index] == null) snapshots[index] = new CastleESC();
+					esc.copyTo(snapshots[index]);
+					snapshotIndex = index;
+					snapshotChanged = true;
+				}
 				
-				if (appSettings.logType == LOG_HR && dataLogger != null) dataLogger.logESC(esc);
-				if ((appSettings.hrBroadcastPort > 0) && (hrNetBroadcaster != null)) hrNetBroadcaster.logESC(esc);
 			}
 			
 			@Override
@@ -485,26 +658,18 @@ public class CastleLinkLiveMonitor {
 				if (connected) {
 					c = OKColor;
 					logText = "CastleLinkLive is connected!";
-					if (appSettings.logType == LOG_HR && dataLogger != null)
-						dataLogger.openLog();
-					
-					if (appSettings.hrBroadcastPort > 0 && hrNetBroadcaster != null) hrNetBroadcaster.openLog();
 				} else {
-					layer.disconnect();
+					if (layer.isConnected()) layer.disconnect();
 					c = KOColor;
 					logText = "CastleLinkLive is not connected";
-					if (appSettings.logType == LOG_HR && dataLogger != null)
-						dataLogger.closeLog();
-
-					if (appSettings.hrBroadcastPort > 0 && hrNetBroadcaster != null) hrNetBroadcaster.closeLog();
-					
 				}
 				
 				uiThreadExec(new Runnable() {
 					public void run() {
-						armButton.setEnabled(connected);
+						armButton.setEnabled(connected && replay == null);
 						if (! connected) armButton.setSelection(false);
 						cllConnection.setBackground(c);
+						if (! connected) replayFinished();
 					}
 				});
 				
@@ -535,7 +700,111 @@ public class CastleLinkLiveMonitor {
 					}
 				});
 			}
-		});
+		};
+		
+		ICastleLinkLiveEvent logHandler = new ICastleLinkLiveEvent() {
+			@Override
+			public void dataUpdated(int index, CastleESC esc) {
+				if (appSettings.logType == LOG_HR && dataLogger != null) dataLogger.logESC(esc);
+				
+				if (telemetryLog != null) {
+					try {
+						telemetryLog.write(esc);
+					} catch (IOException e) {
+						log.warning("Telemetry log write error: " + e.getMessage());
+						closeTelemetryLog();
+					}
+				}
+			}
+			
+			private void closeTelemetryLog() {
+				try {
+					telemetryLog.close();
+				} catch (IOException e) {
+					log.warning("Telemetry log close error: " + e.getMessage());
+				}
+				telemetryLog = null;
+			}
+			
+			@Override
+			public void connectionEvent(boolean connected) {
+				if (! connected && telemetryLog != null) closeTelemetryLog();
+				
+				if (connected && appSettings.logType == LOG_COLUMNAR && appSettings.logPath.length() > 0) {
+					try {
+						telemetryLog = new TelemetryLogWriter(appSettings.logPath);
+					} catch (IOException e) {
+						log.warning("Cannot create telemetry log: " + e.getMessage());
+					}
+				}
+				
+				if (appSettings.logType != LOG_HR || dataLogger == null) return;
+				
+				if (connected)
+					dataLogger.openLog();
+				else {
+					dataLogger.flushLines();
+					dataLogger.closeLog();
+				}
+			}
+			
+			@Override
+			public void throttlePresent(boolean present) {
+			}
+			
+			@Override
+			public void connectionError(String reason) {
+			}
+			
+			@Override
+			public void armedEvent(boolean armed) {
+			}
+		};
+		
+		ICastleLinkLiveEvent broadcastHandler = new ICastleLinkLiveEvent() {
+			@Override
+			public void dataUpdated(int index, CastleESC esc) {
+				if ((appSettings.hrBroadcastPort > 0) && (hrNetBroadcaster != null)) hrNetBroadcaster.logESC(esc);
+			}
+			
+			@Override
+			public void connectionEvent(boolean connected) {
+				if (appSettings.hrBroadcastPort <= 0 || hrNetBroadcaster == null) return;
+				
+				if (connected)
+					hrNetBroadcaster.openLog();
+				else {
+					hrNetBroadcaster.flushLines();
+					hrNetBroadcaster.closeLog();
+				}
+			}
+			
+			@Override
+			public void throttlePresent(boolean present) {
+			}
+			
+			@Override
+			public void connectionError(String reason) {
+			}
+			
+			@Override
+			public void armedEvent(boolean armed) {
+			}
+		};
+		
+		//UI, HR logger and HR broadcaster have their own queue and thread, 
+		//so that none of them stalls the others or serial data reading.
+		//UI only needs latest data of each ESC, while sinks get every frame
+		//unless they fall behind by a whole queue
+		bus = new TelemetryBus();
+		try {
+			bus.subscribe(handler, EventDispatcher.DEFAULT_CAPACITY, EventDispatcher.POLICY_LATEST_PER_ESC);
+		} catch (InvalidArgumentException e) {
+			log.log(Logger.SEVERE, "Cannot subscribe UI", e);
+		}
+		bus.subscribe(logHandler);
+		bus.subscribe(broadcastHandler);
+		cll.setEventHandler(bus);
 		
 		layer = new SerialLayer();
 
@@ -606,17 +875,22 @@ public class CastleLinkLiveMonitor {
 							});							
 						}
 						
-						cll.getESC(0).setMotorPoles(appSettings.motorPoles);
+						for (int i = 0; i < cll.getnESC(); i++)
+							cll.getESC(i).setMotorPoles(appSettings.motorPoles);
 						break;
 						
 					case SerialLayer.DISCONNECTED:
 						log.fine("Serial layer disconnected");
 						cll.stop();
 						
-						/*if (appSettings.logType == LOG_RAW && dataLogger != null)
-							layer.removeDataLogger(dataLogger);*/
 						layer.removeAllDataLoggers();
 						
+						if (rawCapture != null) {
+							cll.setRawCapture(null, 0);
+							rawCapture.close();
+							rawCapture = null;
+						}
+						
 						break;
 						
 					case SerialLayer.CONNECTION_STARTED:
@@ -632,15 +906,11 @@ public class CastleLinkLiveMonitor {
 					case SerialLayer.DATA_AVAILABLE:
 						int n = ((Integer) extraData).intValue();
 						byte[] data = layer.getData();
-						for (int i = 0; i < n; i++) {
-							try {
-								log.finest( "0x" +  Integer.toString( ((int) data[i]) & 0xFF, 16));
-								cll.putData(((int) data[i]) & 0xFF);
-							} catch (InvalidDataException e) {
-								dataErrors++;
-								updateDataErrors();
-							}
-						}						
+						try {
+							cll.putData(data, 0, n);
+						} catch (InvalidDataException e) {
+							dataErrors += cll.getLastDataErrors();
+						}
 						break;
 					
 					case SerialLayer.PORTSCAN_STARTED:
@@ -673,6 +943,7 @@ public class CastleLinkLiveMonitor {
 							armButton.setEnabled(false);
 							armButton.setSelection(false);
 							setupButton.setEnabled(true);
+							replayButton.setEnabled(true);
 						}
 					});
 				}
@@ -690,6 +961,8 @@ public class CastleLinkLiveMonitor {
 			cll.stop();
 		}
 		
+		bus.shutdown();
+		
 		//log.finer("Disconnecting CommLayer");
 		//layer.disconnect();
 		//cmdThread.terminate();
@@ -25,13 +25,31 @@
 package it.picciux.castle.linklive.win;
 
 import it.picciux.castle.linklive.CastleESC;
+import it.picciux.castle.linklive.CsvFormatter;
 
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 
 public class DataLogger extends it.picciux.commlayer.DataLogger {
-	private long startMs = -1;
+	/**
+	 * Default size of a batch of lines, in bytes
+	 */
+	public static final int DEFAULT_FLUSH_SIZE = 16 * 1024;
+	
+	/**
+	 * Default maximum time lines are held before being written, in milliseconds
+	 */
+	public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+	
+	private long startNanos = 0;
+	private boolean started = false;
+	
+	//lines are formatted here and written in batches
+	private final CsvFormatter batch = new CsvFormatter(DEFAULT_FLUSH_SIZE + 256);
+	private int flushSize = DEFAULT_FLUSH_SIZE;
+	private long flushIntervalNanos = DEFAULT_FLUSH_INTERVAL * 1000000L;
+	private long batchNanos = 0;
 	
 	public DataLogger() {
 		super();
@@ -56,22 +74,54 @@ public class DataLogger extends it.picciux.commlayer.DataLogger {
 		return fos;
 	}
 
-	public void logESC(CastleESC esc) {
-		if (startMs == -1) startMs = System.currentTimeMillis();
+	/**
+	 * Sets when batched lines are written
+	 * @param size batch size, in bytes, lines are written at
+	 * @param interval maximum time lines are held, in milliseconds 
+	 * (checked when a line is logged and by {@link #flushIfDue()})
+	 */
+	public synchronized void setFlushThresholds(int size, int interval) {
+		flushSize = (size < 1 ? 1 : size);
+		flushIntervalNanos = (interval < 0 ? 0 : interval) * 1000000L;
+	}
+	
+	public synchronized void logESC(CastleESC esc) {
+		//time data is taken from frame arrival, not from when we're called
+		long arrivalNanos = esc.getFrame().getArrivalNanos();
+		
+		if (! started) {
+			startNanos = arrivalNanos;
+			started = true;
+		}
 		
-		String line = 
-				Double.toString(CastleLinkLiveMonitor.round((System.currentTimeMillis() - startMs) / 1000.0d, 1)) + "," + 
-				Double.toString(CastleLinkLiveMonitor.round(esc.getVoltage(), 3)) + "," + 
-				Double.toString(CastleLinkLiveMonitor.round(esc.getRippleVoltage(), 3)) + "," + 
-				Double.toString(CastleLinkLiveMonitor.round(esc.getCurrent(), 3)) + "," +
-				Long.toString(esc.getRPM()) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getThrottle(), 3)) + "," +
-				Integer.toString(esc.getOutputPower()) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getTemperature(), 1)) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getBECvoltage(), 3)) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getBECcurrent(), 3)) + "\r\n";
-				
-		writeText(line);
+		long now = System.nanoTime();
+		if (batch.length() == 0) batchNanos = now;
+		
+		batch.append((arrivalNanos - startNanos) / 1000000000.0d, 1).separator();
+		CastleLinkLiveMonitor.appendESC(batch, esc);
+		batch.endLine();
+		
+		if (batch.length() >= flushSize || now - batchNanos >= flushIntervalNanos) flushLines();
+	}
+	
+	/**
+	 * Writes lines batched so far
+	 */
+	public synchronized void flushLines() {
+		if (batch.length() == 0) return;
+		
+		writeText(batch.toString());
+		batch.reset();
+	}
+	
+	/**
+	 * Writes lines batched so far if they have been held longer than
+	 * the flush interval. Meant to be called periodically, so that lines
+	 * are not held indefinitely when data stops coming
+	 */
+	public synchronized void flushIfDue() {
+		if (batch.length() == 0) return;
+		if (System.nanoTime() - batchNanos >= flushIntervalNanos) flushLines();
 	}
 
 	@Override
@@ -25,9 +25,26 @@
 package it.picciux.castle.linklive.win;
 
 import it.picciux.castle.linklive.CastleESC;
+import it.picciux.castle.linklive.CsvFormatter;
 import it.picciux.commlayer.win.net.NetworkDataBroadcaster;
 
 public class EscBroadcaster extends NetworkDataBroadcaster {
+	/**
+	 * Default size of a batch of lines, in bytes
+	 */
+	public static final int DEFAULT_FLUSH_SIZE = 4 * 1024;
+	
+	/**
+	 * Default maximum time lines are held before being sent, in milliseconds
+	 * (short, as clients are watching live data)
+	 */
+	public static final int DEFAULT_FLUSH_INTERVAL = 100;
+	
+	//lines are formatted here and sent in batches
+	private final CsvFormatter batch = new CsvFormatter(DEFAULT_FLUSH_SIZE + 256);
+	private int flushSize = DEFAULT_FLUSH_SIZE;
+	private long flushIntervalNanos = DEFAULT_FLUSH_INTERVAL * 1000000L;
+	private long batchNanos = 0;
 
 	public EscBroadcaster(int port) {
 		super(port);
@@ -37,20 +54,45 @@ public class EscBroadcaster extends NetworkDataBroadcaster {
 		super(port, name);
 	}
 	
-	public void logESC(CastleESC esc) {
+	/**
+	 * Sets when batched lines are sent
+	 * @param size batch size, in bytes, lines are sent at
+	 * @param interval maximum time lines are held, in milliseconds 
+	 * (checked when a line is logged and by {@link #flushIfDue()})
+	 */
+	public synchronized void setFlushThresholds(int size, int interval) {
+		flushSize = (size < 1 ? 1 : size);
+		flushIntervalNanos = (interval < 0 ? 0 : interval) * 1000000L;
+	}
+	
+	public synchronized void logESC(CastleESC esc) {
+		long now = System.nanoTime();
+		if (batch.length() == 0) batchNanos = now;
+		
+		CastleLinkLiveMonitor.appendESC(batch, esc);
+		batch.endLine();
+		
+		if (batch.length() >= flushSize || now - batchNanos >= flushIntervalNanos) flushLines();
+	}
+	
+	/**
+	 * Sends lines batched so far
+	 */
+	public synchronized void flushLines() {
+		if (batch.length() == 0) return;
 		
-		String line = 
-				Double.toString(CastleLinkLiveMonitor.round(esc.getVoltage(), 3)) + "," + 
-				Double.toString(CastleLinkLiveMonitor.round(esc.getRippleVoltage(), 3)) + "," + 
-				Double.toString(CastleLinkLiveMonitor.round(esc.getCurrent(), 3)) + "," +
-				Long.toString(esc.getRPM()) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getThrottle(), 3)) + "," +
-				Integer.toString(esc.getOutputPower()) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getTemperature(), 1)) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getBECvoltage(), 3)) + "," +
-				Double.toString(CastleLinkLiveMonitor.round(esc.getBECcurrent(), 3)) + "\r\n";
-				
-		writeText(line);
+		writeText(batch.toString());
+		batch.reset();
+	}
+	
+	/**
+	 * Sends lines batched so far if they have been held longer than
+	 * the flush interval. Meant to be called periodically, so that lines
+	 * are not held indefinitely when data stops coming
+	 */
+	public synchronized void flushIfDue() {
+		if (batch.length() == 0) return;
+		if (System.nanoTime() - batchNanos >= flushIntervalNanos) flushLines();
 	}
 	
 }
@@ -87,6 +87,8 @@ public class PreferencesWindow {
 					motorPolesSpinner.setSelection(p);
 				}
 				tempSettings.motorPoles = p;
+			} else if (e.widget == uiRefreshSpinner) {
+				tempSettings.uiRefreshRate = uiRefreshSpinner.getSelection();
 			} else if (e.widget == portCombo) {
 				tempSettings.port = portCombo.getItem(portCombo.getSelectionIndex());
 			} else if (e.widget == portText) {
@@ -95,20 +97,30 @@ public class PreferencesWindow {
 				logNoneButton.setSelection(true);
 				logRawButton.setSelection(false);
 				logHRButton.setSelection(false);
+				logColumnarButton.setSelection(false);
 				tempSettings.logType = CastleLinkLiveMonitor.LOG_NONE;
 				setLogControls(tempSettings.logType);
 			} else if (e.widget == logRawButton) {
 				logNoneButton.setSelection(false);
 				logRawButton.setSelection(true);
 				logHRButton.setSelection(false);
+				logColumnarButton.setSelection(false);
 				tempSettings.logType = CastleLinkLiveMonitor.LOG_RAW;
 				setLogControls(tempSettings.logType);
 			} else if (e.widget == logHRButton) {
 				logNoneButton.setSelection(false);
 				logRawButton.setSelection(false);
 				logHRButton.setSelection(true);
+				logColumnarButton.setSelection(false);
 				tempSettings.logType = CastleLinkLiveMonitor.LOG_HR;
 				setLogControls(tempSettings.logType);
+			} else if (e.widget == logColumnarButton) {
+				logNoneButton.setSelection(false);
+				logRawButton.setSelection(false);
+				logHRButton.setSelection(false);
+				logColumnarButton.setSelection(true);
+				tempSettings.logType = CastleLinkLiveMonitor.LOG_COLUMNAR;
+				setLogControls(tempSettings.logType);
 			} else if (e.widget == logBrowseButton) {
 				FileDialog d = new FileDialog(w, SWT.SAVE);
 				File lf = new File(logPath.getText());
@@ -179,6 +191,8 @@ public class PreferencesWindow {
 	
 	private Spinner motorPolesSpinner;
 	
+	private Spinner uiRefreshSpinner;
+	
 	private Combo portCombo;
 	private Text portText;
 	
@@ -193,6 +207,7 @@ public class PreferencesWindow {
 	private Button logNoneButton;
 	private Button logRawButton;
 	private Button logHRButton;
+	private Button logColumnarButton;
 	
 	private Text logPath;
 	private Button logBrowseButton;
@@ -285,7 +300,7 @@ public class PreferencesWindow {
 		Label l = new Label(escGroup, SWT.NONE);
 		l.setText("ESCs connected");
 		nEscSpinner = new Spinner(escGroup, SWT.BORDER);
-		nEscSpinner.setMaximum(2);
+		nEscSpinner.setMaximum(CastleLinkLive.MAX_ESC);
 		nEscSpinner.setMinimum(1);
 		nEscSpinner.setSelection(settings.nESC);
 		nEscSpinner.addSelectionListener(listener);
@@ -300,6 +315,14 @@ public class PreferencesWindow {
 		motorPolesSpinner.setSelection(settings.motorPoles);
 		motorPolesSpinner.addSelectionListener(listener);
 		
+		l = new Label(escGroup, SWT.NONE);
+		l.setText("Display refresh rate (fps)");
+		uiRefreshSpinner = new Spinner(escGroup, SWT.BORDER);
+		uiRefreshSpinner.setMinimum(CastleLinkLiveMonitor.MIN_UI_REFRESH_RATE);
+		uiRefreshSpinner.setMaximum(CastleLinkLiveMonitor.MAX_UI_REFRESH_RATE);
+		uiRefreshSpinner.setSelection(settings.uiRefreshRate);
+		uiRefreshSpinner.addSelectionListener(listener);
+		
 		Group comGroup = new Group(controls, SWT.NONE);
 		comGroup.setLayout(new RowLayout(SWT.VERTICAL));
 		comGroup.setText("Communication");
@@ -335,6 +358,11 @@ public class PreferencesWindow {
 		logHRButton.setSelection(settings.logType == CastleLinkLiveMonitor.LOG_HR);
 		logHRButton.addSelectionListener(listener);
 		
+		logColumnarButton = new Button(logGroup, SWT.RADIO);
+		logColumnarButton.setText("Compressed telemetry");
+		logColumnarButton.setSelection(settings.logType == CastleLinkLiveMonitor.LOG_COLUMNAR);
+		logColumnarButton.addSelectionListener(listener);
+		
 		logPath = new Text(logGroup, SWT.BORDER);
 		logPath.setText(settings.logPath);
 		
@@ -365,6 +393,7 @@ public class PreferencesWindow {
 		settings.throttleMax = tempSettings.throttleMax;
 		settings.throttleMode = tempSettings.throttleMode;
 		settings.motorPoles = tempSettings.motorPoles;
+		settings.uiRefreshRate = tempSettings.uiRefreshRate;
 		settings.logType = tempSettings.logType;
 		settings.logPath = logPath.getText();
 	}